@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.excilys.spring.mom.metrics.MOMMetricsRegistry;
+
+/**
+ * Publication of a JSON message dispatched to a handler method through the {@link MOMClientInProcess in-process
+ * transport}, including parsing and invocation, with and without metrics.
+ * 
+ * @author dvilleneuve
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+	private static final String TOPIC = "/topic/benchmark";
+
+	@Param({ "64", "1024" })
+	private int payloadSize;
+
+	@Param({ "false", "true" })
+	private boolean metrics;
+
+	private MOMClientInProcess client;
+	private QuoteHandler handler;
+	private byte[] data;
+
+	@Setup
+	public void setUp() throws Exception {
+		client = new MOMClientInProcess();
+		if (metrics) {
+			client.setMetrics(new MOMMetricsRegistry());
+		}
+
+		handler = new QuoteHandler();
+		Method method = QuoteHandler.class.getMethod("received", Quote.class);
+		client.subscribe(TOPIC, new MOMMethodHandler(method, handler, method.getAnnotation(MOMMapping.class)));
+		data = Quote.json(payloadSize);
+	}
+
+	@Benchmark
+	public Quote publish() {
+		client.publish(TOPIC, data);
+		return handler.last;
+	}
+
+	public static class QuoteHandler {
+
+		private Quote last;
+
+		@MOMMapping(topic = TOPIC, consumes = MOMMappingConsum.JSON)
+		public void received(Quote quote) {
+			last = quote;
+		}
+	}
+}
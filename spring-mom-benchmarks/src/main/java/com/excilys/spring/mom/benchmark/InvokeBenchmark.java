@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Invocation of a handler method : through {@link MOMMethodHandler#invokeParsed(Object[]) MOMMethodHandler}
+ * (reflection), compared to a direct call and to a {@link MethodHandle MethodHandle}.
+ * 
+ * @author dvilleneuve
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokeBenchmark {
+
+	private Handler handler;
+	private Object[] arguments;
+	private MOMMethodHandler methodHandler;
+	private MethodHandle methodHandle;
+
+	@Setup
+	public void setUp() throws Exception {
+		handler = new Handler();
+		arguments = new Object[] { "message" };
+		Method method = Handler.class.getMethod("received", String.class);
+		methodHandler = new MOMMethodHandler(method, handler, MOMMappingConsum.STRING);
+		methodHandle = MethodHandles.lookup().unreflect(method).bindTo(handler);
+	}
+
+	@Benchmark
+	public Object direct() {
+		return handler.received((String) arguments[0]);
+	}
+
+	@Benchmark
+	public Object reflection() throws Exception {
+		return methodHandler.invokeParsed(arguments);
+	}
+
+	@Benchmark
+	public Object methodHandle() throws Throwable {
+		return methodHandle.invoke((String) arguments[0]);
+	}
+
+	public static class Handler {
+
+		private int received;
+
+		public Object received(String message) {
+			received++;
+			return message;
+		}
+	}
+}
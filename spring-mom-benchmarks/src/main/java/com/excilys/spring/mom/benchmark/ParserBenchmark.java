@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.excilys.spring.mom.annotation.MOMAttributeEncoding;
+import com.excilys.spring.mom.parser.MOMResponseBinaryParser;
+import com.excilys.spring.mom.parser.MOMResponseJSONAttributesParser;
+import com.excilys.spring.mom.parser.MOMResponseJSONParser;
+import com.excilys.spring.mom.parser.MOMResponseParser;
+import com.excilys.spring.mom.parser.MOMResponseParsingException;
+import com.excilys.spring.mom.parser.MOMResponseStringParser;
+import com.excilys.spring.mom.parser.ParameterInfo;
+
+/**
+ * Parsing of a JSON message by each {@link MOMResponseParser MOMResponseParser} implementation.
+ * 
+ * @author dvilleneuve
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Param({ "64", "1024", "16384" })
+	private int payloadSize;
+
+	private byte[] data;
+	private MOMResponseParser binaryParser;
+	private MOMResponseParser stringParser;
+	private MOMResponseParser jsonParser;
+	private MOMResponseParser jsonAttributesParser;
+
+	@Setup
+	public void setUp() {
+		data = Quote.json(payloadSize);
+		binaryParser = new MOMResponseBinaryParser();
+		stringParser = new MOMResponseStringParser();
+		jsonParser = new MOMResponseJSONParser(Quote.class);
+		jsonAttributesParser = new MOMResponseJSONAttributesParser(new ParameterInfo[] {
+				new ParameterInfo("symbol", MOMAttributeEncoding.PLAIN),
+				new ParameterInfo("price", MOMAttributeEncoding.PLAIN) });
+	}
+
+	@Benchmark
+	public Object[] binary() throws MOMResponseParsingException {
+		return binaryParser.parse(data);
+	}
+
+	@Benchmark
+	public Object[] string() throws MOMResponseParsingException {
+		return stringParser.parse(data);
+	}
+
+	@Benchmark
+	public Object[] json() throws MOMResponseParsingException {
+		return jsonParser.parse(data);
+	}
+
+	@Benchmark
+	public Object[] jsonAttributes() throws MOMResponseParsingException {
+		return jsonAttributesParser.parse(data);
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.benchmark;
+
+/**
+ * Payload of the benchmarked messages.
+ * 
+ * @author dvilleneuve
+ */
+public class Quote {
+
+	private String symbol;
+	private double price;
+	private String payload;
+
+	public Quote() {
+	}
+
+	public Quote(String symbol, double price, String payload) {
+		this.symbol = symbol;
+		this.price = price;
+		this.payload = payload;
+	}
+
+	/**
+	 * Return the JSON representation of a quote whose payload pads the JSON to about {@code size} bytes.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	public static byte[] json(int size) {
+		String prefix = "{\"symbol\":\"EURUSD\",\"price\":1.2345,\"payload\":\"";
+		String suffix = "\"}";
+		StringBuilder builder = new StringBuilder(size).append(prefix);
+		for (int i = prefix.length() + suffix.length(); i < size; i++) {
+			builder.append((char) ('a' + i % 26));
+		}
+		return builder.append(suffix).toString().getBytes();
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+	public void setPrice(double price) {
+		this.price = price;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+}
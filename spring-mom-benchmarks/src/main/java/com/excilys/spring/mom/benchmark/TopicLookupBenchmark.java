@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * Lookup of the method handlers of a topic in the registry of a {@link MOMClient MOMClient}, for a growing number of
+ * subscribed topics.
+ * 
+ * @author dvilleneuve
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicLookupBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	private int topicCount;
+
+	private MOMClient client;
+	private String[] topics;
+	private int index;
+
+	@Setup
+	public void setUp() throws Exception {
+		client = new MOMClientInProcess();
+		Method method = InvokeBenchmark.Handler.class.getMethod("received", String.class);
+		MOMMethodHandler methodHandler = new MOMMethodHandler(method, new InvokeBenchmark.Handler(),
+				MOMMappingConsum.STRING);
+
+		topics = new String[topicCount];
+		for (int i = 0; i < topicCount; i++) {
+			// Build a new string, as topics of received messages aren't the interned subscribed ones
+			topics[i] = new String("/topic/benchmark." + i);
+			client.subscribe("/topic/benchmark." + i, methodHandler);
+		}
+	}
+
+	@Benchmark
+	public Set<MOMMethodHandler> lookup() {
+		index = (index + 1) % topicCount;
+		return client.getTopicMethodHandlers().get(topics[index]);
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.jfr;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.metrics.MOMMetrics;
+
+/**
+ * {@link MOMMetrics MOMMetrics} implementation emitting Java Flight Recorder events for received, parsed, handled,
+ * published and throttled messages, so that recordings can correlate GC pauses or lock contention with topics and method handlers.
+ * <p/>
+ * Each event is only filled when it is enabled in the recording settings : when it isn't, the JIT removes the event
+ * allocation and the cost is a single check. Metrics can be forwarded to another {@link MOMMetrics MOMMetrics}, like a
+ * {@link com.excilys.spring.mom.metrics.MOMMetricsRegistry MOMMetricsRegistry}.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMFlightRecorderMetrics implements MOMMetrics {
+
+	private final MOMMetrics delegate;
+
+	public MOMFlightRecorderMetrics() {
+		this(null);
+	}
+
+	/**
+	 * @param delegate
+	 *            to forward the metrics to, may be null
+	 */
+	public MOMFlightRecorderMetrics(MOMMetrics delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void messageReceived(String topic, int size) {
+		MOMReceiveEvent event = new MOMReceiveEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.size = size;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messageReceived(topic, size);
+		}
+	}
+
+	@Override
+	public void messagePublished(String topic, int size) {
+		MOMPublishEvent event = new MOMPublishEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.size = size;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messagePublished(topic, size);
+		}
+	}
+
+	@Override
+	public void messageThrottled(String topic, long nanos, boolean dropped) {
+		MOMThrottleEvent event = new MOMThrottleEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.throttleDelay = nanos;
+			event.dropped = dropped;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messageThrottled(topic, nanos, dropped);
+		}
+	}
+
+	@Override
+	public void messageParsed(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		MOMParseEvent event = new MOMParseEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.consumes = String.valueOf(methodHandler.getConsum());
+			event.method = String.valueOf(methodHandler.getMethod());
+			event.parseTime = nanos;
+			event.success = success;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messageParsed(topic, methodHandler, nanos, success);
+		}
+	}
+
+	@Override
+	public void methodInvoked(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		MOMInvokeEvent event = new MOMInvokeEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.method = String.valueOf(methodHandler.getMethod());
+			event.invokeTime = nanos;
+			event.success = success;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.methodInvoked(topic, methodHandler, nanos, success);
+		}
+	}
+
+	@Override
+	public void messageLatency(String topic, long nanos) {
+		MOMLatencyEvent event = new MOMLatencyEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.publishToReceive = nanos;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messageLatency(topic, nanos);
+		}
+	}
+
+	@Override
+	public void messageHandled(String topic, MOMMethodHandler methodHandler, long nanos) {
+		MOMLatencyEvent event = new MOMLatencyEvent();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.method = String.valueOf(methodHandler.getMethod());
+			event.receiveToHandled = nanos;
+			event.commit();
+		}
+
+		if (delegate != null) {
+			delegate.messageHandled(topic, methodHandler, nanos);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A traced message has been received, or handled by a method handler.
+ * 
+ * @author dvilleneuve
+ */
+@Name("com.excilys.spring.mom.Latency")
+@Label("MOM Latency")
+@Description("A traced message has been received, or handled by a method handler.")
+@Category("Spring MOM")
+@StackTrace(false)
+class MOMLatencyEvent extends Event {
+
+	@Label("Topic")
+	String topic;
+
+	@Label("Handler Method")
+	String method;
+
+	@Label("Publish To Receive")
+	@Timespan(Timespan.NANOSECONDS)
+	long publishToReceive;
+
+	@Label("Receive To Handled")
+	@Timespan(Timespan.NANOSECONDS)
+	long receiveToHandled;
+}
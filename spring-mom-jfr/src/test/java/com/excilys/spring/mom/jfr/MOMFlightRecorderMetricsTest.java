@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMFlightRecorderMetricsTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void eventsAreRecorded() throws Exception {
+		MOMMethodHandler methodHandler = new MOMMethodHandler(getClass().getMethod("handle", String.class), this,
+				MOMMappingConsum.STRING);
+		MOMFlightRecorderMetrics metrics = new MOMFlightRecorderMetrics();
+
+		Path dump = new File(folder.getRoot(), "mom.jfr").toPath();
+		Recording recording = new Recording();
+		try {
+			for (String name : new String[] { "Receive", "Parse", "Invoke", "Latency", "Publish", "Throttle" }) {
+				recording.enable("com.excilys.spring.mom." + name).withoutThreshold();
+			}
+			recording.start();
+
+			metrics.messageReceived(TOPIC, 10);
+			metrics.messageParsed(TOPIC, methodHandler, 1000, true);
+			metrics.methodInvoked(TOPIC, methodHandler, 2000, false);
+			metrics.messageLatency(TOPIC, 3000);
+			metrics.messagePublished(TOPIC, 20);
+			metrics.messageThrottled(TOPIC, 4000, false);
+
+			recording.stop();
+			recording.dump(dump);
+		} finally {
+			recording.close();
+		}
+
+		Map<String, RecordedEvent> events = readEvents(dump);
+		assertEquals(6, events.size());
+		assertEquals(10, events.get("com.excilys.spring.mom.Receive").getInt("size"));
+		assertEquals(1000, events.get("com.excilys.spring.mom.Parse").getLong("parseTime"));
+		assertEquals("STRING", events.get("com.excilys.spring.mom.Parse").getString("consumes"));
+		RecordedEvent invoke = events.get("com.excilys.spring.mom.Invoke");
+		assertEquals(2000, invoke.getLong("invokeTime"));
+		assertFalse(invoke.getBoolean("success"));
+		assertEquals(TOPIC, invoke.getString("topic"));
+		assertEquals(3000, events.get("com.excilys.spring.mom.Latency").getLong("publishToReceive"));
+		assertEquals(20, events.get("com.excilys.spring.mom.Publish").getInt("size"));
+		assertEquals(4000, events.get("com.excilys.spring.mom.Throttle").getLong("throttleDelay"));
+	}
+
+	public void handle(String message) {
+	}
+
+	private static Map<String, RecordedEvent> readEvents(Path dump) throws IOException {
+		List<RecordedEvent> recordedEvents = RecordingFile.readAllEvents(dump);
+		Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+		for (RecordedEvent event : recordedEvents) {
+			if (event.getEventType().getName().startsWith("com.excilys.spring.mom.")) {
+				events.put(event.getEventType().getName(), event);
+			}
+		}
+		return events;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.excilys.spring.mom.annotation.MOMController;
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+
+/**
+ * Controllers handling the messages of the load test, one per consume type. Only the controller of the tested consume
+ * type is registered in the context.
+ * 
+ * @author dvilleneuve
+ */
+class LoadTestControllers {
+
+	static final String TOPIC_PROPERTY = "loadtest.topic";
+
+	static Class<?> forConsumes(MOMMappingConsum consumes) {
+		switch (consumes) {
+			case BINARY:
+				return BinaryController.class;
+			case JSON:
+				return JSONController.class;
+			default:
+				return StringController.class;
+		}
+	}
+
+	@MOMController
+	public static class StringController {
+
+		@Autowired
+		private LoadTestProbe probe;
+
+		@MOMMapping(topic = "${" + TOPIC_PROPERTY + "}", consumes = MOMMappingConsum.STRING)
+		public void received(String message) {
+			probe.handled(LoadTestMessage.sentAt(message));
+		}
+	}
+
+	@MOMController
+	public static class BinaryController {
+
+		@Autowired
+		private LoadTestProbe probe;
+
+		@MOMMapping(topic = "${" + TOPIC_PROPERTY + "}", consumes = MOMMappingConsum.BINARY)
+		public void received(byte[] data) {
+			probe.handled(LoadTestMessage.sentAt(data));
+		}
+	}
+
+	@MOMController
+	public static class JSONController {
+
+		@Autowired
+		private LoadTestProbe probe;
+
+		@MOMMapping(topic = "${" + TOPIC_PROPERTY + "}", consumes = MOMMappingConsum.JSON)
+		public void received(LoadTestMessage message) {
+			probe.handled(message.getSentAt());
+		}
+	}
+}
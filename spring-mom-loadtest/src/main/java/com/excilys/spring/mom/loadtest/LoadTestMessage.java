@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import java.nio.ByteBuffer;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+
+/**
+ * Message published by the load test, encoded according to the consume type of the handlers.
+ * 
+ * @author dvilleneuve
+ */
+public class LoadTestMessage {
+
+	private long sentAt;
+	private String payload;
+
+	public long getSentAt() {
+		return sentAt;
+	}
+
+	public void setSentAt(long sentAt) {
+		this.sentAt = sentAt;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * Encode a message of about {@code size} bytes, sent now.
+	 * 
+	 * @param consumes
+	 * @param padding
+	 *            filling the message up to its size
+	 * @return
+	 */
+	static byte[] encode(MOMMappingConsum consumes, String padding) {
+		long sentAt = System.nanoTime();
+		switch (consumes) {
+			case BINARY: {
+				byte[] data = new byte[Math.max(8, padding.length())];
+				ByteBuffer.wrap(data).putLong(sentAt);
+				return data;
+			}
+			case JSON:
+				return ("{\"sentAt\":" + sentAt + ",\"payload\":\"" + padding + "\"}").getBytes();
+			default:
+				return (sentAt + ":" + padding).getBytes();
+		}
+	}
+
+	/**
+	 * @param message
+	 *            encoded as {@link MOMMappingConsum#STRING STRING}
+	 * @return the time at which the message was sent
+	 */
+	static long sentAt(String message) {
+		return Long.parseLong(message.substring(0, message.indexOf(':')));
+	}
+
+	/**
+	 * @param data
+	 *            encoded as {@link MOMMappingConsum#BINARY BINARY}
+	 * @return the time at which the message was sent
+	 */
+	static long sentAt(byte[] data) {
+		return ByteBuffer.wrap(data).getLong();
+	}
+
+	/**
+	 * @param consumes
+	 * @param size
+	 * @return the padding giving messages of about {@code size} bytes
+	 */
+	static String padding(MOMMappingConsum consumes, int size) {
+		int overhead = consumes == MOMMappingConsum.JSON ? 45 : consumes == MOMMappingConsum.STRING ? 20 : 0;
+		StringBuilder builder = new StringBuilder();
+		for (int i = overhead; i < size; i++) {
+			builder.append((char) ('a' + i % 26));
+		}
+		return builder.toString();
+	}
+}
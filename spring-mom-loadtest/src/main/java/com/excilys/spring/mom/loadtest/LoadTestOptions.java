@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+
+/**
+ * Options of the load test, given on the command line as <code>--name=value</code>.
+ * 
+ * @author dvilleneuve
+ */
+class LoadTestOptions {
+
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+	static {
+		DEFAULTS.put("transport", "inprocess");
+		DEFAULTS.put("host", "localhost");
+		DEFAULTS.put("port", "61613");
+		DEFAULTS.put("username", "guest");
+		DEFAULTS.put("password", "guest");
+		DEFAULTS.put("topics", "10");
+		DEFAULTS.put("size", "256");
+		DEFAULTS.put("consumes", "JSON");
+		DEFAULTS.put("rate", "10000");
+		DEFAULTS.put("publishers", "1");
+		DEFAULTS.put("handler-cost-us", "0");
+		DEFAULTS.put("duration", "60");
+		DEFAULTS.put("warmup", "10");
+		DEFAULTS.put("report-interval", "5");
+	}
+
+	private static final String[] DESCRIPTIONS = { "inprocess (local stand-in) or stomp", "of the STOMP server",
+			"of the STOMP server", "of the STOMP server", "of the STOMP server", "number of topics",
+			"of the messages, in bytes", "STRING, JSON or BINARY", "published messages per second, 0 for unlimited",
+			"number of publishing threads", "CPU time spent by the handler per message, in microseconds",
+			"of the measure, in seconds, 0 to run until stopped", "before the measure, in seconds",
+			"between two reports, in seconds" };
+
+	private final Map<String, String> values;
+
+	LoadTestOptions(String[] args) {
+		values = new LinkedHashMap<String, String>(DEFAULTS);
+		for (String arg : args) {
+			if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+				throw new IllegalArgumentException("Invalid option '" + arg + "', expected --name=value");
+			}
+			String name = arg.substring(2, arg.indexOf('='));
+			if (!DEFAULTS.containsKey(name)) {
+				throw new IllegalArgumentException("Unknown option '" + name + "'");
+			}
+			values.put(name, arg.substring(arg.indexOf('=') + 1));
+		}
+	}
+
+	static String usage() {
+		StringBuilder builder = new StringBuilder("Options :\n");
+		int i = 0;
+		for (Map.Entry<String, String> option : DEFAULTS.entrySet()) {
+			builder.append(String.format("  --%-18s %s (default %s)%n", option.getKey(), DESCRIPTIONS[i++],
+					option.getValue()));
+		}
+		return builder.toString();
+	}
+
+	String getString(String name) {
+		return values.get(name);
+	}
+
+	int getInt(String name) {
+		try {
+			return Integer.parseInt(values.get(name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option '" + name + "' must be a number : " + values.get(name));
+		}
+	}
+
+	MOMMappingConsum getConsumes() {
+		return MOMMappingConsum.valueOf(values.get("consumes").toUpperCase());
+	}
+
+	@Override
+	public String toString() {
+		return values.toString();
+	}
+}
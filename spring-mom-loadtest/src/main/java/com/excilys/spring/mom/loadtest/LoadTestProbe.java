@@ -0,0 +1,73 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.excilys.spring.mom.metrics.MOMHistogram;
+
+/**
+ * Measures shared by the publishers and the handlers of the load test. Each message carries the
+ * {@link System#nanoTime()} at which it was published, so that the handler can record the publish to handle latency.
+ * 
+ * @author dvilleneuve
+ */
+class LoadTestProbe {
+
+	private final MOMHistogram latency = new MOMHistogram();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong handled = new AtomicLong();
+	private volatile long handlerCostNanos;
+
+	void published() {
+		published.incrementAndGet();
+	}
+
+	/**
+	 * Simulate the cost of the handler, then record the latency of a message.
+	 * 
+	 * @param sentAt
+	 *            publication time of the message
+	 */
+	void handled(long sentAt) {
+		long cost = handlerCostNanos;
+		if (cost > 0) {
+			long end = System.nanoTime() + cost;
+			while (System.nanoTime() < end) {
+				// Busy spin, like a CPU bound handler
+			}
+		}
+
+		latency.record(System.nanoTime() - sentAt);
+		handled.incrementAndGet();
+	}
+
+	MOMHistogram getLatency() {
+		return latency;
+	}
+
+	long getPublished() {
+		return published.get();
+	}
+
+	long getHandled() {
+		return handled.get();
+	}
+
+	void setHandlerCostNanos(long handlerCostNanos) {
+		this.handlerCostNanos = handlerCostNanos;
+	}
+}
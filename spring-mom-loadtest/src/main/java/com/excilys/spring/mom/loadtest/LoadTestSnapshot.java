@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import com.excilys.spring.mom.metrics.MOMHistogram;
+
+/**
+ * Counters of the load test and of the JVM at a point in time. The difference between two snapshots gives the
+ * throughput, GC activity and allocation rate over the period.
+ * 
+ * @author dvilleneuve
+ */
+class LoadTestSnapshot {
+
+	static final String HEADER = String.format("%8s %12s %12s %10s %10s %10s %10s %6s %8s %10s", "time(s)",
+			"published/s", "handled/s", "p50(us)", "p99(us)", "p99.9(us)", "max(us)", "gc", "gc(ms)", "alloc(MB/s)");
+
+	private final long time;
+	private final long published;
+	private final long handled;
+	private final long gcCount;
+	private final long gcTimeMs;
+	private final long allocatedBytes;
+
+	LoadTestSnapshot(LoadTestProbe probe) {
+		this.time = System.nanoTime();
+		this.published = probe.getPublished();
+		this.handled = probe.getHandled();
+
+		long count = 0;
+		long timeMs = 0;
+		for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, garbageCollector.getCollectionCount());
+			timeMs += Math.max(0, garbageCollector.getCollectionTime());
+		}
+		this.gcCount = count;
+		this.gcTimeMs = timeMs;
+		this.allocatedBytes = allocatedBytes();
+	}
+
+	/**
+	 * Format the activity since {@code since}, the latencies being those recorded since the histogram was reset.
+	 * 
+	 * @param since
+	 * @param start
+	 *            of the measure
+	 * @param latency
+	 * @return
+	 */
+	String format(LoadTestSnapshot since, LoadTestSnapshot start, MOMHistogram latency) {
+		double seconds = Math.max(1, time - since.time) / 1e9;
+		double allocationRate = allocatedBytes < 0 ? -1 : (allocatedBytes - since.allocatedBytes) / seconds / 1e6;
+
+		return String.format("%8.1f %12.0f %12.0f %10d %10d %10d %10d %6d %8d %10.1f", (time - start.time) / 1e9,
+				(published - since.published) / seconds, (handled - since.handled) / seconds,
+				micros(latency.getValueAtQuantile(0.5)), micros(latency.getValueAtQuantile(0.99)),
+				micros(latency.getValueAtQuantile(0.999)), micros(latency.getMax()), gcCount - since.gcCount,
+				gcTimeMs - since.gcTimeMs, allocationRate);
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	/**
+	 * @return the bytes allocated by all the live threads, or -1 if the JVM can't tell
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+		if (!sunThreadMXBean.isThreadAllocatedMemorySupported() || !sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		long total = 0;
+		for (long allocated : sunThreadMXBean.getThreadAllocatedBytes(sunThreadMXBean.getAllThreadIds())) {
+			total += Math.max(0, allocated);
+		}
+		return total;
+	}
+}
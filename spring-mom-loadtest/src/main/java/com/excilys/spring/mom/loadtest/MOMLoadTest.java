@@ -0,0 +1,241 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.loadtest;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+
+import com.excilys.spring.mom.annotation.MOMAnnotationProcessing;
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.excilys.spring.mom.client.impl.MOMClientSoja;
+import com.excilys.spring.mom.ratelimit.MOMPublishThrottle;
+import com.excilys.spring.mom.ratelimit.MOMThrottleMode;
+
+/**
+ * Load generation and soak test tool : publishes messages at a given rate on a set of topics, handled by a
+ * {@link com.excilys.spring.mom.annotation.MOMController @MOMController} of the same process, and periodically
+ * reports the throughput, the publish to handle latency percentiles, the GC activity and the allocation rate.
+ * <p/>
+ * By default, messages go through an {@link MOMClientInProcess in-process client} standing for the broker, so that
+ * capacity can be planned without a shared environment. Use <code>--transport=stomp</code> to test a real broker.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMLoadTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMLoadTest.class);
+
+	private static final String TOPIC_PREFIX = "/topic/loadtest.";
+	private static final long CONNECTION_TIMEOUT_MS = 10000;
+
+	private final LoadTestOptions options;
+	private final LoadTestProbe probe;
+	private volatile boolean running;
+
+	public MOMLoadTest(LoadTestOptions options) {
+		this.options = options;
+		this.probe = new LoadTestProbe();
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (String arg : args) {
+			if ("--help".equals(arg) || "-h".equals(arg)) {
+				System.out.println(LoadTestOptions.usage());
+				return;
+			}
+		}
+
+		LoadTestOptions options;
+		try {
+			options = new LoadTestOptions(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(LoadTestOptions.usage());
+			System.exit(1);
+			return;
+		}
+
+		new MOMLoadTest(options).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		MOMMappingConsum consumes = options.getConsumes();
+		String[] topics = new String[Math.max(1, options.getInt("topics"))];
+		for (int i = 0; i < topics.length; i++) {
+			topics[i] = TOPIC_PREFIX + i;
+		}
+		probe.setHandlerCostNanos(TimeUnit.MICROSECONDS.toNanos(options.getInt("handler-cost-us")));
+
+		MOMClient client = createClient();
+		AnnotationConfigApplicationContext context = createContext(client, consumes, topics[0]);
+		try {
+			subscribeOtherTopics(client, context.getBean(LoadTestControllers.forConsumes(consumes)), topics);
+			awaitConnection(client);
+
+			LOGGER.info("Load test {}", options);
+			List<Thread> publishers = startPublishers(client, consumes, topics);
+
+			long warmupMs = TimeUnit.SECONDS.toMillis(options.getInt("warmup"));
+			if (warmupMs > 0) {
+				System.out.println("Warming up for " + options.getInt("warmup") + " s...");
+				Thread.sleep(warmupMs);
+			}
+			report(options.getInt("duration"), options.getInt("report-interval"));
+
+			running = false;
+			for (Thread publisher : publishers) {
+				publisher.join();
+			}
+		} finally {
+			context.close();
+			client.disconnect();
+		}
+	}
+
+	private MOMClient createClient() {
+		MOMClient client;
+		if ("stomp".equalsIgnoreCase(options.getString("transport"))) {
+			client = new MOMClientSoja(options.getString("host"), options.getInt("port"),
+					options.getString("username"), options.getString("password"));
+		} else {
+			client = new MOMClientInProcess();
+		}
+
+		int rate = options.getInt("rate");
+		if (rate > 0) {
+			MOMPublishThrottle throttle = new MOMPublishThrottle(MOMThrottleMode.BLOCK);
+			// Allow bursts of 10 ms of messages, to smooth the scheduling jitter of the publishers
+			throttle.setGlobalLimit(rate, Math.max(1, rate / 100));
+			throttle.setMaxDelayMs(TimeUnit.MINUTES.toMillis(1));
+			client.setPublishThrottle(throttle);
+		}
+		return client;
+	}
+
+	/**
+	 * Create a context with the MOM annotation processing and the controller of the tested consume type, mapped to
+	 * the first topic.
+	 */
+	private AnnotationConfigApplicationContext createContext(MOMClient client, MOMMappingConsum consumes,
+			String topic) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getBeanFactory().registerSingleton("momClient", client);
+		context.getBeanFactory().registerSingleton("loadTestProbe", probe);
+
+		Properties properties = new Properties();
+		properties.setProperty(LoadTestControllers.TOPIC_PROPERTY, topic);
+		PropertySourcesPlaceholderConfigurer placeholderConfigurer = new PropertySourcesPlaceholderConfigurer();
+		placeholderConfigurer.setProperties(properties);
+		context.addBeanFactoryPostProcessor(placeholderConfigurer);
+
+		context.register(MOMAnnotationProcessing.class, LoadTestControllers.forConsumes(consumes));
+		context.refresh();
+		return context;
+	}
+
+	/**
+	 * Subscribe the mapped method of the controller to the other topics, as it is mapped to a single topic.
+	 */
+	private void subscribeOtherTopics(MOMClient client, Object controller, String[] topics) throws Exception {
+		for (Method method : controller.getClass().getMethods()) {
+			MOMMapping mapping = method.getAnnotation(MOMMapping.class);
+			if (mapping != null) {
+				for (int i = 1; i < topics.length; i++) {
+					client.subscribe(topics[i], new MOMMethodHandler(method, controller, mapping));
+				}
+			}
+		}
+	}
+
+	private void awaitConnection(MOMClient client) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT_MS;
+		while (!client.isConnected()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException("Not connected after " + CONNECTION_TIMEOUT_MS + " ms");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private List<Thread> startPublishers(final MOMClient client, final MOMMappingConsum consumes,
+			final String[] topics) {
+		final String padding = LoadTestMessage.padding(consumes, options.getInt("size"));
+		final AtomicLong sequence = new AtomicLong();
+
+		running = true;
+		List<Thread> publishers = new ArrayList<Thread>();
+		for (int i = 0; i < Math.max(1, options.getInt("publishers")); i++) {
+			Thread publisher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running) {
+						String topic = topics[(int) (sequence.getAndIncrement() % topics.length)];
+						try {
+							client.publish(topic, LoadTestMessage.encode(consumes, padding));
+							probe.published();
+						} catch (Exception e) {
+							LOGGER.warn("Can't publish on {}", topic, e);
+						}
+					}
+				}
+			}, "loadtest-publisher-" + i);
+			publisher.setDaemon(true);
+			publisher.start();
+			publishers.add(publisher);
+		}
+		return publishers;
+	}
+
+	/**
+	 * Print a report every {@code interval} seconds until {@code duration} seconds have elapsed, then a summary. The
+	 * latencies are cumulated since the start of the measure.
+	 */
+	private void report(int duration, int interval) throws InterruptedException {
+		probe.getLatency().reset();
+		LoadTestSnapshot start = new LoadTestSnapshot(probe);
+		LoadTestSnapshot previous = start;
+
+		System.out.println(LoadTestSnapshot.HEADER);
+		long end = duration > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(duration) : Long.MAX_VALUE;
+		while (System.nanoTime() < end) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+			Thread.sleep(Math.max(1, Math.min(TimeUnit.SECONDS.toMillis(Math.max(1, interval)), remaining)));
+
+			LoadTestSnapshot snapshot = new LoadTestSnapshot(probe);
+			System.out.println(snapshot.format(previous, start, probe.getLatency()));
+			previous = snapshot;
+		}
+
+		System.out.println();
+		System.out.println("Summary");
+		System.out.println(LoadTestSnapshot.HEADER);
+		System.out.println(previous.format(start, start, probe.getLatency()));
+	}
+}
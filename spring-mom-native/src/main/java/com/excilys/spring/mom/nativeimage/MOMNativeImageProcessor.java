@@ -0,0 +1,315 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.nativeimage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.excilys.spring.mom.annotation.MOMController;
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+
+/**
+ * Annotation processor writing the GraalVM native-image reflection configuration of an application at build time.
+ * 
+ * <p>
+ * Every <code>@MOMController</code> class is registered with its <code>@MOMMapping</code> methods, so that
+ * <code>MOMAnnotationProcessing</code> finds and invokes them in the image. The types bound by Jackson from the
+ * parameters of <code>JSON</code> mappings are registered too, along with the types of their properties. The
+ * configuration is written to
+ * <code>META-INF/native-image/spring-mom/&lt;project&gt;/reflect-config.json</code>, where <code>project</code> is
+ * given by the <code>spring.mom.native.project</code> option (<code>application</code> by default).
+ * 
+ * @author dvilleneuve
+ */
+@SupportedAnnotationTypes("com.excilys.spring.mom.annotation.MOMController")
+@SupportedOptions(MOMNativeImageProcessor.PROJECT_OPTION)
+public class MOMNativeImageProcessor extends AbstractProcessor {
+
+	public static final String PROJECT_OPTION = "spring.mom.native.project";
+	private static final String DEFAULT_PROJECT = "application";
+
+	private final Map<String, ReflectedType> reflectedTypes = new TreeMap<String, ReflectedType>();
+	private final List<Element> originatingElements = new ArrayList<Element>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(MOMController.class)) {
+			if (element.getKind() == ElementKind.CLASS) {
+				processController((TypeElement) element);
+			}
+		}
+
+		if (roundEnv.processingOver() && !reflectedTypes.isEmpty()) {
+			writeReflectConfig();
+		}
+
+		// Let other processors see @MOMController
+		return false;
+	}
+
+	/**
+	 * Register a controller and each class of its hierarchy, as Spring looks for mapped methods in all of them.
+	 */
+	private void processController(TypeElement controller) {
+		originatingElements.add(controller);
+
+		for (TypeElement current = controller; current != null && !isPlatformType(current); current = superclassOf(current)) {
+			ReflectedType reflectedType = reflect(current);
+			reflectedType.controller = true;
+
+			for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+				MOMMapping mapping = method.getAnnotation(MOMMapping.class);
+				if (mapping == null) {
+					continue;
+				}
+
+				reflectedType.methods.add(signatureOf(method));
+
+				if (mapping.consumes() == MOMMappingConsum.JSON) {
+					for (VariableElement parameter : method.getParameters()) {
+						bind(parameter.asType());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register a type read by Jackson, then the types of its properties, type arguments and superclasses.
+	 */
+	private void bind(TypeMirror type) {
+		switch (type.getKind()) {
+			case ARRAY:
+				bind(((ArrayType) type).getComponentType());
+				break;
+			case TYPEVAR:
+				bind(((TypeVariable) type).getUpperBound());
+				break;
+			case WILDCARD: {
+				TypeMirror extendsBound = ((WildcardType) type).getExtendsBound();
+				if (extendsBound != null) {
+					bind(extendsBound);
+				}
+				break;
+			}
+			case DECLARED: {
+				DeclaredType declaredType = (DeclaredType) type;
+				for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
+					bind(typeArgument);
+				}
+
+				TypeElement element = (TypeElement) declaredType.asElement();
+				if (isPlatformType(element)) {
+					break;
+				}
+
+				ReflectedType reflectedType = reflect(element);
+				if (reflectedType.bound) {
+					break;
+				}
+				reflectedType.bound = true;
+
+				for (VariableElement field : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+					if (!field.getModifiers().contains(Modifier.STATIC)) {
+						bind(field.asType());
+					}
+				}
+				for (ExecutableElement method : ElementFilter.methodsIn(element.getEnclosedElements())) {
+					if (isAccessor(method)) {
+						bind(method.getReturnType());
+						for (VariableElement parameter : method.getParameters()) {
+							bind(parameter.asType());
+						}
+					}
+				}
+
+				TypeElement superclass = superclassOf(element);
+				if (superclass != null) {
+					bind(superclass.asType());
+				}
+				break;
+			}
+			default:
+				// Primitives and void need no registration
+				break;
+		}
+	}
+
+	private void writeReflectConfig() {
+		String project = processingEnv.getOptions().get(PROJECT_OPTION);
+		if (project == null || project.trim().isEmpty()) {
+			project = DEFAULT_PROJECT;
+		}
+		String path = "META-INF/native-image/spring-mom/" + project.trim() + "/reflect-config.json";
+
+		try {
+			FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path,
+					originatingElements.toArray(new Element[originatingElements.size()]));
+			Writer writer = resource.openWriter();
+			try {
+				writeReflectConfig(writer);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write " + path + " : " + e);
+		}
+	}
+
+	private void writeReflectConfig(Writer writer) throws IOException {
+		writer.write("[\n");
+
+		boolean firstType = true;
+		for (ReflectedType reflectedType : reflectedTypes.values()) {
+			if (!firstType) {
+				writer.write(",\n");
+			}
+			firstType = false;
+
+			writer.write("  {\n    \"name\": \"" + reflectedType.name + "\",\n");
+			writer.write("    \"allDeclaredConstructors\": true,\n");
+			writer.write("    \"allDeclaredFields\": true");
+			if (reflectedType.bound) {
+				writer.write(",\n    \"allPublicConstructors\": true,\n");
+				writer.write("    \"allDeclaredMethods\": true,\n");
+				writer.write("    \"allPublicMethods\": true,\n");
+				writer.write("    \"allPublicFields\": true");
+			}
+			if (reflectedType.controller) {
+				writer.write(",\n    \"queryAllDeclaredMethods\": true");
+			}
+			if (!reflectedType.methods.isEmpty()) {
+				writer.write(",\n    \"methods\": [\n");
+				for (int i = 0; i < reflectedType.methods.size(); i++) {
+					String[] signature = reflectedType.methods.get(i);
+					writer.write("      { \"name\": \"" + signature[0] + "\", \"parameterTypes\": [");
+					for (int j = 1; j < signature.length; j++) {
+						writer.write((j > 1 ? ", \"" : " \"") + signature[j] + "\"");
+					}
+					writer.write(" ] }" + (i < reflectedType.methods.size() - 1 ? "," : "") + "\n");
+				}
+				writer.write("    ]");
+			}
+			writer.write("\n  }");
+		}
+
+		writer.write("\n]\n");
+	}
+
+	private ReflectedType reflect(TypeElement element) {
+		String name = processingEnv.getElementUtils().getBinaryName(element).toString();
+		ReflectedType reflectedType = reflectedTypes.get(name);
+		if (reflectedType == null) {
+			reflectedType = new ReflectedType(name);
+			reflectedTypes.put(name, reflectedType);
+		}
+		return reflectedType;
+	}
+
+	/**
+	 * The method name followed by the erased names of its parameter types, as expected in reflect-config.json.
+	 */
+	private String[] signatureOf(ExecutableElement method) {
+		List<? extends VariableElement> parameters = method.getParameters();
+		String[] signature = new String[parameters.size() + 1];
+		signature[0] = method.getSimpleName().toString();
+		for (int i = 0; i < parameters.size(); i++) {
+			signature[i + 1] = nameOf(processingEnv.getTypeUtils().erasure(parameters.get(i).asType()));
+		}
+		return signature;
+	}
+
+	private String nameOf(TypeMirror type) {
+		if (type.getKind() == TypeKind.ARRAY) {
+			return nameOf(((ArrayType) type).getComponentType()) + "[]";
+		}
+		if (type.getKind() == TypeKind.DECLARED) {
+			return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) type).asElement())
+					.toString();
+		}
+		return type.toString();
+	}
+
+	private TypeElement superclassOf(TypeElement element) {
+		TypeMirror superclass = element.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private static boolean isPlatformType(TypeElement element) {
+		String name = element.getQualifiedName().toString();
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+				|| name.startsWith("com.sun.");
+	}
+
+	private static boolean isAccessor(ExecutableElement method) {
+		if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+			return false;
+		}
+		String name = method.getSimpleName().toString();
+		return name.startsWith("get") || name.startsWith("is") || name.startsWith("set");
+	}
+
+	/**
+	 * Reflection needs of a class in the generated configuration.
+	 */
+	private static final class ReflectedType {
+
+		private final String name;
+		private final List<String[]> methods = new ArrayList<String[]>();
+		private boolean controller;
+		private boolean bound;
+
+		private ReflectedType(String name) {
+			this.name = name;
+		}
+	}
+}
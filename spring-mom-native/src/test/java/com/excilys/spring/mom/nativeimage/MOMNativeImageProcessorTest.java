@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.nativeimage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMNativeImageProcessorTest {
+
+	private static final String CONTROLLER = "package sample;\n" //
+			+ "import java.util.List;\n" //
+			+ "import com.excilys.spring.mom.annotation.*;\n" //
+			+ "@MOMController\n" //
+			+ "public class QuoteController {\n" //
+			+ "  public static class Leg { public String symbol; }\n" //
+			+ "  public static class Quote { private List<Leg> legs; public List<Leg> getLegs() { return legs; } }\n" //
+			+ "  @MOMMapping(topic = \"/topic/quotes\", consumes = MOMMappingConsum.JSON)\n" //
+			+ "  public void onQuote(Quote quote) {}\n" //
+			+ "  @MOMMapping(topic = \"/topic/raw\", consumes = MOMMappingConsum.BINARY)\n" //
+			+ "  public void onRaw(byte[] data) {}\n" //
+			+ "  public void notMapped(String value) {}\n" //
+			+ "}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void controllersAndBoundTypesAreRegistered() throws IOException {
+		File output = folder.newFolder("classes");
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(output));
+
+		JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+				Arrays.asList("-classpath", System.getProperty("java.class.path"), "-A"
+						+ MOMNativeImageProcessor.PROJECT_OPTION + "=sample"), null,
+				Collections.singleton(new SourceString("sample.QuoteController", CONTROLLER)));
+		task.setProcessors(Collections.singleton(new MOMNativeImageProcessor()));
+		assertTrue(task.call());
+		fileManager.close();
+
+		String config = FileCopyUtils.copyToString(new FileReader(new File(output,
+				"META-INF/native-image/spring-mom/sample/reflect-config.json")));
+		assertTrue(config.contains("\"name\": \"sample.QuoteController\""));
+		assertTrue(config.contains("{ \"name\": \"onQuote\", \"parameterTypes\": [ \"sample.QuoteController$Quote\" ] }"));
+		assertTrue(config.contains("{ \"name\": \"onRaw\", \"parameterTypes\": [ \"byte[]\" ] }"));
+		assertFalse(config.contains("notMapped"));
+		assertTrue(config.contains("\"name\": \"sample.QuoteController$Quote\""));
+		assertTrue(config.contains("\"name\": \"sample.QuoteController$Leg\""));
+		assertFalse(config.contains("java.util.List"));
+	}
+
+	private static final class SourceString extends SimpleJavaFileObject {
+
+		private final String code;
+
+		private SourceString(String className, String code) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ack;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.annotation.MOMAckMode;
+
+/**
+ * Acknowledge the messages received on the topics subscribed in {@link MOMAckMode#CLIENT CLIENT} or
+ * {@link MOMAckMode#CLIENT_INDIVIDUAL CLIENT_INDIVIDUAL} mode, once every method handler they have been dispatched to
+ * is done with them. The prefetch of a topic is enforced by the MOM server, which stops sending messages once prefetch
+ * of them are not acknowledged : topics subscribed with a prefetch are therefore acknowledged in
+ * {@link MOMAckMode#CLIENT CLIENT} mode at least, and the thread receiving the messages never waits.
+ * <p/>
+ * A message is {@link #received(String, Map) registered} when it's received, {@link #retain(String, Map) retained}
+ * for each method handler it's dispatched to, and {@link #handled(String, Map) released} by each of them. Messages are
+ * identified by their <code>message-id</code> header.
+ * <p/>
+ * Acknowledgements are sent by batches, once {@link #setBatchSize(int) batchSize} messages of a topic are handled or
+ * every {@link #setMaxDelayMs(long) maxDelayMs} milliseconds. In {@link MOMAckMode#CLIENT CLIENT} mode, only the last
+ * message of the longest sequence of handled messages is acknowledged, as it acknowledges the previous ones too.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMAcknowledger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMAcknowledger.class);
+
+	public static final String MESSAGE_ID_HEADER = "message-id";
+
+	private final Sender sender;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<String, TopicAcks> topicAcks;
+	private final AtomicLong sentAcks;
+	private final AtomicLong acknowledgedMessages;
+	private volatile int batchSize;
+	private volatile long maxDelayMs;
+	private ScheduledFuture<?> flushTask;
+
+	public MOMAcknowledger(Sender sender, ScheduledExecutorService scheduler) {
+		this.sender = sender;
+		this.scheduler = scheduler;
+		this.topicAcks = new ConcurrentHashMap<String, TopicAcks>();
+		this.sentAcks = new AtomicLong();
+		this.acknowledgedMessages = new AtomicLong();
+		this.batchSize = 100;
+		this.maxDelayMs = 100;
+	}
+
+	/**
+	 * Sends the acknowledgements to the MOM server.
+	 */
+	public interface Sender {
+
+		/**
+		 * Acknowledge the message {@code messageId} received on {@code topic}.
+		 * 
+		 * @param topic
+		 * @param messageId
+		 * @throws Exception
+		 */
+		void acknowledge(String topic, String messageId) throws Exception;
+	}
+
+	/**
+	 * Acknowledge the messages of {@code topic} in {@code ackMode}, or in a stricter mode if already registered.
+	 * 
+	 * @param topic
+	 * @param ackMode
+	 */
+	public void register(String topic, MOMAckMode ackMode) {
+		register(topic, ackMode, 0);
+	}
+
+	/**
+	 * Acknowledge the messages of {@code topic} in {@code ackMode} and limit the number of messages being handled to
+	 * {@code prefetch}. With a prefetch, the mode is {@link MOMAckMode#CLIENT CLIENT} at least. If already registered,
+	 * the stricter mode and the smaller prefetch apply.
+	 * 
+	 * @param topic
+	 * @param ackMode
+	 * @param prefetch
+	 *            0 for no limit
+	 */
+	public void register(String topic, MOMAckMode ackMode, int prefetch) {
+		if (ackMode == MOMAckMode.AUTO && prefetch <= 0) {
+			return;
+		}
+
+		TopicAcks acks = topicAcks.get(topic);
+		if (acks == null) {
+			TopicAcks newAcks = new TopicAcks(topic, ackMode);
+			acks = topicAcks.putIfAbsent(topic, newAcks);
+			if (acks == null) {
+				acks = newAcks;
+			}
+		}
+		acks.ackMode = acks.ackMode.max(prefetch > 0 ? ackMode.max(MOMAckMode.CLIENT) : ackMode);
+		acks.setPrefetch(prefetch);
+		scheduleFlush();
+	}
+
+	/**
+	 * Stop acknowledging the messages of {@code topic}. Messages not acknowledged yet will be delivered again.
+	 * 
+	 * @param topic
+	 */
+	public void unregister(String topic) {
+		TopicAcks acks = topicAcks.remove(topic);
+		if (acks != null) {
+			acks.clear();
+		}
+	}
+
+	/**
+	 * @param topic
+	 * @return the acknowledgement mode of the topic
+	 */
+	public MOMAckMode getAckMode(String topic) {
+		TopicAcks acks = topicAcks.get(topic);
+		return acks != null ? acks.ackMode : MOMAckMode.AUTO;
+	}
+
+	/**
+	 * @param topic
+	 * @return the maximum number of messages of the topic being handled at the same time, or 0 if unlimited
+	 */
+	public int getPrefetch(String topic) {
+		TopicAcks acks = topicAcks.get(topic);
+		return acks != null ? acks.prefetch : 0;
+	}
+
+	/**
+	 * Register a message received on {@code topic}, held until {@link #handled(String, Map) released} once.
+	 * 
+	 * @param topic
+	 * @param headers
+	 * @return true if the message has to be released
+	 */
+	public boolean received(String topic, Map<String, String> headers) {
+		TopicAcks acks = topicAcks.get(topic);
+		if (acks == null) {
+			return false;
+		}
+
+		String messageId = headers != null ? headers.get(MESSAGE_ID_HEADER) : null;
+		if (messageId == null) {
+			LOGGER.debug("Can't acknowledge a message without {} header received on {}", MESSAGE_ID_HEADER, topic);
+			return false;
+		}
+
+		acks.received(messageId);
+		return true;
+	}
+
+	/**
+	 * Hold a message being dispatched to a method handler, until {@link #handled(String, Map) released} by it.
+	 * 
+	 * @param topic
+	 * @param headers
+	 */
+	public void retain(String topic, Map<String, String> headers) {
+		PendingAck pendingAck = getPendingAck(topic, headers);
+		if (pendingAck != null) {
+			pendingAck.holders.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Release a message, which is acknowledged with the next batch once released by every holder. Unknown messages are
+	 * ignored.
+	 * 
+	 * @param topic
+	 * @param headers
+	 */
+	public void handled(String topic, Map<String, String> headers) {
+		TopicAcks acks = topicAcks.get(topic);
+		String messageId = headers != null ? headers.get(MESSAGE_ID_HEADER) : null;
+		if (acks != null && messageId != null) {
+			acks.handled(messageId);
+		}
+	}
+
+	private PendingAck getPendingAck(String topic, Map<String, String> headers) {
+		TopicAcks acks = topicAcks.get(topic);
+		String messageId = headers != null ? headers.get(MESSAGE_ID_HEADER) : null;
+		return acks != null && messageId != null ? acks.pendingAcks.get(messageId) : null;
+	}
+
+	/**
+	 * Send the acknowledgements of the handled messages of every topic.
+	 */
+	public void flush() {
+		for (TopicAcks acks : topicAcks.values()) {
+			acks.flush();
+		}
+	}
+
+	/**
+	 * Forget every message not acknowledged yet, as the MOM server will deliver them again, after a disconnection.
+	 */
+	public void clear() {
+		for (TopicAcks acks : topicAcks.values()) {
+			acks.clear();
+		}
+	}
+
+	private synchronized void scheduleFlush() {
+		if (flushTask == null) {
+			flushTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (RuntimeException e) {
+						LOGGER.error("Can't flush the acknowledgements", e);
+					}
+				}
+			}, maxDelayMs, maxDelayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return the number of acknowledgement frames sent
+	 */
+	public long getSentAcks() {
+		return sentAcks.get();
+	}
+
+	/**
+	 * @return the number of messages acknowledged, cumulative acknowledgements counting for several messages
+	 */
+	public long getAcknowledgedMessages() {
+		return acknowledgedMessages.get();
+	}
+
+	/**
+	 * @param topic
+	 * @return the number of messages of the topic not acknowledged yet
+	 */
+	public int getPending(String topic) {
+		TopicAcks acks = topicAcks.get(topic);
+		return acks != null ? acks.pendingAcks.size() + acks.handledCount.get() : 0;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the number of handled messages of a topic triggering the acknowledgement, 100 by default.
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	/**
+	 * Set the maximum delay before a handled message is acknowledged, 100 ms by default. Has to be set before the first
+	 * topic is registered.
+	 * 
+	 * @param maxDelayMs
+	 */
+	public void setMaxDelayMs(long maxDelayMs) {
+		this.maxDelayMs = Math.max(1, maxDelayMs);
+	}
+
+	/**
+	 * Message held by the method handlers it's dispatched to.
+	 */
+	private static final class PendingAck {
+
+		private final String messageId;
+		private final AtomicInteger holders = new AtomicInteger(1);
+		private volatile boolean handled;
+
+		PendingAck(String messageId) {
+			this.messageId = messageId;
+		}
+	}
+
+	/**
+	 * Messages of a topic in the order they have been received.
+	 */
+	private final class TopicAcks {
+
+		private final String topic;
+		private final Queue<PendingAck> received = new ConcurrentLinkedQueue<PendingAck>();
+		private final ConcurrentMap<String, PendingAck> pendingAcks = new ConcurrentHashMap<String, PendingAck>();
+		private final AtomicInteger handledCount = new AtomicInteger();
+		private volatile MOMAckMode ackMode;
+		private volatile int prefetch;
+
+		TopicAcks(String topic, MOMAckMode ackMode) {
+			this.topic = topic;
+			this.ackMode = ackMode;
+		}
+
+		void setPrefetch(int prefetch) {
+			if (prefetch > 0 && (this.prefetch == 0 || prefetch < this.prefetch)) {
+				this.prefetch = prefetch;
+			}
+		}
+
+		void received(String messageId) {
+			PendingAck pendingAck = new PendingAck(messageId);
+			pendingAcks.put(messageId, pendingAck);
+			received.offer(pendingAck);
+		}
+
+		void handled(String messageId) {
+			PendingAck pendingAck = pendingAcks.get(messageId);
+			if (pendingAck == null || pendingAck.holders.decrementAndGet() != 0) {
+				return;
+			}
+
+			pendingAcks.remove(messageId, pendingAck);
+			pendingAck.handled = true;
+			if (handledCount.incrementAndGet() >= getFlushThreshold()) {
+				flush();
+			}
+		}
+
+		/**
+		 * Acknowledge before the MOM server stops sending messages because the prefetch is reached.
+		 */
+		private int getFlushThreshold() {
+			int prefetch = this.prefetch;
+			return prefetch > 0 ? Math.min(batchSize, Math.max(1, prefetch / 2)) : batchSize;
+		}
+
+		synchronized void flush() {
+			if (handledCount.get() == 0) {
+				return;
+			}
+
+			if (ackMode == MOMAckMode.CLIENT) {
+				PendingAck last = null;
+				int count = 0;
+				PendingAck pendingAck;
+				while ((pendingAck = received.peek()) != null && pendingAck.handled) {
+					received.poll();
+					last = pendingAck;
+					count++;
+				}
+				if (last != null) {
+					handledCount.addAndGet(-count);
+					send(last.messageId, count);
+				}
+			} else {
+				Iterator<PendingAck> iterator = received.iterator();
+				while (iterator.hasNext()) {
+					PendingAck pendingAck = iterator.next();
+					if (pendingAck.handled) {
+						iterator.remove();
+						handledCount.decrementAndGet();
+						send(pendingAck.messageId, 1);
+					}
+				}
+			}
+		}
+
+		private void send(String messageId, int count) {
+			try {
+				sender.acknowledge(topic, messageId);
+				sentAcks.incrementAndGet();
+				acknowledgedMessages.addAndGet(count);
+			} catch (Exception e) {
+				LOGGER.warn("Can't acknowledge the message {} of {}, it will be delivered again", new Object[] {
+						messageId, topic, e });
+			}
+		}
+
+		synchronized void clear() {
+			received.clear();
+			pendingAcks.clear();
+			handledCount.set(0);
+		}
+	}
+}
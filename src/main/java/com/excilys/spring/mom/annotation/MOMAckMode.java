@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.annotation;
+
+/**
+ * Acknowledgement mode of the messages received on a topic.
+ * 
+ * @author dvilleneuve
+ * @see MOMMapping#ackMode()
+ */
+public enum MOMAckMode {
+
+	/**
+	 * Messages are acknowledged by the MOM server as soon as they are sent to the client.
+	 */
+	AUTO("auto"),
+
+	/**
+	 * Messages are acknowledged by the client once handled. An acknowledgement covers every previous message of the
+	 * subscription.
+	 */
+	CLIENT("client"),
+
+	/**
+	 * Messages are acknowledged by the client once handled, one by one.
+	 */
+	CLIENT_INDIVIDUAL("client-individual");
+
+	private final String headerValue;
+
+	private MOMAckMode(String headerValue) {
+		this.headerValue = headerValue;
+	}
+
+	/**
+	 * @return the value of the <code>ack</code> header of the subscription
+	 */
+	public String getHeaderValue() {
+		return headerValue;
+	}
+
+	/**
+	 * @return the strictest of this mode and {@code other}
+	 */
+	public MOMAckMode max(MOMAckMode other) {
+		return other != null && other.ordinal() > ordinal() ? other : this;
+	}
+}
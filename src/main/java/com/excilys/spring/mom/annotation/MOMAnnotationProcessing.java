@@ -17,6 +17,10 @@ package com.excilys.spring.mom.annotation;
 
 import java.lang.reflect.Method;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +28,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.core.Ordered;
 import org.springframework.stereotype.Component;
 import org.springframework.util.ReflectionUtils;
@@ -33,11 +38,16 @@ import com.excilys.spring.mom.client.MOMClient;
 import com.excilys.spring.mom.client.MOMMethodHandler;
 
 /**
+ * Register the methods of {@link MOMController @MOMController} beans annotated with {@link MOMMapping @MOMMapping}.
+ * <p/>
+ * Registrations are collected while beans are created and subscribed all at once when the context is started, so that
+ * the creation of beans doesn't wait for the MOM server. Beans created after the start are subscribed immediately.
+ * 
  * @author dvilleneuve
  * 
  */
 @Component
-public class MOMAnnotationProcessing implements BeanPostProcessor, Ordered {
+public class MOMAnnotationProcessing implements BeanPostProcessor, Ordered, SmartLifecycle {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(MOMAnnotationProcessing.class);
 
@@ -47,6 +57,9 @@ public class MOMAnnotationProcessing implements BeanPostProcessor, Ordered {
 	@Autowired
 	private ConfigurableApplicationContext applicationContext;
 
+	private final Map<String, List<MOMMethodHandler>> registrations = new LinkedHashMap<String, List<MOMMethodHandler>>();
+	private boolean running = false;
+
 	@Override
 	public int getOrder() {
 		return LOWEST_PRECEDENCE;
@@ -77,13 +90,8 @@ public class MOMAnnotationProcessing implements BeanPostProcessor, Ordered {
 
 						LOGGER.debug("Configuring @MOMMapping({}) method {}", consum, method);
 
-						try {
-							momClient.subscribe(topic, new MOMMethodHandler(method, bean, consum));
-						} catch (NotConnectedException e) {
-							LOGGER.error("Can't subscribe to topic {}", topic, e);
-						} catch (SocketException e) {
-							LOGGER.error("Can't subscribe to topic {}", topic, e);
-						}
+						MOMMethodHandler methodHandler = new MOMMethodHandler(method, bean, methodAnnotation);
+						register(momClient.getDestination(topic, methodHandler), methodHandler);
 					}
 				}
 			});
@@ -92,6 +100,92 @@ public class MOMAnnotationProcessing implements BeanPostProcessor, Ordered {
 		return bean;
 	}
 
+	/**
+	 * Keep a method handler until the context starts, or subscribe it if the context is already started.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 */
+	private void register(String topic, MOMMethodHandler methodHandler) {
+		synchronized (registrations) {
+			if (!running) {
+				List<MOMMethodHandler> methodHandlers = registrations.get(topic);
+				if (methodHandlers == null) {
+					methodHandlers = new ArrayList<MOMMethodHandler>();
+					registrations.put(topic, methodHandlers);
+				}
+				methodHandlers.add(methodHandler);
+				return;
+			}
+		}
+
+		try {
+			momClient.subscribe(topic, methodHandler);
+		} catch (NotConnectedException e) {
+			LOGGER.error("Can't subscribe to topic {}", topic, e);
+		} catch (SocketException e) {
+			LOGGER.error("Can't subscribe to topic {}", topic, e);
+		}
+	}
+
+	/**
+	 * Subscribe all the method handlers registered so far at once.
+	 */
+	@Override
+	public void start() {
+		Map<String, List<MOMMethodHandler>> pendingRegistrations;
+		synchronized (registrations) {
+			if (running) {
+				return;
+			}
+			running = true;
+			pendingRegistrations = new LinkedHashMap<String, List<MOMMethodHandler>>(registrations);
+			registrations.clear();
+		}
+
+		LOGGER.debug("Subscribing to {} topics", pendingRegistrations.size());
+		try {
+			momClient.subscribe(pendingRegistrations);
+		} catch (NotConnectedException e) {
+			LOGGER.error("Can't subscribe to topics {}", pendingRegistrations.keySet(), e);
+		} catch (SocketException e) {
+			LOGGER.error("Can't subscribe to topics {}", pendingRegistrations.keySet(), e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		synchronized (registrations) {
+			running = false;
+		}
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		synchronized (registrations) {
+			return running;
+		}
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	/**
+	 * Start after the other beans, so that controllers are ready to receive messages.
+	 */
+	@Override
+	public int getPhase() {
+		return Integer.MAX_VALUE;
+	}
+
 	/**
 	 * Resolve the value parameter as a property formatted like <code>${my.property}</code>
 	 * 
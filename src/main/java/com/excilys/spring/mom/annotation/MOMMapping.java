@@ -21,6 +21,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import com.excilys.spring.mom.parser.MOMResponseParser;
+import com.excilys.spring.mom.selector.MOMSelector;
 
 /**
  * Annotation for mapping MOM requests onto specific handler methods.
@@ -57,4 +58,120 @@ public @interface MOMMapping {
 	 */
 	MOMMappingConsum consumes() default MOMMappingConsum.STRING;
 
+	/**
+	 * If true, messages are dispatched to the method asynchronously, keeping only the last received message for each
+	 * {@link #conflationKey() conflation key}. When the method is slower than the publisher, older messages which have
+	 * not been dispatched yet are overwritten by newer ones and are never parsed nor invoked.
+	 * <p/>
+	 * Useful for topics where only the latest value matters, like prices or states.
+	 * 
+	 * @return
+	 */
+	boolean conflate() default false;
+
+	/**
+	 * The header whose value identifies the conflation slot of a message. If empty (default), a single slot is kept for
+	 * the whole topic. Ignored if {@link #conflate()} is false.
+	 * 
+	 * @return
+	 */
+	String conflationKey() default "";
+
+	/**
+	 * An optional selector expression evaluated on the headers and the top-level JSON fields of each message before it
+	 * is parsed. Messages which don't match are not dispatched to the method. The selector is also sent to the MOM
+	 * server with the subscription when it is only made of string equalities on headers, combined with AND and OR, and
+	 * every method mapped to the topic has the same selector. Otherwise, it is evaluated on the client only.
+	 * <p/>
+	 * For example : <code>header.type = 'trade' AND amount &gt;= 1000</code>.
+	 * 
+	 * @return
+	 * @see MOMSelector
+	 */
+	String selector() default "";
+
+	/**
+	 * If greater than 1 and the single parameter of the method is a {@link java.util.List List} or an array, received
+	 * messages are accumulated and delivered by batches of at most {@code batchSize} messages in a single invocation.
+	 * Each message is parsed according to {@link #consumes()} as an element of the list or array.
+	 * <p/>
+	 * This allows handlers to perform bulk operations, like a single database insert per batch.
+	 * 
+	 * @return
+	 * @see #maxWaitMs()
+	 */
+	int batchSize() default 1;
+
+	/**
+	 * The maximum time in milliseconds a message waits for its batch to be full before the batch is delivered anyway.
+	 * Ignored if the method isn't batching messages. If 0, batches are only delivered when full.
+	 * 
+	 * @return
+	 * @see #batchSize()
+	 */
+	long maxWaitMs() default 100;
+
+	/**
+	 * The priority of the dispatch of messages to the method. Messages are dispatched to methods with a priority other
+	 * than {@link MOMPriority#NORMAL NORMAL} asynchronously, through weighted lanes, so that high priority methods, like
+	 * control topics, aren't delayed by low priority bulk topics. Methods with the {@link MOMPriority#NORMAL NORMAL}
+	 * priority are invoked on the receiving thread. When the lane of the priority is full, the receiving thread waits
+	 * for room.
+	 * 
+	 * @return
+	 * @see com.excilys.spring.mom.dispatch.MOMPriorityLanes
+	 */
+	MOMPriority priority() default MOMPriority.NORMAL;
+
+	/**
+	 * The maximum number of messages being handled at the same time by a method returning a
+	 * {@link java.util.concurrent.Future Future} or a <code>CompletionStage</code>. Such a method is considered done
+	 * with a message when its future completes, without holding the dispatch thread. When the limit is reached, the
+	 * dispatch thread waits for a future to complete before invoking the method with the next message, so that the
+	 * broker stops sending messages once the {@link #prefetch() prefetch} is exhausted. A batch counts as a single
+	 * message. Ignored if the method isn't asynchronous.
+	 * 
+	 * @return
+	 * @see com.excilys.spring.mom.dispatch.MOMFutureTracker
+	 */
+	int maxOutstanding() default 1000;
+
+	/**
+	 * The acknowledgement mode of the messages of the topic. In {@link MOMAckMode#CLIENT CLIENT} and
+	 * {@link MOMAckMode#CLIENT_INDIVIDUAL CLIENT_INDIVIDUAL} modes, a message is acknowledged once every method mapped
+	 * to the topic is done with it, so that the messages in flight are delivered again after a crash. Acknowledgements
+	 * are sent by batches. When methods of a topic have different modes, the strictest one applies.
+	 * 
+	 * @return
+	 * @see com.excilys.spring.mom.ack.MOMAcknowledger
+	 */
+	MOMAckMode ackMode() default MOMAckMode.AUTO;
+
+	/**
+	 * The maximum number of messages of the topic sent by the MOM server and not handled yet. If greater than 0, it's
+	 * sent with the subscription and enforced by the MOM server, the messages being acknowledged once handled : the
+	 * {@link #ackMode() acknowledgement mode} is {@link MOMAckMode#CLIENT CLIENT} at least. Fast methods can take a
+	 * large prefetch for throughput, slow ones a small prefetch to keep latency and memory in check. When methods of a
+	 * topic have different prefetches, the smallest one applies, and it can't be smaller than the
+	 * {@link #batchSize() batch size} of a method. If 0 (default), the prefetch of the MOM server applies.
+	 * 
+	 * @return
+	 * @see com.excilys.spring.mom.client.MOMClient#subscribe(String, com.excilys.spring.mom.client.MOMMethodHandler,
+	 *      int)
+	 */
+	int prefetch() default 0;
+
+	/**
+	 * The consumer group of the method. The messages of the topic are shared between the instances of the application
+	 * subscribing with the same group, instead of being handled by each of them, so that adding instances increases the
+	 * throughput. If empty (default), every instance handles every message.
+	 * <p/>
+	 * Depending on the {@link com.excilys.spring.mom.group.MOMGroupStrategy strategy} of the client, the group consumes
+	 * a queue of the MOM server, or the messages are partitioned between the known members of the group.
+	 * 
+	 * @return
+	 * @see com.excilys.spring.mom.client.MOMClient#setGroupStrategy(com.excilys.spring.mom.group.MOMGroupStrategy)
+	 */
+	String group() default "";
+
 }
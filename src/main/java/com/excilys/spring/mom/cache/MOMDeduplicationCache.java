@@ -0,0 +1,250 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.cache;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of already received message ids, used by the {@link com.excilys.spring.mom.client.MOMClient
+ * MOMClient} to drop redelivered messages before they are parsed and dispatched.
+ * <p/>
+ * Ids are hashed to 64 bits and stored in pre-allocated open-addressing <code>long</code> tables, so the memory used
+ * by the cache stays flat whatever the number of ids seen. Each segment keeps several generations of tables: a new
+ * generation starts when the current one is full or older than a fraction of the TTL, and the oldest generation is then
+ * recycled. An id is therefore remembered for approximately {@code ttl}, and at most {@code capacity} ids are kept.
+ * <p/>
+ * Two distinct ids sharing the same 64 bits hash will be seen as duplicates. This is acceptable for message ids.
+ *
+ * @author dvilleneuve
+ */
+public class MOMDeduplicationCache {
+
+	/**
+	 * The STOMP header used by default to identify a message.
+	 */
+	public static final String DEFAULT_KEY_HEADER = "message-id";
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	private static final int GENERATIONS = 4;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final long ttlNanos;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private String keyHeader = DEFAULT_KEY_HEADER;
+
+	/**
+	 * Create a cache remembering at most {@code capacity} ids during {@code ttlMillis} milliseconds.
+	 *
+	 * @param capacity
+	 * @param ttlMillis
+	 */
+	public MOMDeduplicationCache(int capacity, long ttlMillis) {
+		this(capacity, ttlMillis, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Create a cache remembering at most {@code capacity} ids during {@code ttlMillis} milliseconds. The cache is split
+	 * in {@code concurrencyLevel} independently locked segments.
+	 *
+	 * @param capacity
+	 * @param ttlMillis
+	 * @param concurrencyLevel
+	 */
+	public MOMDeduplicationCache(int capacity, long ttlMillis, int concurrencyLevel) {
+		if (capacity <= 0 || ttlMillis <= 0 || concurrencyLevel <= 0) {
+			throw new IllegalArgumentException("capacity, ttlMillis and concurrencyLevel must be positive");
+		}
+
+		int segmentCount = Integer.highestOneBit(Math.min(concurrencyLevel, capacity));
+		int generationCapacity = Math.max(1, capacity / (segmentCount * GENERATIONS));
+
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(generationCapacity, ttlNanos);
+		}
+	}
+
+	/**
+	 * Check if the message identified by the {@link #getKeyHeader() key header} has already been received, and
+	 * remember it otherwise. Messages without the key header are never seen as duplicates.
+	 *
+	 * @param headers
+	 * @return true if the message is a duplicate
+	 */
+	public boolean isDuplicate(Map<String, String> headers) {
+		if (headers == null) {
+			return false;
+		}
+
+		String key = headers.get(keyHeader);
+		return key != null && isDuplicate(key);
+	}
+
+	/**
+	 * Check if {@code key} has already been seen, and remember it otherwise.
+	 *
+	 * @param key
+	 * @return true if the key is a duplicate
+	 */
+	public boolean isDuplicate(String key) {
+		long hash = hash(key);
+		Segment segment = segments[(int) (hash >>> 32) & segmentMask];
+
+		if (segment.addIfAbsent(hash, System.nanoTime())) {
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Forget every id seen so far.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return the number of messages detected as duplicates
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of messages seen for the first time
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public String getKeyHeader() {
+		return keyHeader;
+	}
+
+	/**
+	 * Set the header identifying a message. Default is {@value #DEFAULT_KEY_HEADER}.
+	 *
+	 * @param keyHeader
+	 */
+	public void setKeyHeader(String keyHeader) {
+		this.keyHeader = keyHeader;
+	}
+
+	/**
+	 * 64 bits FNV-1a hash of the key chars, followed by the MurmurHash3 finalizer to spread the bits. Zero is reserved
+	 * to mark empty slots.
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * A set of generations, each one being an open-addressing table of hashes.
+	 */
+	private static final class Segment {
+
+		private final long[][] tables;
+		private final long[] createdAt;
+		private final int[] sizes;
+		private final int generationCapacity;
+		private final long ttlNanos;
+		private final long generationNanos;
+		private int current;
+
+		Segment(int generationCapacity, long ttlNanos) {
+			int tableLength = Integer.highestOneBit(generationCapacity * 2 - 1) << 1;
+
+			this.tables = new long[GENERATIONS][tableLength];
+			this.createdAt = new long[GENERATIONS];
+			this.sizes = new int[GENERATIONS];
+			this.generationCapacity = generationCapacity;
+			this.ttlNanos = ttlNanos;
+			this.generationNanos = ttlNanos / GENERATIONS;
+
+			long now = System.nanoTime();
+			Arrays.fill(createdAt, now - ttlNanos);
+			createdAt[0] = now;
+		}
+
+		synchronized boolean addIfAbsent(long hash, long now) {
+			for (int i = 0; i < GENERATIONS; i++) {
+				if (sizes[i] > 0 && now - createdAt[i] < ttlNanos && contains(tables[i], hash)) {
+					return false;
+				}
+			}
+
+			if (sizes[current] >= generationCapacity || now - createdAt[current] >= generationNanos) {
+				current = (current + 1) % GENERATIONS;
+				Arrays.fill(tables[current], 0L);
+				sizes[current] = 0;
+				createdAt[current] = now;
+			}
+
+			insert(tables[current], hash);
+			sizes[current]++;
+			return true;
+		}
+
+		synchronized void clear() {
+			for (int i = 0; i < GENERATIONS; i++) {
+				Arrays.fill(tables[i], 0L);
+				sizes[i] = 0;
+			}
+		}
+
+		private static boolean contains(long[] table, long hash) {
+			int mask = table.length - 1;
+			for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+				long slot = table[i];
+				if (slot == hash) {
+					return true;
+				} else if (slot == 0L) {
+					return false;
+				}
+			}
+		}
+
+		private static void insert(long[] table, long hash) {
+			int mask = table.length - 1;
+			int i = (int) hash & mask;
+			while (table[i] != 0L) {
+				i = (i + 1) & mask;
+			}
+			table[i] = hash;
+		}
+	}
+}
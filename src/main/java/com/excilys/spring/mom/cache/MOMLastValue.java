@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.cache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.excilys.spring.mom.parser.MOMResponseParsingException;
+import com.excilys.spring.mom.parser.ObjectMapperSingleton;
+
+/**
+ * The last message received on a topic, as retained by a {@link MOMLastValueCache MOMLastValueCache}. The raw data is
+ * kept as received and is only parsed on demand by {@link #getValue(Class)}, the result being memoized.
+ *
+ * @author dvilleneuve
+ */
+public class MOMLastValue {
+
+	private final String topic;
+	private final byte[] data;
+	private final Map<String, String> headers;
+	private final long receivedAt;
+	private Map<Class<?>, Object> values;
+
+	public MOMLastValue(String topic, byte[] data, Map<String, String> headers) {
+		this.topic = topic;
+		this.data = data;
+		this.headers = headers != null ? Collections.unmodifiableMap(new HashMap<String, String>(headers)) : Collections
+				.<String, String> emptyMap();
+		this.receivedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Return the data bound to {@code type}. A String is built from the data as is, any other type is bound from the
+	 * data parsed as a JSON string. The parsed value is shared by every caller, so it must not be modified.
+	 *
+	 * @param type
+	 * @return
+	 * @throws MOMResponseParsingException
+	 */
+	public synchronized <T> T getValue(Class<T> type) throws MOMResponseParsingException {
+		if (values == null) {
+			values = new HashMap<Class<?>, Object>(2);
+		}
+
+		Object value = values.get(type);
+		if (value == null) {
+			if (type == String.class) {
+				value = new String(data);
+			} else {
+				try {
+					value = ObjectMapperSingleton.INSTANCE.getMapper().readValue(data, type);
+				} catch (IOException e) {
+					throw new MOMResponseParsingException("Unable to parse the json string", e);
+				}
+			}
+			values.put(type, value);
+		}
+		return type.cast(value);
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+
+}
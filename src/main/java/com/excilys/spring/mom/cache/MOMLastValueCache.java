@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retain the last message received on each topic, so that handlers subscribing later and the application can get the
+ * current state without waiting for the next publish.
+ * <p/>
+ * The cache is bounded by a number of topics and by the total size of the retained data. When one of them is exceeded,
+ * the least recently used topics are evicted.
+ *
+ * @author dvilleneuve
+ * @see com.excilys.spring.mom.client.MOMClient#getLast(String)
+ */
+public class MOMLastValueCache {
+
+	private final LinkedHashMap<String, MOMLastValue> lastValues;
+	private final int maxTopics;
+	private final long maxBytes;
+	private long bytes;
+
+	/**
+	 * Create a cache retaining the last message of at most {@code maxTopics} topics.
+	 *
+	 * @param maxTopics
+	 */
+	public MOMLastValueCache(int maxTopics) {
+		this(maxTopics, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Create a cache retaining the last message of at most {@code maxTopics} topics, and at most {@code maxBytes} bytes
+	 * of data.
+	 *
+	 * @param maxTopics
+	 * @param maxBytes
+	 */
+	public MOMLastValueCache(int maxTopics, long maxBytes) {
+		this.lastValues = new LinkedHashMap<String, MOMLastValue>(16, 0.75f, true);
+		this.maxTopics = maxTopics;
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized void put(MOMLastValue lastValue) {
+		MOMLastValue previous = lastValues.put(lastValue.getTopic(), lastValue);
+		if (previous != null) {
+			bytes -= previous.getData().length;
+		}
+		bytes += lastValue.getData().length;
+
+		Iterator<MOMLastValue> iterator = lastValues.values().iterator();
+		while ((lastValues.size() > maxTopics || bytes > maxBytes) && iterator.hasNext()) {
+			MOMLastValue eldest = iterator.next();
+			if (eldest == lastValue) {
+				break;
+			}
+			bytes -= eldest.getData().length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @param topic
+	 * @return the last message received on {@code topic}, or null if none is retained
+	 */
+	public synchronized MOMLastValue get(String topic) {
+		return lastValues.get(topic);
+	}
+
+	public synchronized void remove(String topic) {
+		MOMLastValue previous = lastValues.remove(topic);
+		if (previous != null) {
+			bytes -= previous.getData().length;
+		}
+	}
+
+	public synchronized void clear() {
+		lastValues.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return lastValues.size();
+	}
+
+	/**
+	 * @return the total size of the retained data
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return a snapshot of the retained messages, by topic
+	 */
+	public synchronized Map<String, MOMLastValue> getLastValues() {
+		return new LinkedHashMap<String, MOMLastValue>(lastValues);
+	}
+
+}
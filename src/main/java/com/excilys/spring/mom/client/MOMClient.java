@@ -16,18 +16,53 @@
 package com.excilys.spring.mom.client;
 
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import com.excilys.soja.client.exception.NotConnectedException;
+import com.excilys.spring.mom.ack.MOMAcknowledger;
+import com.excilys.spring.mom.annotation.MOMAckMode;
+import com.excilys.spring.mom.annotation.MOMPriority;
+import com.excilys.spring.mom.cache.MOMDeduplicationCache;
+import com.excilys.spring.mom.cache.MOMLastValue;
+import com.excilys.spring.mom.cache.MOMLastValueCache;
+import com.excilys.spring.mom.dispatch.MOMBatchingDispatcher;
+import com.excilys.spring.mom.dispatch.MOMConflatingDispatcher;
+import com.excilys.spring.mom.dispatch.MOMDispatchFailureHandler;
+import com.excilys.spring.mom.dispatch.MOMFutureTracker;
+import com.excilys.spring.mom.dispatch.MOMHandlerWatchdog;
+import com.excilys.spring.mom.dispatch.MOMMessageDispatcher;
+import com.excilys.spring.mom.dispatch.MOMPriorityLanes;
+import com.excilys.spring.mom.dispatch.MOMSampledFailureLogger;
+import com.excilys.spring.mom.group.MOMGroupMembership;
+import com.excilys.spring.mom.group.MOMGroupStrategy;
+import com.excilys.spring.mom.journal.MOMDeadLetterSink;
+import com.excilys.spring.mom.journal.MOMJournal;
+import com.excilys.spring.mom.metrics.MOMMetrics;
+import com.excilys.spring.mom.metrics.MOMTracer;
+import com.excilys.spring.mom.parser.MOMDecodeCache;
+import com.excilys.spring.mom.ratelimit.MOMPublishThrottle;
+import com.excilys.spring.mom.ratelimit.MOMThrottleMode;
+import com.excilys.spring.mom.selector.MOMSelector;
 
 /**
  * Represents a client MOM. This class implements the listener system of subscribing and unsubscribing methods.
@@ -42,9 +77,28 @@ public abstract class MOMClient {
 	protected static final Logger LOGGER = LoggerFactory.getLogger(MOMClient.class);
 
 	private final List<MOMClientListener> clientListeners;
-	private final Map<String, Set<MOMMethodHandler>> topicMethodHandlers;
+	private final ConcurrentMap<String, Set<MOMMethodHandler>> topicMethodHandlers;
 	private final String hostname;
 	private final int port;
+	private final Map<MOMMethodHandler, MOMMessageDispatcher> messageDispatchers;
+	private MOMDeduplicationCache deduplicationCache;
+	private MOMLastValueCache lastValueCache;
+	private MOMJournal publishJournal;
+	private volatile MOMDeadLetterSink deadLetterSink;
+	private MOMPublishThrottle publishThrottle;
+	private volatile MOMMetrics metrics;
+	private volatile MOMTracer tracer;
+	private final MOMDispatchFailureHandler failureLogger = new MOMSampledFailureLogger();
+	private final MOMDispatchFailureHandler lazyFailureHandler = new LazyDispatchFailureHandler();
+	private Executor dispatchExecutor;
+	private ScheduledExecutorService scheduler;
+	private volatile MOMPriorityLanes priorityLanes;
+	private MOMFutureTracker futureTracker;
+	private volatile MOMAcknowledger acknowledger;
+	private volatile MOMHandlerWatchdog watchdog;
+	private MOMGroupStrategy groupStrategy = MOMGroupStrategy.PARTITION;
+	private String groupDestinationPattern = "/queue/Consumer.{group}.{topic}";
+	private volatile MOMGroupMembership groupMembership;
 
 	/**
 	 * Create an instance of MOMClient for a specific {@code hostname} and {@code port}, which will auto-connect to the
@@ -71,7 +125,8 @@ public abstract class MOMClient {
 	 */
 	public MOMClient(String hostname, int port, boolean autoconnect) {
 		this.clientListeners = new LinkedList<MOMClientListener>();
-		this.topicMethodHandlers = new HashMap<String, Set<MOMMethodHandler>>();
+		this.topicMethodHandlers = new ConcurrentHashMap<String, Set<MOMMethodHandler>>();
+		this.messageDispatchers = new ConcurrentHashMap<MOMMethodHandler, MOMMessageDispatcher>();
 		this.hostname = hostname;
 		this.port = port;
 	}
@@ -89,21 +144,137 @@ public abstract class MOMClient {
 	public abstract void disconnect() throws NotConnectedException, SocketException;
 
 	/**
-	 * Subscribe to a topic by registering a listener.
+	 * Subscribe to a topic by registering a listener. If a {@link MOMLastValueCache last value cache} is set and a
+	 * message has already been received on the topic, the listener is immediately invoked with it.
 	 * 
 	 * @param topic
 	 * @throws SocketException 
 	 * @throws NotConnectedException 
+	 * @throws IllegalArgumentException
+	 *             if the prefetch of the topic is smaller than the size of a batch of one of its method handlers
 	 */
 	public void subscribe(String topic, MOMMethodHandler momMethodHandler) throws NotConnectedException, SocketException {
+		checkPrefetch(topic, momMethodHandler, momMethodHandler.getPrefetch());
+
 		Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.get(topic);
 
 		if (methodHandlers == null) {
-			methodHandlers = new TreeSet<MOMMethodHandler>();
-			topicMethodHandlers.put(topic, methodHandlers);
+			Set<MOMMethodHandler> newMethodHandlers = new CopyOnWriteArraySet<MOMMethodHandler>();
+			methodHandlers = topicMethodHandlers.putIfAbsent(topic, newMethodHandlers);
+			if (methodHandlers == null) {
+				methodHandlers = newMethodHandlers;
+			}
+		}
+
+		boolean added = methodHandlers.add(momMethodHandler);
+		if (metrics != null) {
+			momMethodHandler.setMetrics(metrics);
+		}
+
+		if (momMethodHandler.getPriority() != MOMPriority.NORMAL) {
+			getPriorityLanes();
+		}
+
+		if (momMethodHandler.isAsync() && momMethodHandler.getFutureTracker() == null) {
+			momMethodHandler.setFutureTracker(getFutureTracker());
+		}
+
+		if (momMethodHandler.getAckMode() != MOMAckMode.AUTO || momMethodHandler.getPrefetch() > 0) {
+			getAcknowledger().register(topic, momMethodHandler.getAckMode(), momMethodHandler.getPrefetch());
+		}
+		if (acknowledger != null) {
+			momMethodHandler.setAcknowledger(acknowledger);
+		}
+
+		if (isPartitioned(momMethodHandler)) {
+			getGroupMembership().join(momMethodHandler.getGroup());
 		}
 
+		if (!messageDispatchers.containsKey(momMethodHandler)) {
+			MOMMessageDispatcher messageDispatcher = createMessageDispatcher(topic, momMethodHandler);
+			if (messageDispatcher != null) {
+				messageDispatchers.put(momMethodHandler, messageDispatcher);
+			}
+		}
+
+		if (added && lastValueCache != null) {
+			MOMLastValue lastValue = lastValueCache.get(topic);
+			if (lastValue != null) {
+				LOGGER.debug("Prime {} with the last message received on {}", momMethodHandler.getMethod(), topic);
+				dispatch(topic, momMethodHandler, lastValue.getData(), lastValue.getHeaders(), null, null);
+			}
+		}
+	}
+
+	/**
+	 * Subscribe to a topic by registering a listener, limiting the number of messages of the topic sent by the MOM
+	 * server and not handled yet to {@code prefetch}.
+	 * 
+	 * @param topic
+	 * @param momMethodHandler
+	 * @param prefetch
+	 *            0 for the prefetch of the method handler
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 * @see com.excilys.spring.mom.annotation.MOMMapping#prefetch()
+	 */
+	public void subscribe(String topic, MOMMethodHandler momMethodHandler, int prefetch)
+			throws NotConnectedException, SocketException {
+		checkPrefetch(topic, momMethodHandler, prefetch);
+		if (prefetch > 0) {
+			getAcknowledger().register(topic, momMethodHandler.getAckMode(), prefetch);
+		}
+		subscribe(topic, momMethodHandler);
+	}
+
+	/**
+	 * A batch can't fill up if the MOM server stops sending messages before : reject a prefetch smaller than the size
+	 * of a batch.
+	 */
+	private void checkPrefetch(String topic, MOMMethodHandler momMethodHandler, int prefetch) {
+		int topicPrefetch = acknowledger != null ? acknowledger.getPrefetch(topic) : 0;
+		int handlerPrefetch = momMethodHandler.getPrefetch();
+		for (int candidate : new int[] { prefetch, handlerPrefetch }) {
+			if (candidate > 0 && (topicPrefetch == 0 || candidate < topicPrefetch)) {
+				topicPrefetch = candidate;
+			}
+		}
+		if (topicPrefetch == 0) {
+			return;
+		}
+
+		List<MOMMethodHandler> methodHandlers = new ArrayList<MOMMethodHandler>();
 		methodHandlers.add(momMethodHandler);
+		Set<MOMMethodHandler> subscribedHandlers = topicMethodHandlers.get(topic);
+		if (subscribedHandlers != null) {
+			methodHandlers.addAll(subscribedHandlers);
+		}
+
+		for (MOMMethodHandler methodHandler : methodHandlers) {
+			if (methodHandler.isBatch() && methodHandler.getBatchSize() > topicPrefetch) {
+				throw new IllegalArgumentException("The prefetch of " + topic + " (" + topicPrefetch
+						+ ") is smaller than the batch size of " + methodHandler.getMethod() + " ("
+						+ methodHandler.getBatchSize() + ")");
+			}
+		}
+	}
+
+	/**
+	 * Subscribe many method handlers at once. Sub-classes may override this method to send all the subscriptions to the
+	 * MOM server in a single burst.
+	 * 
+	 * @param methodHandlersByTopic
+	 *            method handlers to subscribe, by topic
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	public void subscribe(Map<String, ? extends Collection<MOMMethodHandler>> methodHandlersByTopic)
+			throws NotConnectedException, SocketException {
+		for (Map.Entry<String, ? extends Collection<MOMMethodHandler>> entry : methodHandlersByTopic.entrySet()) {
+			for (MOMMethodHandler methodHandler : entry.getValue()) {
+				subscribe(entry.getKey(), methodHandler);
+			}
+		}
 	}
 
 	/**
@@ -114,7 +285,45 @@ public abstract class MOMClient {
 	 * @throws NotConnectedException 
 	 */
 	public void unsubscribe(String topic) throws NotConnectedException, SocketException {
-		topicMethodHandlers.remove(topic);
+		Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.remove(topic);
+		if (acknowledger != null) {
+			acknowledger.unregister(topic);
+		}
+
+		if (methodHandlers != null) {
+			for (MOMMethodHandler methodHandler : methodHandlers) {
+				MOMMessageDispatcher messageDispatcher = messageDispatchers.remove(methodHandler);
+				if (messageDispatcher != null) {
+					messageDispatcher.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unregister a single method handler from a topic. The topic is {@link #unsubscribe(String) unsubscribed} when its
+	 * last method handler is unregistered.
+	 *
+	 * @param topic
+	 * @param momMethodHandler
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	public void unsubscribe(String topic, MOMMethodHandler momMethodHandler) throws NotConnectedException,
+			SocketException {
+		Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.get(topic);
+		if (methodHandlers == null || !methodHandlers.remove(momMethodHandler)) {
+			return;
+		}
+
+		MOMMessageDispatcher messageDispatcher = messageDispatchers.remove(momMethodHandler);
+		if (messageDispatcher != null) {
+			messageDispatcher.close();
+		}
+
+		if (methodHandlers.isEmpty()) {
+			unsubscribe(topic);
+		}
 	}
 
 	/**
@@ -139,6 +348,439 @@ public abstract class MOMClient {
 	 */
 	public abstract void publish(String topic, byte[] data) throws NotConnectedException, SocketException;
 
+	/**
+	 * Publish a stream on a specific topic to the MOM server only if the {@link MOMPublishThrottle publish throttle}, if
+	 * any, grants a permit immediately, whatever its mode.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @return true if the message has been published
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	public boolean tryPublish(String topic, byte[] data) throws NotConnectedException, SocketException {
+		if (publishThrottle != null && !publishThrottle.tryAcquire(topic)) {
+			return false;
+		}
+		publishThrottled(topic, data);
+		return true;
+	}
+
+	/**
+	 * Publish a message which has already been granted a permit by the {@link MOMPublishThrottle publish throttle}.
+	 * Sub-classes calling {@link #throttle(String, byte[])} from their {@code publish} methods have to override this
+	 * method to publish without throttling again.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	protected void publishThrottled(String topic, byte[] data) throws NotConnectedException, SocketException {
+		publish(topic, data);
+	}
+
+	/**
+	 * Apply the {@link MOMPublishThrottle publish throttle}, if any, to a message about to be published : wait for a
+	 * permit in {@link MOMThrottleMode#BLOCK BLOCK} mode, drop the message if no permit is available in
+	 * {@link MOMThrottleMode#TRY TRY} mode, or schedule its publication through {@link #publishThrottled(String, byte[])}
+	 * in {@link MOMThrottleMode#SMOOTH SMOOTH} mode. Delayed and dropped messages are reported to the
+	 * {@link MOMMetrics metrics}, if any.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @return true if the message has been dropped or scheduled, false if it has to be published now
+	 * @throws RejectedExecutionException
+	 *             if no permit can be granted within the maximum delay of the throttle in
+	 *             {@link MOMThrottleMode#BLOCK BLOCK} mode
+	 */
+	protected boolean throttle(String topic, byte[] data) {
+		long delay = acquirePublishPermit(topic);
+		if (delay == 0) {
+			return false;
+		} else if (delay > 0) {
+			schedulePublish(topic, data, delay);
+		}
+		return true;
+	}
+
+	/**
+	 * @see #throttle(String, byte[])
+	 */
+	protected boolean throttle(String topic, String message) {
+		long delay = acquirePublishPermit(topic);
+		if (delay == 0) {
+			return false;
+		} else if (delay > 0) {
+			schedulePublish(topic, message.getBytes(), delay);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the delay before publishing the message, in nanoseconds, or -1 if the message has to be dropped
+	 * @throws RejectedExecutionException
+	 *             if no permit can be granted in {@link MOMThrottleMode#BLOCK BLOCK} mode
+	 */
+	private long acquirePublishPermit(String topic) {
+		MOMPublishThrottle throttle = publishThrottle;
+		if (throttle == null) {
+			return 0;
+		}
+
+		long delay;
+		if (throttle.getMode() == MOMThrottleMode.TRY) {
+			delay = throttle.tryAcquire(topic) ? 0 : -1;
+		} else {
+			delay = throttle.reserve(topic, throttle.getMaxDelayNanos());
+		}
+
+		MOMMetrics metrics = this.metrics;
+		if (metrics != null && delay != 0) {
+			metrics.messageThrottled(topic, Math.max(0, delay), delay < 0);
+		}
+
+		if (delay < 0) {
+			if (throttle.getMode() == MOMThrottleMode.BLOCK) {
+				throw new RejectedExecutionException("Publish rate limit exceeded, can't get a permit to publish on "
+						+ topic + " within " + TimeUnit.NANOSECONDS.toMillis(throttle.getMaxDelayNanos()) + " ms");
+			}
+			LOGGER.debug("Publish rate limit exceeded, drop the message sent to {}", topic);
+			return -1;
+		}
+
+		if (delay > 0 && throttle.getMode() == MOMThrottleMode.BLOCK) {
+			// The permit is reserved: an interruption only cuts the wait short
+			long deadline = System.nanoTime() + delay;
+			long remaining = delay;
+			while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+				LockSupport.parkNanos(remaining);
+				remaining = deadline - System.nanoTime();
+			}
+			return 0;
+		}
+		return delay;
+	}
+
+	private void schedulePublish(final String topic, final byte[] data, long delay) {
+		getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					publishThrottled(topic, data);
+				} catch (Exception e) {
+					LOGGER.error("Can't publish the throttled message sent to " + topic, e);
+				}
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Dispatch a message received from the MOM server on a specific topic to each method handler which subscribed to
+	 * it. If a {@link MOMDeduplicationCache deduplication cache} is set, an already received message is dropped before
+	 * being parsed. If a {@link MOMLastValueCache last value cache} is set, the message is retained. Conflating and
+	 * batching method handlers are invoked through their {@link MOMMessageDispatcher dispatcher}.
+	 * <p/>
+	 * When the message is dispatched to several method handlers, it is parsed only once by equal parsers. If a method
+	 * handler has a {@link MOMPriority priority}, the message is dispatched through the {@link MOMPriorityLanes priority
+	 * lanes}. A method handler isolated by the {@link MOMHandlerWatchdog watchdog} is invoked through its bulkhead. If
+	 * the topic is subscribed in a client {@link MOMAckMode acknowledgement mode}, the message is acknowledged once every
+	 * method handler is done with it.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @param headers
+	 */
+	protected void dispatch(String topic, byte[] data, Map<String, String> headers) {
+		MOMMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.messageReceived(topic, data.length);
+		}
+
+		MOMAcknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null && !acknowledger.received(topic, headers)) {
+			acknowledger = null;
+		}
+
+		if (deduplicationCache != null && deduplicationCache.isDuplicate(headers)) {
+			LOGGER.debug("Drop duplicate message received on {}", topic);
+			if (acknowledger != null) {
+				acknowledger.handled(topic, headers);
+			}
+			return;
+		}
+
+		if (lastValueCache != null) {
+			lastValueCache.put(new MOMLastValue(topic, data, headers));
+		}
+
+		MOMTracer tracer = this.tracer;
+		if (tracer != null) {
+			headers = tracer.received(topic, headers, metrics);
+		}
+
+		Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.get(topic);
+		try {
+			if (methodHandlers == null) {
+				return;
+			}
+
+			MOMDecodeCache decodeCache = sharesDecodeCache(methodHandlers) ? new MOMDecodeCache(data) : null;
+
+			for (MOMMethodHandler methodHandler : methodHandlers) {
+				if (methodHandler != null && methodHandler.getMethod() != null && methodHandler.getInstance() != null) {
+					// A failing method handler, or failure handler, doesn't prevent the dispatch to the others
+					try {
+						dispatch(topic, methodHandler, data, headers, decodeCache, acknowledger);
+					} catch (Exception e) {
+						LOGGER.error("Can't invoke method", e);
+					}
+				}
+			}
+		} finally {
+			// Every method handler holds the message from now on
+			if (acknowledger != null) {
+				acknowledger.handled(topic, headers);
+			}
+		}
+	}
+
+	private void dispatch(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers,
+			MOMDecodeCache decodeCache, MOMAcknowledger acknowledger) {
+		if (!methodHandler.accepts(data, headers)) {
+			return;
+		}
+
+		MOMGroupMembership groupMembership = this.groupMembership;
+		if (groupMembership != null && isPartitioned(methodHandler)
+				&& !groupMembership.owns(methodHandler.getGroup(), data, headers)) {
+			return;
+		}
+
+		if (acknowledger != null) {
+			acknowledger.retain(topic, headers);
+		}
+
+		MOMMessageDispatcher messageDispatcher = messageDispatchers.get(methodHandler);
+		if (messageDispatcher != null) {
+			messageDispatcher.offer(data, headers);
+			return;
+		}
+
+		// The decode cache isn't thread-safe : deliveries handed off to another thread parse the message themselves
+		MOMHandlerWatchdog watchdog = this.watchdog;
+		Executor bulkhead = watchdog != null ? watchdog.getBulkhead(methodHandler) : null;
+		if (bulkhead != null) {
+			try {
+				// Waits for room in a full bulkhead
+				bulkhead.execute(new Delivery(topic, methodHandler, data, headers));
+				return;
+			} catch (RejectedExecutionException e) {
+				// The method handler has just returned to the shared dispatch path, or the thread has been interrupted
+				if (watchdog.getBulkhead(methodHandler) == bulkhead) {
+					LOGGER.warn("Can't queue the message received on {} in the bulkhead of {}, deliver it now : {}",
+							new Object[] { topic, methodHandler.getMethod(), e.getMessage() });
+				}
+			}
+		}
+
+		MOMPriorityLanes lanes = priorityLanes;
+		if (lanes != null && methodHandler.getPriority() != MOMPriority.NORMAL) {
+			try {
+				// Waits for room in a full lane
+				lanes.execute(methodHandler.getPriority(), new Delivery(topic, methodHandler, data, headers));
+				return;
+			} catch (RejectedExecutionException e) {
+				LOGGER.warn("Can't queue the message received on {} in the priority lanes, deliver it now : {}",
+						topic, e.getMessage());
+			}
+		}
+
+		deliver(topic, methodHandler, data, headers, decodeCache);
+	}
+
+	/**
+	 * @return true if more than one of the method handlers are delivered on the dispatching thread, the only ones using
+	 *         a decode cache
+	 */
+	private boolean sharesDecodeCache(Set<MOMMethodHandler> methodHandlers) {
+		if (methodHandlers.size() < 2) {
+			return false;
+		}
+
+		int inlineDeliveries = 0;
+		for (MOMMethodHandler methodHandler : methodHandlers) {
+			if (isDeliveredInline(methodHandler) && ++inlineDeliveries > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isDeliveredInline(MOMMethodHandler methodHandler) {
+		if (messageDispatchers.containsKey(methodHandler)
+				|| (priorityLanes != null && methodHandler.getPriority() != MOMPriority.NORMAL)) {
+			return false;
+		}
+
+		MOMHandlerWatchdog watchdog = this.watchdog;
+		return watchdog == null || watchdog.getBulkhead(methodHandler) == null;
+	}
+
+	/**
+	 * Deliver a message to a method handler, timed by the {@link MOMHandlerWatchdog watchdog} if any.
+	 */
+	private void deliver(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers,
+			MOMDecodeCache decodeCache) {
+		MOMHandlerWatchdog watchdog = this.watchdog;
+		if (watchdog == null) {
+			methodHandler.deliver(topic, data, headers, decodeCache, getDispatchFailureHandler());
+			return;
+		}
+
+		MOMHandlerWatchdog.Execution execution = watchdog.started(methodHandler);
+		try {
+			methodHandler.deliver(topic, data, headers, decodeCache, getDispatchFailureHandler());
+		} finally {
+			watchdog.finished(execution);
+		}
+	}
+
+	/**
+	 * Return the destination to subscribe to for a method handler mapped to a topic. Method handlers of a consumer
+	 * {@link com.excilys.spring.mom.annotation.MOMMapping#group() group} consume a queue of the MOM server with the
+	 * {@link MOMGroupStrategy#BROKER BROKER} strategy, named after the
+	 * {@link #setGroupDestinationPattern(String) group destination pattern}. Otherwise, the destination is the topic.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 * @return
+	 */
+	public String getDestination(String topic, MOMMethodHandler methodHandler) {
+		String group = methodHandler.getGroup();
+		if (group == null || group.length() == 0 || groupStrategy != MOMGroupStrategy.BROKER) {
+			return topic;
+		}
+
+		String topicName = topic.startsWith("/topic/") ? topic.substring("/topic/".length()) : topic;
+		return groupDestinationPattern.replace("{group}", group).replace("{topic}", topicName);
+	}
+
+	private boolean isPartitioned(MOMMethodHandler methodHandler) {
+		String group = methodHandler.getGroup();
+		return group != null && group.length() > 0 && groupStrategy == MOMGroupStrategy.PARTITION;
+	}
+
+	/**
+	 * Dispatch again the messages stored by the {@link MOMDeadLetterSink dead letter sink} to the method handlers they
+	 * failed to be dispatched to, if they are still subscribed. Replayed messages go through the same path as received
+	 * ones : selectors, consumer groups, conflation, batches, bulkheads and priority lanes apply. They aren't
+	 * deduplicated nor acknowledged again.
+	 * 
+	 * @return the number of replayed messages
+	 */
+	public int replayDeadLetters() {
+		if (deadLetterSink == null) {
+			return 0;
+		}
+
+		return deadLetterSink.replay(new MOMDeadLetterSink.ReplayHandler() {
+			@Override
+			public void replay(String topic, String handlerId, byte[] data, Map<String, String> headers) {
+				Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.get(topic);
+				if (methodHandlers == null) {
+					LOGGER.warn("Drop a dead letter of {} : there is no subscription anymore", topic);
+					return;
+				}
+
+				// The message has already been acknowledged, it mustn't release a redelivered message with the same id
+				Map<String, String> replayedHeaders = new HashMap<String, String>(headers);
+				replayedHeaders.remove(MOMAcknowledger.MESSAGE_ID_HEADER);
+
+				for (MOMMethodHandler methodHandler : methodHandlers) {
+					if (handlerId == null || handlerId.equals(MOMDeadLetterSink.getHandlerId(methodHandler))) {
+						dispatch(topic, methodHandler, data, replayedHeaders, null, null);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Create the dispatcher of a conflating or batching method handler. Its failures are reported to the
+	 * {@link #getDispatchFailureHandler() dispatch failure handler} of the client at the time they occur, so that a
+	 * dead letter sink set after the subscription is used.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 * @return the dispatcher, or null if the method handler is directly invoked
+	 */
+	protected MOMMessageDispatcher createMessageDispatcher(String topic, MOMMethodHandler methodHandler) {
+		if (methodHandler.isConflate()) {
+			return new MOMConflatingDispatcher(topic, methodHandler, getDispatchExecutor(), lazyFailureHandler);
+		} else if (methodHandler.isBatch()) {
+			return new MOMBatchingDispatcher(topic, methodHandler, getDispatchExecutor(), getScheduler(),
+					lazyFailureHandler);
+		}
+		return null;
+	}
+
+	/**
+	 * Return the headers to send to the MOM server with the subscription to a topic. If every method handler of the
+	 * topic has the same selector, and if the server can evaluate it as the client does (see
+	 * {@link MOMSelector#toBrokerSelector()}), it is sent within the <code>selector</code> header so that unselected
+	 * messages are filtered by the server. The
+	 * {@link MOMAckMode acknowledgement mode} of the topic is sent within the <code>ack</code> header, and its prefetch
+	 * within the <code>activemq.prefetchSize</code> and <code>prefetch-count</code> headers.
+	 * 
+	 * @param topic
+	 * @return
+	 */
+	protected Map<String, String> getSubscriptionHeaders(String topic) {
+		Map<String, String> headers = new HashMap<String, String>();
+		MOMAckMode ackMode = acknowledger != null ? acknowledger.getAckMode(topic) : MOMAckMode.AUTO;
+		if (ackMode != MOMAckMode.AUTO) {
+			headers.put("ack", ackMode.getHeaderValue());
+		}
+
+		int prefetch = acknowledger != null ? acknowledger.getPrefetch(topic) : 0;
+		if (prefetch > 0) {
+			// Understood by ActiveMQ and RabbitMQ respectively
+			headers.put("activemq.prefetchSize", String.valueOf(prefetch));
+			headers.put("prefetch-count", String.valueOf(prefetch));
+		}
+
+		Set<MOMMethodHandler> methodHandlers = topicMethodHandlers.get(topic);
+		if (methodHandlers == null || methodHandlers.isEmpty()) {
+			return headers;
+		}
+
+		String brokerSelector = null;
+		for (MOMMethodHandler methodHandler : methodHandlers) {
+			MOMSelector selector = methodHandler.getSelector();
+			String methodBrokerSelector = selector != null ? selector.toBrokerSelector() : null;
+			if (methodBrokerSelector == null
+					|| (brokerSelector != null && !brokerSelector.equals(methodBrokerSelector))) {
+				return headers;
+			}
+			brokerSelector = methodBrokerSelector;
+		}
+
+		headers.put("selector", brokerSelector);
+		return headers;
+	}
+
+	/**
+	 * Return the last message received on a specific topic, without any request to the MOM server. A
+	 * {@link MOMLastValueCache last value cache} has to be set.
+	 * 
+	 * @param topic
+	 * @return the last message, or null if none is retained
+	 */
+	public MOMLastValue getLast(String topic) {
+		return lastValueCache != null ? lastValueCache.get(topic) : null;
+	}
+
 	/**
 	 * Send a ping request to the MOM server, just to say 'Hey, I'm alive'.
 	 */
@@ -176,6 +818,314 @@ public abstract class MOMClient {
 		return topicMethodHandlers;
 	}
 
+	public MOMDeduplicationCache getDeduplicationCache() {
+		return deduplicationCache;
+	}
+
+	/**
+	 * Enable the deduplication of received messages. Disabled by default.
+	 * 
+	 * @param deduplicationCache
+	 */
+	public void setDeduplicationCache(MOMDeduplicationCache deduplicationCache) {
+		this.deduplicationCache = deduplicationCache;
+	}
+
+	public MOMLastValueCache getLastValueCache() {
+		return lastValueCache;
+	}
+
+	/**
+	 * Enable the retention of the last message received on each topic. Disabled by default.
+	 * 
+	 * @param lastValueCache
+	 */
+	public void setLastValueCache(MOMLastValueCache lastValueCache) {
+		this.lastValueCache = lastValueCache;
+	}
+
+	public MOMJournal getPublishJournal() {
+		return publishJournal;
+	}
+
+	/**
+	 * Set the journal where messages published while the client is disconnected are stored, to be published when the
+	 * client connects again. Without journal (default), these messages are dropped.
+	 * 
+	 * @param publishJournal
+	 */
+	public void setPublishJournal(MOMJournal publishJournal) {
+		this.publishJournal = publishJournal;
+	}
+
+	public MOMMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics notified of received and published messages, and of the parsing and invocation durations of the
+	 * method handlers. Without metrics (default), nothing is measured.
+	 * 
+	 * @param metrics
+	 * @see com.excilys.spring.mom.metrics.MOMMetricsRegistry
+	 */
+	public void setMetrics(MOMMetrics metrics) {
+		this.metrics = metrics;
+		for (Set<MOMMethodHandler> methodHandlers : topicMethodHandlers.values()) {
+			for (MOMMethodHandler methodHandler : methodHandlers) {
+				methodHandler.setMetrics(metrics);
+			}
+		}
+	}
+
+	public MOMTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Set the tracer stamping published messages and reporting the latencies of received messages to the
+	 * {@link #setMetrics(MOMMetrics) metrics}. Without tracer (default), messages aren't traced.
+	 * 
+	 * @param tracer
+	 */
+	public void setTracer(MOMTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	public MOMPublishThrottle getPublishThrottle() {
+		return publishThrottle;
+	}
+
+	/**
+	 * Set the throttle limiting the rate of published messages. Without throttle (default), messages are published as
+	 * fast as they come.
+	 * 
+	 * @param publishThrottle
+	 */
+	public void setPublishThrottle(MOMPublishThrottle publishThrottle) {
+		this.publishThrottle = publishThrottle;
+	}
+
+	public MOMGroupStrategy getGroupStrategy() {
+		return groupStrategy;
+	}
+
+	/**
+	 * Set how the messages are shared between the members of consumer groups. {@link MOMGroupStrategy#PARTITION
+	 * PARTITION} by default, as it works with any MOM server. Has to be set before method handlers subscribe.
+	 * 
+	 * @param groupStrategy
+	 */
+	public void setGroupStrategy(MOMGroupStrategy groupStrategy) {
+		this.groupStrategy = groupStrategy;
+	}
+
+	public String getGroupDestinationPattern() {
+		return groupDestinationPattern;
+	}
+
+	/**
+	 * Set the name of the queue consumed by a group with the {@link MOMGroupStrategy#BROKER BROKER} strategy, where
+	 * <code>{group}</code> stands for the group and <code>{topic}</code> for the topic without its
+	 * <code>/topic/</code> prefix. By default, <code>/queue/Consumer.{group}.{topic}</code>, the queues of the virtual
+	 * topics of ActiveMQ, whose names start with <code>VirtualTopic.</code>.
+	 * 
+	 * @param groupDestinationPattern
+	 */
+	public void setGroupDestinationPattern(String groupDestinationPattern) {
+		this.groupDestinationPattern = groupDestinationPattern;
+	}
+
+	/**
+	 * Return the membership of the client to the consumer groups partitioned on the client side, creating it on the
+	 * {@link #getScheduler() scheduler} if needed.
+	 * 
+	 * @return
+	 */
+	public synchronized MOMGroupMembership getGroupMembership() {
+		if (groupMembership == null) {
+			groupMembership = new MOMGroupMembership(this, getScheduler());
+		}
+		return groupMembership;
+	}
+
+	public MOMHandlerWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * Set the watchdog isolating the method handlers which become slow in bulkheads, so that they don't delay the other
+	 * topics. The watchdog has to be {@link MOMHandlerWatchdog#start() started}. Without watchdog (default), every
+	 * method handler is dispatched through the shared path.
+	 * 
+	 * @param watchdog
+	 */
+	public void setWatchdog(MOMHandlerWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	public MOMDeadLetterSink getDeadLetterSink() {
+		return deadLetterSink;
+	}
+
+	/**
+	 * Set the sink where messages which can't be parsed or whose method fails are stored. Without sink (default), these
+	 * messages are only logged.
+	 * 
+	 * @param deadLetterSink
+	 */
+	public void setDeadLetterSink(MOMDeadLetterSink deadLetterSink) {
+		this.deadLetterSink = deadLetterSink;
+	}
+
+	/**
+	 * @return the handler of the messages which can't be parsed or whose method fails
+	 */
+	protected MOMDispatchFailureHandler getDispatchFailureHandler() {
+		return deadLetterSink != null ? deadLetterSink : failureLogger;
+	}
+
+	/**
+	 * Return the executor used to invoke method handlers asynchronously. If none has been set, a cached thread pool of
+	 * daemon threads is created.
+	 * 
+	 * @return
+	 */
+	public synchronized Executor getDispatchExecutor() {
+		if (dispatchExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mom-dispatch-");
+			threadFactory.setDaemon(true);
+			dispatchExecutor = Executors.newCachedThreadPool(threadFactory);
+		}
+		return dispatchExecutor;
+	}
+
+	public synchronized void setDispatchExecutor(Executor dispatchExecutor) {
+		this.dispatchExecutor = dispatchExecutor;
+	}
+
+	/**
+	 * Return the scheduler used for delayed tasks, like timing the delivery of incomplete batches. Method handlers are
+	 * never invoked on it. If none has been set, a single daemon thread scheduler is created.
+	 * 
+	 * @return
+	 */
+	public synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mom-scheduler-");
+			threadFactory.setDaemon(true);
+			scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		}
+		return scheduler;
+	}
+
+	public synchronized void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Return the lanes through which messages are dispatched by priority, creating them on the
+	 * {@link #getDispatchExecutor() dispatch executor} if needed.
+	 * 
+	 * @return
+	 */
+	public synchronized MOMPriorityLanes getPriorityLanes() {
+		if (priorityLanes == null) {
+			priorityLanes = new MOMPriorityLanes(getDispatchExecutor());
+		}
+		return priorityLanes;
+	}
+
+	/**
+	 * Set the lanes through which messages are dispatched by priority. Without lanes (default), they are created when
+	 * a method handler with a priority other than {@link MOMPriority#NORMAL NORMAL} subscribes.
+	 * 
+	 * @param priorityLanes
+	 */
+	public synchronized void setPriorityLanes(MOMPriorityLanes priorityLanes) {
+		this.priorityLanes = priorityLanes;
+	}
+
+	/**
+	 * Return the tracker of the futures returned by asynchronous method handlers, creating it on the
+	 * {@link #getScheduler() scheduler} if needed.
+	 * 
+	 * @return
+	 */
+	public synchronized MOMFutureTracker getFutureTracker() {
+		if (futureTracker == null) {
+			futureTracker = new MOMFutureTracker(getScheduler());
+		}
+		return futureTracker;
+	}
+
+	public synchronized void setFutureTracker(MOMFutureTracker futureTracker) {
+		this.futureTracker = futureTracker;
+	}
+
+	/**
+	 * Return the acknowledger of the messages received on topics subscribed in a client
+	 * {@link MOMAckMode acknowledgement mode}, creating it on the {@link #getScheduler() scheduler} if needed.
+	 * 
+	 * @return
+	 */
+	public synchronized MOMAcknowledger getAcknowledger() {
+		if (acknowledger == null) {
+			acknowledger = new MOMAcknowledger(new MOMAcknowledger.Sender() {
+				@Override
+				public void acknowledge(String topic, String messageId) throws Exception {
+					MOMClient.this.acknowledge(topic, messageId);
+				}
+			}, getScheduler());
+
+			for (Set<MOMMethodHandler> methodHandlers : topicMethodHandlers.values()) {
+				for (MOMMethodHandler methodHandler : methodHandlers) {
+					methodHandler.setAcknowledger(acknowledger);
+				}
+			}
+		}
+		return acknowledger;
+	}
+
+	/**
+	 * Send the acknowledgement of a message to the MOM server. Sub-classes supporting client acknowledgement modes
+	 * have to override this method, which does nothing by default.
+	 * 
+	 * @param topic
+	 * @param messageId
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	protected void acknowledge(String topic, String messageId) throws NotConnectedException, SocketException {
+	}
+
+	/**
+	 * Send the acknowledgements of the handled messages now, before a subscription is replaced.
+	 */
+	protected void flushAcknowledgements() {
+		if (acknowledger != null) {
+			acknowledger.flush();
+		}
+	}
+
+	/**
+	 * Forget the messages not acknowledged yet, which the MOM server delivers again after a disconnection.
+	 */
+	protected void clearAcknowledgements() {
+		if (acknowledger != null) {
+			acknowledger.clear();
+		}
+	}
+
+	/**
+	 * Leave the consumer groups partitioned on the client side, before disconnecting.
+	 */
+	protected void leaveGroups() {
+		if (groupMembership != null) {
+			groupMembership.leave();
+		}
+	}
+
 	String getHostname() {
 		return hostname;
 	}
@@ -184,4 +1134,40 @@ public abstract class MOMClient {
 		return port;
 	}
 
+	/**
+	 * Delivery of a message to a method handler, queued in a priority lane or a bulkhead.
+	 */
+	private final class Delivery implements Runnable {
+
+		private final String topic;
+		private final MOMMethodHandler methodHandler;
+		private final byte[] data;
+		private final Map<String, String> headers;
+
+		Delivery(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers) {
+			this.topic = topic;
+			this.methodHandler = methodHandler;
+			this.data = data;
+			this.headers = headers;
+		}
+
+		@Override
+		public void run() {
+			deliver(topic, methodHandler, data, headers, null);
+		}
+	}
+
+	/**
+	 * Report the failures to the {@link MOMClient#getDispatchFailureHandler() dispatch failure handler} of the client
+	 * when they occur, rather than when the reporting object is created.
+	 */
+	private final class LazyDispatchFailureHandler implements MOMDispatchFailureHandler {
+
+		@Override
+		public void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data,
+				Map<String, String> headers, Throwable cause) {
+			getDispatchFailureHandler().dispatchFailed(topic, methodHandler, data, headers, cause);
+		}
+	}
+
 }
@@ -17,13 +17,32 @@ package com.excilys.spring.mom.client;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.core.GenericCollectionTypeResolver;
+import org.springframework.core.MethodParameter;
 
+import com.excilys.spring.mom.ack.MOMAcknowledger;
+import com.excilys.spring.mom.annotation.MOMAckMode;
 import com.excilys.spring.mom.annotation.MOMAttribute;
+import com.excilys.spring.mom.annotation.MOMMapping;
 import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.annotation.MOMPriority;
+import com.excilys.spring.mom.dispatch.MOMDispatchFailureHandler;
+import com.excilys.spring.mom.dispatch.MOMFutureTracker;
+import com.excilys.spring.mom.metrics.MOMMetrics;
+import com.excilys.spring.mom.metrics.MOMTracer;
+import com.excilys.spring.mom.parser.MOMDecodeCache;
 import com.excilys.spring.mom.parser.MOMResponseBinaryParser;
 import com.excilys.spring.mom.parser.MOMResponseJSONAttributesParser;
 import com.excilys.spring.mom.parser.MOMResponseJSONParser;
@@ -31,6 +50,7 @@ import com.excilys.spring.mom.parser.MOMResponseParser;
 import com.excilys.spring.mom.parser.MOMResponseParsingException;
 import com.excilys.spring.mom.parser.MOMResponseStringParser;
 import com.excilys.spring.mom.parser.ParameterInfo;
+import com.excilys.spring.mom.selector.MOMSelector;
 
 /**
  * Encapsulates information about a bean method consisting of a {@linkplain #getMethod() method} and an
@@ -46,16 +66,110 @@ public class MOMMethodHandler implements Comparable<MOMMethodHandler> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(MOMMethodHandler.class);
 
+	/**
+	 * Default maximum number of messages handled at the same time by an asynchronous method.
+	 */
+	public static final int DEFAULT_MAX_OUTSTANDING = 1000;
+
 	private final Method method;
 	private final Object instance;
 	private final MOMMappingConsum consum;
 	private final MOMResponseParser parser;
+	private final boolean conflate;
+	private final String conflationKey;
+	private final MOMSelector selector;
+	private final int batchSize;
+	private final long maxWaitMs;
+	private final MOMPriority priority;
+	private final Semaphore outstanding;
+	private final MOMAckMode ackMode;
+	private final int prefetch;
+	private final String group;
+	private volatile MOMMetrics metrics;
+	private volatile MOMFutureTracker futureTracker;
+	private volatile MOMAcknowledger acknowledger;
 
 	public MOMMethodHandler(Method method, Object instance, MOMMappingConsum consum) {
 		this.method = method;
 		this.instance = instance;
 		this.consum = consum;
 		this.parser = getParser(consum);
+		this.conflate = false;
+		this.conflationKey = "";
+		this.selector = null;
+		this.batchSize = 1;
+		this.maxWaitMs = 0;
+		this.priority = MOMPriority.NORMAL;
+		this.outstanding = createOutstandingLimit(method, DEFAULT_MAX_OUTSTANDING);
+		this.ackMode = MOMAckMode.AUTO;
+		this.prefetch = 0;
+		this.group = "";
+	}
+
+	/**
+	 * Create a method handler parsing messages with a given {@code parser}, instead of one chosen according to the
+	 * parameters of the method.
+	 *
+	 * @param method
+	 * @param instance
+	 * @param consum
+	 * @param parser
+	 */
+	public MOMMethodHandler(Method method, Object instance, MOMMappingConsum consum, MOMResponseParser parser) {
+		this.method = method;
+		this.instance = instance;
+		this.consum = consum;
+		this.parser = parser;
+		this.conflate = false;
+		this.conflationKey = "";
+		this.selector = null;
+		this.batchSize = 1;
+		this.maxWaitMs = 0;
+		this.priority = MOMPriority.NORMAL;
+		this.outstanding = createOutstandingLimit(method, DEFAULT_MAX_OUTSTANDING);
+		this.ackMode = MOMAckMode.AUTO;
+		this.prefetch = 0;
+		this.group = "";
+	}
+
+	/**
+	 * Create a method handler configured according to the {@link MOMMapping @MOMMapping} annotation of the method.
+	 * 
+	 * @param method
+	 * @param instance
+	 * @param mapping
+	 */
+	public MOMMethodHandler(Method method, Object instance, MOMMapping mapping) {
+		this.method = method;
+		this.instance = instance;
+		this.consum = mapping.consumes();
+		this.batchSize = isBatchMethod(method) ? Math.max(1, mapping.batchSize()) : 1;
+		this.maxWaitMs = mapping.maxWaitMs();
+		this.priority = mapping.priority();
+		this.parser = isBatch() ? getBatchElementParser(consum) : getParser(consum);
+		this.conflate = mapping.conflate();
+		this.conflationKey = mapping.conflationKey();
+		this.selector = mapping.selector().length() > 0 ? MOMSelector.compile(mapping.selector()) : null;
+		this.outstanding = createOutstandingLimit(method, mapping.maxOutstanding());
+		this.ackMode = mapping.ackMode();
+		this.prefetch = Math.max(0, mapping.prefetch());
+		this.group = mapping.group();
+
+		if (conflate && isBatch()) {
+			throw new IllegalArgumentException("The method '" + method + "' can't both conflate and batch messages");
+		}
+	}
+
+	/**
+	 * Check if a received message has to be dispatched to the method, according to the
+	 * {@link MOMMapping#selector() selector}. The message isn't parsed.
+	 * 
+	 * @param data
+	 * @param headers
+	 * @return true if there is no selector or if the message matches it
+	 */
+	public boolean accepts(byte[] data, Map<String, String> headers) {
+		return selector == null || selector.matches(data, headers);
 	}
 
 	/**
@@ -71,13 +185,355 @@ public class MOMMethodHandler implements Comparable<MOMMethodHandler> {
 			InvocationTargetException {
 		try {
 			Object[] parsedData = parser.parse(data);
-			return method.invoke(instance, parsedData);
+			return invokeParsed(parsedData);
 		} catch (MOMResponseParsingException e) {
 			LOGGER.error("Can't invoke the MOM method", e);
 		}
 		return null;
 	}
 
+	/**
+	 * Invoke the mapped method with data received by the MOMClient, sharing the parsing results with the other method
+	 * handlers the data is dispatched to.
+	 * 
+	 * @param decodeCache
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 * @throws InvocationTargetException
+	 * @see MOMDecodeCache
+	 */
+	public Object invoke(MOMDecodeCache decodeCache) throws IllegalArgumentException, IllegalAccessException,
+			InvocationTargetException {
+		try {
+			Object[] parsedData = decodeCache.parse(parser);
+			return invokeParsed(parsedData);
+		} catch (MOMResponseParsingException e) {
+			LOGGER.error("Can't invoke the MOM method", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Parse a message received on {@code topic} and invoke the mapped method with it. Unlike {@link #invoke(byte[])},
+	 * parsing and invocation failures are reported to {@code failureHandler}. The {@link MOMTracer trace id} of the
+	 * message, if any, is put in the logging MDC during the invocation.
+	 * <p/>
+	 * If the method {@link #isAsync() returns a future}, the message is handled once the future completes, and a failed
+	 * future is reported to {@code failureHandler} too. Once {@link MOMMapping#maxOutstanding()} messages are
+	 * outstanding, the calling thread waits for one of them to complete before invoking the method.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @param headers
+	 * @param decodeCache
+	 *            shared with the other method handlers the message is dispatched to, may be null
+	 * @param failureHandler
+	 * @return the value returned by the method
+	 */
+	public Object deliver(String topic, byte[] data, Map<String, String> headers, MOMDecodeCache decodeCache,
+			MOMDispatchFailureHandler failureHandler) {
+		String traceId = headers != null ? headers.get(MOMTracer.TRACE_ID_HEADER) : null;
+		if (traceId == null) {
+			return deliverTraced(topic, data, headers, decodeCache, failureHandler);
+		}
+
+		MDC.put(MOMTracer.MDC_TRACE_ID, traceId);
+		try {
+			return deliverTraced(topic, data, headers, decodeCache, failureHandler);
+		} finally {
+			MDC.remove(MOMTracer.MDC_TRACE_ID);
+		}
+	}
+
+	private Object deliverTraced(String topic, byte[] data, Map<String, String> headers, MOMDecodeCache decodeCache,
+			MOMDispatchFailureHandler failureHandler) {
+		MOMMetrics metrics = this.metrics;
+		long start = metrics != null ? System.nanoTime() : 0;
+
+		Object[] parsedData;
+		try {
+			parsedData = decodeCache != null ? decodeCache.parse(parser) : parser.parse(data);
+		} catch (Exception e) {
+			if (metrics != null) {
+				metrics.messageParsed(topic, this, System.nanoTime() - start, false);
+			}
+			failureHandler.dispatchFailed(topic, this, data, headers, e);
+			acknowledge(topic, headers);
+			return null;
+		}
+
+		if (metrics != null) {
+			long parsed = System.nanoTime();
+			metrics.messageParsed(topic, this, parsed - start, true);
+			start = parsed;
+		}
+
+		MOMFutureTracker futureTracker = this.futureTracker;
+		boolean async = outstanding != null && futureTracker != null;
+		if (async && !acquireOutstanding()) {
+			// Not acknowledged, the message is redelivered if the acknowledgement mode allows it
+			failureHandler.dispatchFailed(topic, this, data, headers, outstandingWaitInterrupted());
+			return null;
+		}
+
+		boolean tracked = false;
+		try {
+			Object result = invokeParsed(parsedData);
+			if (async && result != null) {
+				track(futureTracker, result, topic, data, headers, failureHandler, metrics, start);
+				tracked = true;
+			} else if (metrics != null) {
+				metrics.methodInvoked(topic, this, System.nanoTime() - start, true);
+			}
+			return result;
+		} catch (Exception e) {
+			if (metrics != null) {
+				metrics.methodInvoked(topic, this, System.nanoTime() - start, false);
+			}
+			Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+			failureHandler.dispatchFailed(topic, this, data, headers, cause);
+		} finally {
+			if (!tracked) {
+				if (async) {
+					outstanding.release();
+				}
+				handled(topic, headers, metrics);
+				acknowledge(topic, headers);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Complete the delivery of a message once the future returned by the method completes : the invocation is measured
+	 * up to the completion, and a failed future is reported to {@code failureHandler}.
+	 */
+	private void track(MOMFutureTracker futureTracker, Object future, final String topic, final byte[] data,
+			final Map<String, String> headers, final MOMDispatchFailureHandler failureHandler,
+			final MOMMetrics metrics, final long start) {
+		futureTracker.track(future, new MOMFutureTracker.Callback() {
+			@Override
+			public void completed(Throwable failure) {
+				try {
+					if (metrics != null) {
+						metrics.methodInvoked(topic, MOMMethodHandler.this, System.nanoTime() - start, failure == null);
+					}
+					if (failure != null) {
+						failureHandler.dispatchFailed(topic, MOMMethodHandler.this, data, headers, failure);
+					}
+				} finally {
+					outstanding.release();
+					handled(topic, headers, metrics);
+					acknowledge(topic, headers);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Notify the {@link MOMAcknowledger acknowledger}, if any, that the method is done with a message received on
+	 * {@code topic}, whether it has been handled, has failed or has been skipped.
+	 * 
+	 * @param topic
+	 * @param headers
+	 */
+	public void acknowledge(String topic, Map<String, String> headers) {
+		MOMAcknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null) {
+			acknowledger.handled(topic, headers);
+		}
+	}
+
+	private void handled(String topic, Map<String, String> headers, MOMMetrics metrics) {
+		if (metrics != null) {
+			long sinceReceived = MOMTracer.sinceReceived(headers);
+			if (sinceReceived >= 0) {
+				metrics.messageHandled(topic, this, sinceReceived);
+			}
+		}
+	}
+
+	/**
+	 * Invoke the mapped batch method once with a batch of messages received on {@code topic}. Each message is parsed as
+	 * an element of the list or array parameter of the method. Messages which can't be parsed are left out of the batch
+	 * and reported to {@code failureHandler}. If the invocation fails, every message of the batch is reported.
+	 * <p/>
+	 * If the method {@link #isAsync() returns a future}, the messages of the batch are handled once the future
+	 * completes, and a failed future is reported for each of them. The whole batch counts as a single outstanding
+	 * message.
+	 * 
+	 * @param topic
+	 * @param batch
+	 *            data of the messages
+	 * @param batchHeaders
+	 *            headers of the messages
+	 * @param failureHandler
+	 * @return the value returned by the method
+	 * @see MOMMapping#batchSize()
+	 */
+	public Object deliverBatch(String topic, List<byte[]> batch, List<Map<String, String>> batchHeaders,
+			MOMDispatchFailureHandler failureHandler) {
+		MOMMetrics metrics = this.metrics;
+		List<Object> elements = new ArrayList<Object>(batch.size());
+		List<Integer> indexes = new ArrayList<Integer>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			long start = metrics != null ? System.nanoTime() : 0;
+			try {
+				elements.add(parser.parse(batch.get(i))[0]);
+				indexes.add(i);
+				if (metrics != null) {
+					metrics.messageParsed(topic, this, System.nanoTime() - start, true);
+				}
+			} catch (Exception e) {
+				if (metrics != null) {
+					metrics.messageParsed(topic, this, System.nanoTime() - start, false);
+				}
+				failureHandler.dispatchFailed(topic, this, batch.get(i), batchHeaders.get(i), e);
+			}
+		}
+
+		if (elements.isEmpty()) {
+			for (Map<String, String> headers : batchHeaders) {
+				acknowledge(topic, headers);
+			}
+			return null;
+		}
+
+		MOMFutureTracker futureTracker = this.futureTracker;
+		boolean async = outstanding != null && futureTracker != null;
+		if (async && !acquireOutstanding()) {
+			Throwable failure = outstandingWaitInterrupted();
+			for (Integer index : indexes) {
+				failureHandler.dispatchFailed(topic, this, batch.get(index), batchHeaders.get(index), failure);
+			}
+			return null;
+		}
+
+		long start = metrics != null ? System.nanoTime() : 0;
+		boolean tracked = false;
+		Throwable failure = null;
+		try {
+			Object result = invokeBatch(elements);
+			if (async && result != null) {
+				trackBatch(futureTracker, result, topic, batch, batchHeaders, indexes, failureHandler, metrics, start);
+				tracked = true;
+			} else if (metrics != null) {
+				metrics.methodInvoked(topic, this, System.nanoTime() - start, true);
+			}
+			return result;
+		} catch (Exception e) {
+			if (metrics != null) {
+				metrics.methodInvoked(topic, this, System.nanoTime() - start, false);
+			}
+			failure = e instanceof InvocationTargetException ? e.getCause() : e;
+		} finally {
+			if (!tracked) {
+				if (async) {
+					outstanding.release();
+				}
+				batchHandled(topic, batch, batchHeaders, indexes, failure, failureHandler, metrics);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Complete the delivery of a batch once the future returned by the method completes.
+	 */
+	private void trackBatch(MOMFutureTracker futureTracker, Object future, final String topic,
+			final List<byte[]> batch, final List<Map<String, String>> batchHeaders, final List<Integer> indexes,
+			final MOMDispatchFailureHandler failureHandler, final MOMMetrics metrics, final long start) {
+		futureTracker.track(future, new MOMFutureTracker.Callback() {
+			@Override
+			public void completed(Throwable failure) {
+				try {
+					if (metrics != null) {
+						metrics.methodInvoked(topic, MOMMethodHandler.this, System.nanoTime() - start, failure == null);
+					}
+				} finally {
+					outstanding.release();
+					batchHandled(topic, batch, batchHeaders, indexes, failure, failureHandler, metrics);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Report the failure, if any, of the parsed messages of a batch, then acknowledge every message of the batch.
+	 */
+	private void batchHandled(String topic, List<byte[]> batch, List<Map<String, String>> batchHeaders,
+			List<Integer> indexes, Throwable failure, MOMDispatchFailureHandler failureHandler, MOMMetrics metrics) {
+		try {
+			for (Integer index : indexes) {
+				if (failure != null) {
+					failureHandler.dispatchFailed(topic, this, batch.get(index), batchHeaders.get(index), failure);
+				}
+				handled(topic, batchHeaders.get(index), metrics);
+			}
+		} finally {
+			for (Map<String, String> headers : batchHeaders) {
+				acknowledge(topic, headers);
+			}
+		}
+	}
+
+	/**
+	 * Wait for the number of outstanding messages to fall under {@link MOMMapping#maxOutstanding()}. The dispatch thread
+	 * is held meanwhile, so the broker stops sending messages once the prefetch is exhausted.
+	 * 
+	 * @return false if the thread has been interrupted while waiting
+	 */
+	private boolean acquireOutstanding() {
+		try {
+			outstanding.acquire();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private RejectedExecutionException outstandingWaitInterrupted() {
+		return new RejectedExecutionException("Interrupted while waiting for the method '" + method
+				+ "' to complete one of its outstanding messages");
+	}
+
+	/**
+	 * Invoke the mapped batch method once with already parsed elements, bound to the list or array parameter of the
+	 * method.
+	 * 
+	 * @param elements
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 * @throws InvocationTargetException
+	 */
+	private Object invokeBatch(List<Object> elements) throws IllegalArgumentException, IllegalAccessException,
+			InvocationTargetException {
+
+		Class<?> parameterType = method.getParameterTypes()[0];
+		if (parameterType.isArray()) {
+			Object array = Array.newInstance(parameterType.getComponentType(), elements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				Array.set(array, i, elements.get(i));
+			}
+			return invokeParsed(new Object[] { array });
+		}
+		return invokeParsed(new Object[] { elements });
+	}
+
+	/**
+	 * Invoke the mapped method with already parsed data.
+	 * 
+	 * @param parsedData
+	 * @throws IllegalArgumentException
+	 * @throws IllegalAccessException
+	 * @throws InvocationTargetException
+	 */
+	public Object invokeParsed(Object[] parsedData) throws IllegalArgumentException, IllegalAccessException,
+			InvocationTargetException {
+		return method.invoke(instance, parsedData);
+	}
+
 	/**
 	 * Return an instance of <code>MOMResponseParser</code> according to the value of <code>consum</code> an method
 	 * parameters. The possible returned instance are the following :
@@ -147,6 +603,53 @@ public class MOMMethodHandler implements Comparable<MOMMethodHandler> {
 		return new MOMResponseStringParser();
 	}
 
+	/**
+	 * Limit the number of messages handled at the same time by a method returning a future.
+	 * 
+	 * @return the limit, or null if the method is synchronous
+	 */
+	private static Semaphore createOutstandingLimit(Method method, int maxOutstanding) {
+		if (method == null || !MOMFutureTracker.isAsync(method.getReturnType())) {
+			return null;
+		}
+		return new Semaphore(Math.max(1, maxOutstanding));
+	}
+
+	/**
+	 * A batch method has a single parameter, being an array, a {@link List} or a {@link Collection}, to which the
+	 * parsed elements are bound. A method taking an {@link Object} isn't a batch method.
+	 */
+	private static boolean isBatchMethod(Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		if (parameterTypes.length != 1) {
+			return false;
+		}
+
+		Class<?> parameterType = parameterTypes[0];
+		return parameterType.isArray() || parameterType == List.class || parameterType == Collection.class;
+	}
+
+	/**
+	 * Return an instance of <code>MOMResponseParser</code> parsing a single element of the list or array parameter of
+	 * a batch method, according to the value of <code>consum</code>.
+	 * 
+	 * @param consum
+	 */
+	private MOMResponseParser getBatchElementParser(MOMMappingConsum consum) {
+		switch (consum) {
+			case BINARY:
+				return new MOMResponseBinaryParser();
+			case JSON: {
+				Class<?> parameterType = method.getParameterTypes()[0];
+				Class<?> elementType = parameterType.isArray() ? parameterType.getComponentType()
+						: GenericCollectionTypeResolver.getCollectionParameterType(new MethodParameter(method, 0));
+				return new MOMResponseJSONParser(elementType != null ? elementType : Object.class);
+			}
+			default:
+				return new MOMResponseStringParser();
+		}
+	}
+
 	public Method getMethod() {
 		return method;
 	}
@@ -163,6 +666,106 @@ public class MOMMethodHandler implements Comparable<MOMMethodHandler> {
 		return parser;
 	}
 
+	public boolean isConflate() {
+		return conflate;
+	}
+
+	public String getConflationKey() {
+		return conflationKey;
+	}
+
+	public MOMSelector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * @return true if messages are delivered by batches to the method
+	 */
+	public boolean isBatch() {
+		return batchSize > 1;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getMaxWaitMs() {
+		return maxWaitMs;
+	}
+
+	public MOMPriority getPriority() {
+		return priority;
+	}
+
+	public MOMMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return true if the method returns a future, completing once the message is handled
+	 * @see MOMMapping#maxOutstanding()
+	 */
+	public boolean isAsync() {
+		return outstanding != null;
+	}
+
+	public MOMAckMode getAckMode() {
+		return ackMode;
+	}
+
+	/**
+	 * @return the maximum number of messages not handled yet, or 0 if unlimited
+	 * @see MOMMapping#prefetch()
+	 */
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * @return the consumer group of the method, or an empty string
+	 * @see MOMMapping#group()
+	 */
+	public String getGroup() {
+		return group;
+	}
+
+	public MOMAcknowledger getAcknowledger() {
+		return acknowledger;
+	}
+
+	/**
+	 * Set the acknowledger notified when the method is done with a message.
+	 * 
+	 * @param acknowledger
+	 */
+	public void setAcknowledger(MOMAcknowledger acknowledger) {
+		this.acknowledger = acknowledger;
+	}
+
+	public MOMFutureTracker getFutureTracker() {
+		return futureTracker;
+	}
+
+	/**
+	 * Set the tracker of the futures returned by an asynchronous method. Without tracker, the method is considered done
+	 * with a message as soon as it returns.
+	 * 
+	 * @param futureTracker
+	 */
+	public void setFutureTracker(MOMFutureTracker futureTracker) {
+		this.futureTracker = futureTracker;
+	}
+
+	/**
+	 * Set the metrics notified of the parsing and invocation durations when messages are
+	 * {@link #deliver(String, byte[], Map, MOMDecodeCache, MOMDispatchFailureHandler) delivered}.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MOMMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
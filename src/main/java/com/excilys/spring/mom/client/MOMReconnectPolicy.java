@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.client;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnection attempts : exponential backoff from {@link #setInitialDelayMs(long) initialDelayMs} up
+ * to {@link #setMaxDelayMs(long) maxDelayMs}, each delay being randomly shortened by up to {@link #setJitter(double)
+ * jitter} so that clients disconnected at the same time don't reconnect at the same time.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMReconnectPolicy {
+
+	private final Random random = new Random();
+	private long initialDelayMs = 20;
+	private long maxDelayMs = 30000;
+	private double multiplier = 2;
+	private double jitter = 0.5;
+
+	/**
+	 * @param attempt
+	 *            number of the attempt, starting from 1
+	 * @return the delay before the attempt, in milliseconds
+	 */
+	public long getDelayMs(int attempt) {
+		double delay = initialDelayMs * Math.pow(multiplier, Math.max(0, attempt - 1));
+		delay = Math.min(delay, maxDelayMs);
+		return (long) (delay * (1 - jitter * random.nextDouble()));
+	}
+
+	public long getInitialDelayMs() {
+		return initialDelayMs;
+	}
+
+	public void setInitialDelayMs(long initialDelayMs) {
+		this.initialDelayMs = initialDelayMs;
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public void setMaxDelayMs(long maxDelayMs) {
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @param jitter
+	 *            between 0 (no jitter) and 1
+	 */
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.client.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.client.MOMClientListener;
+import com.excilys.spring.mom.metrics.MOMMetrics;
+import com.excilys.spring.mom.metrics.MOMTracer;
+
+/**
+ * A concrete sub-class of {@link MOMClient MOMClient} without MOM server : published messages are dispatched
+ * synchronously, on the publishing thread, to the method handlers subscribed to their topic in the same client.
+ * <p/>
+ * Useful for tests and benchmarks, or to run an application without broker.
+ * 
+ * @author dvilleneuve
+ * @see MOMClient
+ */
+public class MOMClientInProcess extends MOMClient {
+
+	private volatile boolean isConnected = false;
+
+	public MOMClientInProcess() {
+		this(true);
+	}
+
+	public MOMClientInProcess(boolean autoconnect) {
+		super("localhost", 0, autoconnect);
+
+		if (autoconnect) {
+			connect();
+		}
+	}
+
+	@Override
+	public void connect() {
+		isConnected = true;
+
+		for (MOMClientListener clientListener : getClientListeners()) {
+			clientListener.connected();
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		if (!isConnected())
+			return;
+
+		leaveGroups();
+		isConnected = false;
+
+		for (MOMClientListener clientListener : getClientListeners()) {
+			clientListener.disconnected();
+		}
+	}
+
+	@Override
+	public void publish(String topic, String message) {
+		publish(topic, message.getBytes());
+	}
+
+	@Override
+	public void publish(String topic, byte[] data) {
+		if (throttle(topic, data))
+			return;
+		publishThrottled(topic, data);
+	}
+
+	@Override
+	protected void publishThrottled(String topic, byte[] data) {
+		if (!isConnected())
+			return;
+
+		MOMMetrics metrics = getMetrics();
+		if (metrics != null) {
+			metrics.messagePublished(topic, data.length);
+		}
+
+		MOMTracer tracer = getTracer();
+		Map<String, String> headers = tracer != null ? tracer.stamp() : null;
+		dispatch(topic, data, headers != null ? headers : Collections.<String, String> emptyMap());
+	}
+
+	@Override
+	public void ping() {
+	}
+
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+
+}
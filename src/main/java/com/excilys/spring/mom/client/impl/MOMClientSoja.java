@@ -15,10 +15,21 @@
  */
 package com.excilys.spring.mom.client.impl;
 
+import java.io.IOException;
 import java.net.SocketException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.excilys.soja.client.StompClient;
 import com.excilys.soja.client.events.StompClientListener;
@@ -27,6 +38,10 @@ import com.excilys.soja.client.exception.NotConnectedException;
 import com.excilys.spring.mom.client.MOMClient;
 import com.excilys.spring.mom.client.MOMClientListener;
 import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.MOMReconnectPolicy;
+import com.excilys.spring.mom.journal.MOMJournal;
+import com.excilys.spring.mom.metrics.MOMMetrics;
+import com.excilys.spring.mom.metrics.MOMTracer;
 
 /**
  * A concrete sub-class of {@link MOMClient MOMClient} for the <a
@@ -37,12 +52,44 @@ import com.excilys.spring.mom.client.MOMMethodHandler;
  */
 public class MOMClientSoja extends MOMClient {
 
+	/**
+	 * Topic on which every client sends its heartbeats, and only receives its own ones
+	 */
+	static final String HEARTBEAT_TOPIC = "/topic/spring-mom.heartbeat";
+
+	/**
+	 * Header identifying the client which sent a heartbeat
+	 */
+	static final String CLIENT_ID_HEADER = "spring-mom-client-id";
+
 	private final String username;
 	private final String password;
 	private final StompClient client;
 	private final Map<String, Long> subscriptionIds;
+	private final Map<String, Map<String, String>> subscriptionHeaders;
 	private final Map<String, StompTopicListener> stompTopicListeners;
-	private boolean isConnected = false;
+	private final Object journalLock = new Object();
+	private volatile boolean isConnected = false;
+	private boolean drainingJournal = false;
+	private final MOMReconnectPolicy journalRetryPolicy = new MOMReconnectPolicy();
+	private final AtomicInteger failedJournalDrains = new AtomicInteger();
+	private volatile MOMReconnectPolicy reconnectPolicy = new MOMReconnectPolicy();
+	private volatile boolean disconnecting = false;
+	private volatile boolean reconnecting = false;
+	private volatile long disconnectedAt;
+	private final AtomicInteger failedAttempts = new AtomicInteger();
+	private final AtomicLong reconnectAttempts = new AtomicLong();
+	private final AtomicLong reconnections = new AtomicLong();
+	private final AtomicLong totalOutageMs = new AtomicLong();
+	private volatile long lastOutageMs;
+	private final StompClientInternalListener clientListener;
+	private final String clientId;
+	private long heartbeatIntervalMs = 5000;
+	private long readTimeoutMs = 15000;
+	private ScheduledFuture<?> heartbeatTask;
+	private ScheduledExecutorService connectionScheduler;
+	private volatile long lastReadAt;
+	private final AtomicLong deadConnections = new AtomicLong();
 
 	/**
 	 * Create an instance of MOMClientStomp for a specific {@code hostname} and {@code port}, which will auto-connect to
@@ -72,12 +119,23 @@ public class MOMClientSoja extends MOMClient {
 	 * @see MOMClient
 	 */
 	public MOMClientSoja(String hostname, int port, String username, String password, boolean autoconnect) {
+		this(hostname, port, username, password, autoconnect, new StompClient(hostname, port));
+	}
+
+	/**
+	 * Create an instance of MOMClientSoja using the given STOMP client.
+	 */
+	MOMClientSoja(String hostname, int port, String username, String password, boolean autoconnect,
+			StompClient client) {
 		super(hostname, port, autoconnect);
 		this.username = username;
 		this.password = password;
-		this.client = new StompClient(hostname, port);
-		this.client.addListener(new StompClientInternalListener());
+		this.client = client;
+		this.clientListener = new StompClientInternalListener();
+		this.client.addListener(clientListener);
+		this.clientId = UUID.randomUUID().toString();
 		this.subscriptionIds = new HashMap<String, Long>();
+		this.subscriptionHeaders = new HashMap<String, Map<String, String>>();
 		this.stompTopicListeners = new HashMap<String, StompTopicListener>();
 
 		if (autoconnect) {
@@ -85,8 +143,14 @@ public class MOMClientSoja extends MOMClient {
 		}
 	}
 
+	/**
+	 * Connect to the STOMP server. If the connection fails and a {@link #setReconnectPolicy(MOMReconnectPolicy)
+	 * reconnect policy} is set, a new attempt is scheduled.
+	 */
 	@Override
 	public void connect() {
+		disconnecting = false;
+
 		LOGGER.info("Connecting to as {}...", username);
 		try {
 			client.connect(username, password);
@@ -96,43 +160,148 @@ public class MOMClientSoja extends MOMClient {
 			for (MOMClientListener clientListener : getClientListeners()) {
 				clientListener.connectionFailed();
 			}
+
+			scheduleReconnect();
 		}
 	}
 
 	@Override
 	public void disconnect() throws NotConnectedException, SocketException {
+		disconnecting = true;
 		if (!isConnected())
 			return;
 
 		LOGGER.info("Disconnect...");
+		leaveGroups();
+		stopHeartbeat();
 		client.disconnect();
 	}
 
-	@Override
-	public void subscribe(String topic, MOMMethodHandler momMethodHandler) throws NotConnectedException, SocketException {
-		if (!isConnected())
+	/**
+	 * Schedule a new connection attempt on the {@link #getConnectionScheduler() connection scheduler}, according to the
+	 * reconnect policy.
+	 */
+	private void scheduleReconnect() {
+		MOMReconnectPolicy policy = reconnectPolicy;
+		if (policy == null || disconnecting) {
 			return;
+		}
+
+		int attempt = failedAttempts.incrementAndGet();
+		long delay = policy.getDelayMs(attempt);
+		LOGGER.info("Reconnecting in {} ms (attempt {})", delay, attempt);
+
+		getConnectionScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (isConnected() || disconnecting) {
+					return;
+				}
+				reconnectAttempts.incrementAndGet();
+				connect();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
 
+	/**
+	 * Register a method handler and subscribe to its topic on the STOMP server. While the client is disconnected, the
+	 * method handler is only registered : its topic is subscribed when the client connects.
+	 */
+	@Override
+	public void subscribe(String topic, MOMMethodHandler momMethodHandler) throws NotConnectedException, SocketException {
 		super.subscribe(topic, momMethodHandler);
 
-		StompTopicListener stompTopicListener = stompTopicListeners.get(topic);
-		if (stompTopicListener == null) {
-			stompTopicListener = new StompTopicInternalListener(topic);
-			stompTopicListeners.put(topic, stompTopicListener);
+		if (isConnected()) {
+			sendSubscription(topic);
+		}
+	}
+
+	/**
+	 * Register all the method handlers, then send a single subscription per topic to the STOMP server.
+	 */
+	@Override
+	public void subscribe(Map<String, ? extends Collection<MOMMethodHandler>> methodHandlersByTopic)
+			throws NotConnectedException, SocketException {
+		for (Map.Entry<String, ? extends Collection<MOMMethodHandler>> entry : methodHandlersByTopic.entrySet()) {
+			for (MOMMethodHandler methodHandler : entry.getValue()) {
+				super.subscribe(entry.getKey(), methodHandler);
+			}
 		}
 
-		Long subscriptionId = client.subscribe(topic, stompTopicListener);
-		subscriptionIds.put(topic, subscriptionId);
+		if (isConnected()) {
+			sendSubscriptions(methodHandlersByTopic.keySet());
+		}
 	}
 
 	@Override
 	public void unsubscribe(String topic) throws NotConnectedException, SocketException {
-		if (!isConnected())
-			return;
-
 		super.unsubscribe(topic);
-		Long subscriptionId = subscriptionIds.get(topic);
-		client.unsubscribe(subscriptionId);
+
+		synchronized (subscriptionIds) {
+			subscriptionHeaders.remove(topic);
+			Long subscriptionId = subscriptionIds.remove(topic);
+			if (subscriptionId != null && isConnected()) {
+				client.unsubscribe(subscriptionId);
+			}
+		}
+	}
+
+	/**
+	 * Subscribe to each topic on the STOMP server, one after the other without waiting for the server.
+	 * 
+	 * @param topics
+	 */
+	private void sendSubscriptions(Collection<String> topics) {
+		int count = 0;
+		for (String topic : topics) {
+			try {
+				sendSubscription(topic);
+				count++;
+			} catch (Exception e) {
+				LOGGER.error("Can't subscribe to topic {}", topic, e);
+			}
+		}
+		LOGGER.info("Subscribed to {} topics", count);
+	}
+
+	/**
+	 * Subscribe to a topic on the STOMP server, with the headers matching all the method handlers of the topic. A
+	 * subscription with the same headers is kept as is. Otherwise, the new subscription is sent before the previous one
+	 * is cancelled, so that no message is lost : a message may be received twice while both are active, and then be
+	 * dropped by the {@link #setDeduplicationCache(com.excilys.spring.mom.cache.MOMDeduplicationCache) deduplication
+	 * cache}, if any.
+	 * 
+	 * @param topic
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	private void sendSubscription(String topic) throws NotConnectedException, SocketException {
+		synchronized (subscriptionIds) {
+			Map<String, String> headers = getSubscriptionHeaders(topic);
+			Long previousSubscriptionId = subscriptionIds.get(topic);
+			if (previousSubscriptionId != null && headers.equals(subscriptionHeaders.get(topic))) {
+				return;
+			}
+
+			StompTopicListener stompTopicListener = stompTopicListeners.get(topic);
+			if (stompTopicListener == null) {
+				stompTopicListener = new StompTopicInternalListener(topic);
+				stompTopicListeners.put(topic, stompTopicListener);
+			}
+
+			if (previousSubscriptionId != null) {
+				// Acknowledge the messages of the previous subscription while it is still active
+				flushAcknowledgements();
+			}
+
+			Long subscriptionId = client.subscribe(topic, stompTopicListener, headers);
+			subscriptionIds.put(topic, subscriptionId);
+			subscriptionHeaders.put(topic, headers);
+
+			if (previousSubscriptionId != null) {
+				client.unsubscribe(previousSubscriptionId);
+			}
+		}
 	}
 
 	/**
@@ -146,27 +315,292 @@ public class MOMClientSoja extends MOMClient {
 	 */
 	@Override
 	public void publish(String topic, String message) throws NotConnectedException, SocketException {
+		if (throttle(topic, message))
+			return;
+		if (journalize(topic, message.getBytes()))
+			return;
 		if (!isConnected())
 			return;
 
 		LOGGER.debug("Send to {} : {}...", topic, message);
-		client.send(topic, message);
+		send(topic, message);
+		published(topic, message.length());
 	}
 
 	@Override
 	public void publish(String topic, byte[] data) throws NotConnectedException, SocketException {
+		if (throttle(topic, data))
+			return;
+		publishThrottled(topic, data);
+	}
+
+	@Override
+	protected void publishThrottled(String topic, byte[] data) throws NotConnectedException, SocketException {
+		if (journalize(topic, data))
+			return;
 		if (!isConnected())
 			return;
 
 		LOGGER.debug("Send {} bytes to {}...", topic, data.length);
-		client.send(topic, new String(data));
+		send(topic, new String(data));
+		published(topic, data.length);
+	}
+
+	/**
+	 * Send a message to the STOMP server, stamped by the {@link #getTracer() tracer} if any.
+	 */
+	private void send(String topic, String message) throws NotConnectedException, SocketException {
+		MOMTracer tracer = getTracer();
+		Map<String, String> headers = tracer != null ? tracer.stamp() : null;
+		if (headers != null) {
+			client.send(topic, message, headers);
+		} else {
+			client.send(topic, message);
+		}
+	}
+
+	/**
+	 * Send an ACK frame for a message received on a topic subscribed in a client acknowledgement mode.
+	 * 
+	 * @param topic
+	 * @param messageId
+	 * @throws NotConnectedException
+	 * @throws SocketException
+	 */
+	@Override
+	protected void acknowledge(String topic, String messageId) throws NotConnectedException, SocketException {
+		if (!isConnected())
+			return;
+
+		client.ack(messageId);
+	}
+
+	private void published(String topic, int size) {
+		MOMMetrics metrics = getMetrics();
+		if (metrics != null) {
+			metrics.messagePublished(topic, size);
+		}
+	}
+
+	/**
+	 * Append a message to the {@link #getPublishJournal() publish journal}, if any, while the client is disconnected or
+	 * while the journal is drained, so that messages are published in order.
+	 * 
+	 * @param topic
+	 * @param data
+	 * @return true if the message has been handled by the journal
+	 */
+	private boolean journalize(String topic, byte[] data) {
+		MOMJournal journal = getPublishJournal();
+		if (journal == null) {
+			return false;
+		}
+
+		synchronized (journalLock) {
+			if (isConnected() && !drainingJournal) {
+				return false;
+			}
+
+			try {
+				if (!journal.append(topic, null, data)) {
+					LOGGER.warn("The publish journal is full, drop the message sent to {}", topic);
+				}
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Drop the message of {} bytes sent to {} : it's larger than the segments of the publish "
+						+ "journal", data.length, topic);
+			} catch (IOException e) {
+				LOGGER.error("Can't append the message sent to " + topic + " to the publish journal", e);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Start to drain the {@link #getPublishJournal() publish journal} if it has pending messages. From now on, newly
+	 * published messages are journalized until the drain ends.
+	 * 
+	 * @return true if the drain has to be performed by {@link #drainPublishJournal()}
+	 */
+	private boolean startPublishJournalDrain() {
+		MOMJournal journal = getPublishJournal();
+		if (journal == null) {
+			return false;
+		}
+
+		synchronized (journalLock) {
+			if (drainingJournal || !journal.hasPending()) {
+				return false;
+			}
+			drainingJournal = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Publish the messages of the {@link #getPublishJournal() publish journal}, in order, until it is empty or the
+	 * client is disconnected. If a message can't be sent while the client is still connected, the drain is retried
+	 * later, with an exponential backoff, instead of trying again and again.
+	 */
+	private void drainPublishJournal() {
+		MOMJournal journal = getPublishJournal();
+		final boolean[] sendFailed = new boolean[1];
+		int count = 0;
+		try {
+			while (true) {
+				count += journal.drain(new MOMJournal.RecordHandler() {
+					@Override
+					public boolean handle(String topic, Map<String, String> headers, byte[] data) {
+						if (!isConnected()) {
+							return false;
+						}
+						try {
+							send(topic, new String(data));
+							published(topic, data.length);
+							return true;
+						} catch (Exception e) {
+							LOGGER.warn("Can't publish the journalized message sent to {}", topic, e);
+							sendFailed[0] = true;
+							return false;
+						}
+					}
+				});
+
+				synchronized (journalLock) {
+					if (!journal.hasPending() || !isConnected()) {
+						drainingJournal = false;
+						failedJournalDrains.set(0);
+						break;
+					}
+					if (sendFailed[0]) {
+						// Still draining, so that newly published messages keep waiting behind the journalized ones
+						scheduleJournalDrain();
+						break;
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			synchronized (journalLock) {
+				drainingJournal = false;
+			}
+			throw e;
+		}
+
+		if (count > 0) {
+			LOGGER.info("Published {} messages from the publish journal", count);
+		}
+	}
+
+	/**
+	 * Retry to drain the publish journal after a delay growing with the number of failed drains.
+	 */
+	private void scheduleJournalDrain() {
+		long delay = journalRetryPolicy.getDelayMs(failedJournalDrains.incrementAndGet());
+		LOGGER.info("Retrying to publish the journalized messages in {} ms", delay);
+
+		getConnectionScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				getDispatchExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						drainPublishJournal();
+					}
+				});
+			}
+		}, delay, TimeUnit.MILLISECONDS);
 	}
 
 	/**
-	 * Send a ping request to the STOMP server just to say 'Hey, I'm alive'.
+	 * Send a ping request to the STOMP server just to say 'Hey, I'm alive'. The ping is a heartbeat message sent on the
+	 * heartbeat topic with the id of this client, so that its reception proves the connection is alive both ways.
 	 */
 	@Override
 	public void ping() {
+		if (!isConnected())
+			return;
+
+		try {
+			client.send(HEARTBEAT_TOPIC, String.valueOf(System.currentTimeMillis()),
+					Collections.singletonMap(CLIENT_ID_HEADER, clientId));
+		} catch (Exception e) {
+			LOGGER.debug("Can't send a heartbeat", e);
+		}
+	}
+
+	/**
+	 * Subscribe to the heartbeat topic from the {@link #getConnectionScheduler() connection scheduler}, not to block
+	 * the STOMP client, and schedule the heartbeat task, if it isn't already scheduled.
+	 */
+	private synchronized void startHeartbeat() {
+		lastReadAt = System.nanoTime();
+		if (heartbeatIntervalMs <= 0) {
+			return;
+		}
+
+		getConnectionScheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				subscribeHeartbeat();
+			}
+		});
+
+		if (heartbeatTask == null) {
+			heartbeatTask = getConnectionScheduler().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					heartbeat();
+				}
+			}, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Subscribe to the heartbeats of this client only : the MOM server filters them on the client id header if it
+	 * supports selectors, and the {@link StompHeartbeatListener listener} ignores the others otherwise.
+	 */
+	private void subscribeHeartbeat() {
+		if (!isConnected())
+			return;
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("selector", CLIENT_ID_HEADER + " = '" + clientId + "'");
+		try {
+			client.subscribe(HEARTBEAT_TOPIC, new StompHeartbeatListener(), headers);
+		} catch (Exception e) {
+			LOGGER.warn("Can't subscribe to the heartbeat topic", e);
+		}
+	}
+
+	private synchronized void stopHeartbeat() {
+		if (heartbeatTask != null) {
+			heartbeatTask.cancel(false);
+			heartbeatTask = null;
+		}
+	}
+
+	/**
+	 * Send a heartbeat and check that something has been received from the server within the read timeout. Otherwise,
+	 * the connection is considered dead : it is closed and the client listeners are notified of the disconnection.
+	 */
+	private void heartbeat() {
+		if (!isConnected())
+			return;
+
+		ping();
+
+		long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadAt);
+		if (idleMs > readTimeoutMs) {
+			LOGGER.warn("Nothing received from the server for {} ms, the connection is considered dead", idleMs);
+			deadConnections.incrementAndGet();
+
+			try {
+				client.disconnect();
+			} catch (Exception e) {
+				LOGGER.debug("Can't close the dead connection", e);
+			}
+			// The STOMP client may not notice the disconnection of a dead connection
+			clientListener.disconnected();
+		}
 	}
 
 	@Override
@@ -174,6 +608,110 @@ public class MOMClientSoja extends MOMClient {
 		return isConnected;
 	}
 
+	/**
+	 * Return the scheduler of the heartbeats and of the reconnection attempts. It's kept apart from the shared
+	 * {@link #getScheduler() scheduler}, so that a busy scheduler doesn't delay the heartbeats until the connection is
+	 * considered dead. If none has been set, a single daemon thread scheduler is created.
+	 * 
+	 * @return
+	 */
+	public synchronized ScheduledExecutorService getConnectionScheduler() {
+		if (connectionScheduler == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mom-connection-");
+			threadFactory.setDaemon(true);
+			connectionScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		}
+		return connectionScheduler;
+	}
+
+	public synchronized void setConnectionScheduler(ScheduledExecutorService connectionScheduler) {
+		this.connectionScheduler = connectionScheduler;
+	}
+
+	public long getHeartbeatIntervalMs() {
+		return heartbeatIntervalMs;
+	}
+
+	/**
+	 * Set the interval between two heartbeats sent by the client to itself through the server. If 0, no heartbeat is
+	 * sent and dead connections aren't detected. Applied on the next connection.
+	 * 
+	 * @param heartbeatIntervalMs
+	 */
+	public synchronized void setHeartbeatIntervalMs(long heartbeatIntervalMs) {
+		this.heartbeatIntervalMs = heartbeatIntervalMs;
+	}
+
+	public long getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+
+	/**
+	 * Set the time without receiving anything from the server, heartbeats included, after which the connection is
+	 * considered dead.
+	 * 
+	 * @param readTimeoutMs
+	 */
+	public void setReadTimeoutMs(long readTimeoutMs) {
+		this.readTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * @return the number of connections closed because nothing was received within the read timeout
+	 */
+	public long getDeadConnections() {
+		return deadConnections.get();
+	}
+
+	public MOMReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
+	/**
+	 * Set the policy used to reconnect when the connection is lost or fails. If null, the client doesn't reconnect by
+	 * itself.
+	 * 
+	 * @param reconnectPolicy
+	 */
+	public void setReconnectPolicy(MOMReconnectPolicy reconnectPolicy) {
+		this.reconnectPolicy = reconnectPolicy;
+	}
+
+	/**
+	 * @return the number of connection attempts made by the reconnect policy
+	 */
+	public long getReconnectAttempts() {
+		return reconnectAttempts.get();
+	}
+
+	/**
+	 * @return the number of successful reconnections after a lost connection
+	 */
+	public long getReconnections() {
+		return reconnections.get();
+	}
+
+	/**
+	 * @return the duration of the last outage, in milliseconds
+	 */
+	public long getLastOutageMs() {
+		return lastOutageMs;
+	}
+
+	/**
+	 * @return the cumulated duration of the outages, in milliseconds
+	 */
+	public long getTotalOutageMs() {
+		return totalOutageMs.get();
+	}
+
+	/**
+	 * @return the duration of the current outage, in milliseconds, or 0 if the client isn't reconnecting
+	 */
+	public long getCurrentOutageMs() {
+		return reconnecting ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAt) : 0;
+	}
+
 	/**
 	 * Handle the STOMP events and dispatch them to the messaging listener according to the concerned topic.
 	 * 
@@ -190,16 +728,25 @@ public class MOMClientSoja extends MOMClient {
 
 		@Override
 		public void receivedMessage(String message, Map<String, String> userHeaders) {
-			Set<MOMMethodHandler> methodHandlers = getTopicMethodHandlers().get(topic);
-
-			for (MOMMethodHandler methodHandler : methodHandlers) {
-				if (methodHandler != null && methodHandler.getMethod() != null && methodHandler.getInstance() != null) {
-					try {
-						methodHandler.invoke(message.getBytes());
-					} catch (Exception e) {
-						LOGGER.error("Can't invoke method", e);
-					}
-				}
+			lastReadAt = System.nanoTime();
+			dispatch(topic, message.getBytes(), userHeaders);
+		}
+
+	}
+
+	/**
+	 * Record the reception of heartbeats sent by {@link MOMClientSoja#ping() ping()}. Heartbeats of other clients are
+	 * ignored.
+	 * 
+	 * @author dvilleneuve
+	 * 
+	 */
+	private final class StompHeartbeatListener implements StompTopicListener {
+
+		@Override
+		public void receivedMessage(String message, Map<String, String> userHeaders) {
+			if (userHeaders != null && clientId.equals(userHeaders.get(CLIENT_ID_HEADER))) {
+				lastReadAt = System.nanoTime();
 			}
 		}
 
@@ -216,19 +763,64 @@ public class MOMClientSoja extends MOMClient {
 		@Override
 		public void connected() {
 			isConnected = true;
+			startHeartbeat();
+			failedAttempts.set(0);
+
+			if (reconnecting) {
+				reconnecting = false;
+				reconnections.incrementAndGet();
+				lastOutageMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAt);
+				totalOutageMs.addAndGet(lastOutageMs);
+				LOGGER.info("Reconnected after {} ms", lastOutageMs);
+			}
 
 			for (MOMClientListener clientListener : getClientListeners()) {
 				clientListener.connected();
 			}
+
+			// Subscriptions are sent from another thread, not to block the STOMP client
+			getDispatchExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					sendSubscriptions(getTopicMethodHandlers().keySet());
+				}
+			});
+
+			if (startPublishJournalDrain()) {
+				getDispatchExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						drainPublishJournal();
+					}
+				});
+			}
 		}
 
 		@Override
 		public void disconnected() {
-			isConnected = false;
+			synchronized (this) {
+				if (!isConnected) {
+					return;
+				}
+				isConnected = false;
+			}
+
+			// Subscriptions are lost with the connection, unacknowledged messages will be delivered again
+			synchronized (subscriptionIds) {
+				subscriptionIds.clear();
+				subscriptionHeaders.clear();
+			}
+			clearAcknowledgements();
 
 			for (MOMClientListener clientListener : getClientListeners()) {
 				clientListener.disconnected();
 			}
+
+			if (!disconnecting && reconnectPolicy != null) {
+				disconnectedAt = System.nanoTime();
+				reconnecting = true;
+				scheduleReconnect();
+			}
 		}
 
 		@Override
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Dispatch messages to a batch {@link MOMMethodHandler MOMMethodHandler}, as configured by
+ * {@link com.excilys.spring.mom.annotation.MOMMapping#batchSize() @MOMMapping(batchSize = ...)}.
+ * <p/>
+ * Received messages are accumulated until the batch size is reached, or until the maximum wait time elapsed since the
+ * first message of the batch, and are then parsed and delivered in a single invocation. Batches are delivered one at a
+ * time, in the order they were filled. A full batch is delivered by the thread receiving its last message. The
+ * scheduler only times the maximum wait : a batch waiting for too long is delivered on the executor, so that the
+ * method never holds the scheduler thread.
+ *
+ * @author dvilleneuve
+ */
+public class MOMBatchingDispatcher implements MOMMessageDispatcher {
+
+	private final String topic;
+	private final MOMMethodHandler methodHandler;
+	private final Executor executor;
+	private final ScheduledExecutorService scheduler;
+	private final MOMDispatchFailureHandler failureHandler;
+	private List<byte[]> batch;
+	private List<Map<String, String>> batchHeaders;
+	private long batchSequence;
+	private ScheduledFuture<?> flushTask;
+
+	public MOMBatchingDispatcher(String topic, MOMMethodHandler methodHandler, Executor executor,
+			ScheduledExecutorService scheduler, MOMDispatchFailureHandler failureHandler) {
+		this.topic = topic;
+		this.methodHandler = methodHandler;
+		this.executor = executor;
+		this.scheduler = scheduler;
+		this.failureHandler = failureHandler;
+	}
+
+	@Override
+	public synchronized void offer(byte[] data, Map<String, String> headers) {
+		if (batch == null) {
+			batch = new ArrayList<byte[]>(methodHandler.getBatchSize());
+			batchHeaders = new ArrayList<Map<String, String>>(methodHandler.getBatchSize());
+			batchSequence++;
+			if (methodHandler.getMaxWaitMs() > 0) {
+				flushTask = scheduler.schedule(new FlushTimer(batchSequence), methodHandler.getMaxWaitMs(),
+						TimeUnit.MILLISECONDS);
+			}
+		}
+
+		batch.add(data);
+		batchHeaders.add(headers);
+
+		if (batch.size() >= methodHandler.getBatchSize()) {
+			flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush();
+	}
+
+	public MOMMethodHandler getMethodHandler() {
+		return methodHandler;
+	}
+
+	/**
+	 * Deliver the batch numbered {@code sequence}, unless it has already been delivered.
+	 */
+	private synchronized void flush(long sequence) {
+		if (batch != null && batchSequence == sequence) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		if (flushTask != null) {
+			flushTask.cancel(false);
+			flushTask = null;
+		}
+		if (batch == null) {
+			return;
+		}
+
+		List<byte[]> flushedBatch = batch;
+		List<Map<String, String>> flushedBatchHeaders = batchHeaders;
+		batch = null;
+		batchHeaders = null;
+
+		methodHandler.deliverBatch(topic, flushedBatch, flushedBatchHeaders, failureHandler);
+	}
+
+	/**
+	 * Hand the delivery of a batch over to the executor once its maximum wait time has elapsed.
+	 */
+	private final class FlushTimer implements Runnable {
+
+		private final long sequence;
+
+		private FlushTimer(long sequence) {
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						flush(sequence);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The executor is shut down : deliver the batch rather than leaving it unacknowledged
+				flush(sequence);
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Dispatch messages to a conflating {@link MOMMethodHandler MOMMethodHandler}, as configured by
+ * {@link com.excilys.spring.mom.annotation.MOMMapping#conflate() @MOMMapping(conflate = true)}.
+ * <p/>
+ * One pending slot is kept for each conflation key. A message received while the slot of its key is still pending
+ * replaces the previous one, which is then never parsed nor invoked. Pending slots are drained by a single task at a
+ * time on the given executor, so the method is never invoked concurrently and the keys are dispatched in the order
+ * they became pending.
+ *
+ * @author dvilleneuve
+ */
+public class MOMConflatingDispatcher implements MOMMessageDispatcher, Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMConflatingDispatcher.class);
+
+	private static final String TOPIC_KEY = "";
+
+	private final String topic;
+	private final MOMMethodHandler methodHandler;
+	private final Executor executor;
+	private final MOMDispatchFailureHandler failureHandler;
+	private final Map<String, Message> slots;
+	private final Queue<String> pendingKeys;
+	private final AtomicBoolean scheduled;
+	private final AtomicLong conflatedCount;
+
+	public MOMConflatingDispatcher(String topic, MOMMethodHandler methodHandler, Executor executor,
+			MOMDispatchFailureHandler failureHandler) {
+		this.topic = topic;
+		this.methodHandler = methodHandler;
+		this.executor = executor;
+		this.failureHandler = failureHandler;
+		this.slots = new ConcurrentHashMap<String, Message>();
+		this.pendingKeys = new ConcurrentLinkedQueue<String>();
+		this.scheduled = new AtomicBoolean();
+		this.conflatedCount = new AtomicLong();
+	}
+
+	/**
+	 * Put the message in the slot of its conflation key, overwriting the pending one if any, and schedule the dispatch.
+	 *
+	 * @param data
+	 * @param headers
+	 */
+	@Override
+	public void offer(byte[] data, Map<String, String> headers) {
+		String key = getKey(headers);
+
+		Message previous = slots.put(key, new Message(data, headers));
+		if (previous == null) {
+			pendingKeys.add(key);
+		} else {
+			conflatedCount.incrementAndGet();
+			methodHandler.acknowledge(topic, previous.headers);
+		}
+
+		schedule();
+	}
+
+	@Override
+	public void run() {
+		try {
+			String key;
+			while ((key = pendingKeys.poll()) != null) {
+				Message message = slots.remove(key);
+				if (message != null) {
+					methodHandler.deliver(topic, message.data, message.headers, null, failureHandler);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+		}
+
+		// A key may have been added after the last poll but before the flag was reset
+		if (!pendingKeys.isEmpty()) {
+			schedule();
+		}
+	}
+
+	@Override
+	public void close() {
+		// Pending slots are still dispatched by the scheduled task
+	}
+
+	/**
+	 * @return the number of messages overwritten before being dispatched
+	 */
+	public long getConflatedCount() {
+		return conflatedCount.get();
+	}
+
+	public MOMMethodHandler getMethodHandler() {
+		return methodHandler;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				LOGGER.error("Can't schedule the dispatch of conflated messages", e);
+			}
+		}
+	}
+
+	private String getKey(Map<String, String> headers) {
+		String keyHeader = methodHandler.getConflationKey();
+		if (keyHeader == null || keyHeader.length() == 0 || headers == null) {
+			return TOPIC_KEY;
+		}
+
+		String key = headers.get(keyHeader);
+		return key != null ? key : TOPIC_KEY;
+	}
+
+	private static final class Message {
+
+		private final byte[] data;
+		private final Map<String, String> headers;
+
+		Message(byte[] data, Map<String, String> headers) {
+			this.data = data;
+			this.headers = headers;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.Map;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Interface to implement with a concrete class to be notified when a received message can't be parsed or when the
+ * method it is dispatched to fails.
+ * 
+ * @author dvilleneuve
+ */
+public interface MOMDispatchFailureHandler {
+
+	/**
+	 * @param topic
+	 *            on which the message has been received
+	 * @param methodHandler
+	 *            the message was dispatched to
+	 * @param data
+	 *            of the message, as received
+	 * @param headers
+	 *            of the message
+	 * @param cause
+	 *            the parsing exception, or the exception thrown by the method
+	 */
+	void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers,
+			Throwable cause);
+
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Track the completion of the futures returned by asynchronous method handlers, without holding a thread for each of
+ * them. A <code>CompletionStage</code> notifies its completion through a callback, when running on Java 8 or later.
+ * A plain {@link Future} is polled on a scheduler, by a single task checking every pending future.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMFutureTracker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMFutureTracker.class);
+
+	// Resolved by reflection to stay compatible with Java 6
+	private static final Class<?> COMPLETION_STAGE = classForName("java.util.concurrent.CompletionStage");
+	private static final Class<?> COMPLETION_EXCEPTION = classForName("java.util.concurrent.CompletionException");
+	private static final Class<?> BI_CONSUMER = classForName("java.util.function.BiConsumer");
+	private static final Method WHEN_COMPLETE = methodOf(COMPLETION_STAGE, "whenComplete", BI_CONSUMER);
+
+	private final ScheduledExecutorService scheduler;
+	private final Queue<PendingFuture> pendingFutures;
+	private final AtomicBoolean polling;
+	private final AtomicInteger outstanding;
+	private final Runnable pollTask;
+	private volatile long pollIntervalMs;
+
+	public MOMFutureTracker(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+		this.pendingFutures = new ConcurrentLinkedQueue<PendingFuture>();
+		this.polling = new AtomicBoolean();
+		this.outstanding = new AtomicInteger();
+		this.pollIntervalMs = 5;
+		this.pollTask = new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		};
+	}
+
+	/**
+	 * Completion callback of a tracked future.
+	 */
+	public interface Callback {
+
+		/**
+		 * @param failure
+		 *            the cause of the failure of the future, or null if it succeeded
+		 */
+		void completed(Throwable failure);
+	}
+
+	/**
+	 * Check if a method returning a {@code type} is asynchronous.
+	 * 
+	 * @param type
+	 * @return true for {@link Future futures} and <code>CompletionStage</code>s
+	 */
+	public static boolean isAsync(Class<?> type) {
+		return Future.class.isAssignableFrom(type)
+				|| (COMPLETION_STAGE != null && COMPLETION_STAGE.isAssignableFrom(type));
+	}
+
+	/**
+	 * Invoke {@code callback} once {@code future} completes. Objects which are neither a <code>CompletionStage</code>
+	 * nor a {@link Future} are considered complete.
+	 * 
+	 * @param future
+	 * @param callback
+	 */
+	public void track(Object future, Callback callback) {
+		outstanding.incrementAndGet();
+
+		if (WHEN_COMPLETE != null && COMPLETION_STAGE.isInstance(future)) {
+			try {
+				Object biConsumer = Proxy.newProxyInstance(BI_CONSUMER.getClassLoader(), new Class<?>[] { BI_CONSUMER },
+						new WhenComplete(callback));
+				WHEN_COMPLETE.invoke(future, biConsumer);
+				return;
+			} catch (Exception e) {
+				LOGGER.warn("Can't register a completion callback, poll the future instead", e);
+			}
+		}
+
+		if (future instanceof Future && !((Future<?>) future).isDone()) {
+			pendingFutures.offer(new PendingFuture((Future<?>) future, callback));
+			schedulePoll();
+			return;
+		}
+
+		complete(future, callback);
+	}
+
+	private void schedulePoll() {
+		if (polling.compareAndSet(false, true)) {
+			scheduler.schedule(pollTask, pollIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void poll() {
+		try {
+			Iterator<PendingFuture> iterator = pendingFutures.iterator();
+			while (iterator.hasNext()) {
+				PendingFuture pendingFuture = iterator.next();
+				if (pendingFuture.future.isDone()) {
+					iterator.remove();
+					complete(pendingFuture.future, pendingFuture.callback);
+				}
+			}
+		} finally {
+			polling.set(false);
+			if (!pendingFutures.isEmpty()) {
+				schedulePoll();
+			}
+		}
+	}
+
+	/**
+	 * Invoke the callback of a completed future.
+	 */
+	private void complete(Object future, Callback callback) {
+		Throwable failure = null;
+		if (future instanceof Future) {
+			try {
+				((Future<?>) future).get();
+			} catch (ExecutionException e) {
+				failure = e.getCause();
+			} catch (CancellationException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = e;
+			}
+		}
+		completed(callback, failure);
+	}
+
+	private void completed(Callback callback, Throwable failure) {
+		outstanding.decrementAndGet();
+		try {
+			callback.completed(failure);
+		} catch (RuntimeException e) {
+			LOGGER.error("The completion callback of a future failed", e);
+		}
+	}
+
+	/**
+	 * @return the number of futures not completed yet
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	public long getPollIntervalMs() {
+		return pollIntervalMs;
+	}
+
+	/**
+	 * Set the interval between two checks of the plain futures, 5 ms by default.
+	 * 
+	 * @param pollIntervalMs
+	 */
+	public void setPollIntervalMs(long pollIntervalMs) {
+		this.pollIntervalMs = Math.max(1, pollIntervalMs);
+	}
+
+	private static Class<?> classForName(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Method methodOf(Class<?> type, String name, Class<?> parameterType) {
+		if (type == null || parameterType == null) {
+			return null;
+		}
+
+		try {
+			return type.getMethod(name, parameterType);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Implementation of the <code>BiConsumer</code> given to <code>CompletionStage.whenComplete</code>.
+	 */
+	private final class WhenComplete implements InvocationHandler {
+
+		private final Callback callback;
+
+		WhenComplete(Callback callback) {
+			this.callback = callback;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				} else if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				return "WhenComplete(" + callback + ")";
+			}
+
+			if (!"accept".equals(method.getName())) {
+				throw new UnsupportedOperationException(method.toString());
+			}
+
+			// accept(result, failure)
+			Throwable failure = (Throwable) args[1];
+			if (failure != null && COMPLETION_EXCEPTION != null && COMPLETION_EXCEPTION.isInstance(failure)
+					&& failure.getCause() != null) {
+				failure = failure.getCause();
+			}
+			completed(callback, failure);
+			return null;
+		}
+	}
+
+	private static final class PendingFuture {
+
+		private final Future<?> future;
+		private final Callback callback;
+
+		PendingFuture(Future<?> future, Callback callback) {
+			this.future = future;
+			this.callback = callback;
+		}
+	}
+}
@@ -0,0 +1,447 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Track the execution time of method handlers and isolate the slow ones, so that a method stuck on a downstream
+ * system doesn't delay the other topics of the client.
+ * <p/>
+ * An execution is slow when it lasts more than {@link #setSlowThresholdMs(long) slowThresholdMs}. Every
+ * {@link #setCheckIntervalMs(long) checkIntervalMs}, a method handler with a slow execution, finished or still
+ * running, is moved to its own bulkhead : a single thread with a bounded queue, so that the messages are still handled
+ * one at a time and in order. When the queue is full, the receiving thread waits for room. The stack trace of the thread running its slowest execution is logged. Once no execution
+ * has been slow for {@link #setRecoveryChecks(int) recoveryChecks} consecutive checks, the method handler returns to
+ * the shared dispatch path, as soon as the messages queued in its bulkhead have been handled.
+ * {@link MOMWatchdogListener Listeners} are notified of each transition.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMHandlerWatchdog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMHandlerWatchdog.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<MOMMethodHandler, HandlerState> handlerStates;
+	private final List<MOMWatchdogListener> listeners;
+	private volatile long slowThresholdNanos;
+	private long checkIntervalMs;
+	private int recoveryChecks;
+	private int bulkheadQueueSize;
+	private ScheduledFuture<?> checkTask;
+
+	public MOMHandlerWatchdog(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+		this.handlerStates = new ConcurrentHashMap<MOMMethodHandler, HandlerState>();
+		this.listeners = new CopyOnWriteArrayList<MOMWatchdogListener>();
+		this.slowThresholdNanos = TimeUnit.SECONDS.toNanos(1);
+		this.checkIntervalMs = 1000;
+		this.recoveryChecks = 5;
+		this.bulkheadQueueSize = 1000;
+	}
+
+	/**
+	 * Start checking the method handlers periodically.
+	 */
+	public synchronized void start() {
+		if (checkTask == null) {
+			checkTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						check();
+					} catch (RuntimeException e) {
+						LOGGER.error("Can't check the method handlers", e);
+					}
+				}
+			}, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop checking the method handlers, and return the isolated ones to the shared dispatch path once their bulkhead
+	 * is drained.
+	 */
+	public synchronized void stop() {
+		if (checkTask != null) {
+			checkTask.cancel(false);
+			checkTask = null;
+		}
+
+		for (Map.Entry<MOMMethodHandler, HandlerState> entry : handlerStates.entrySet()) {
+			if (entry.getValue().bulkhead != null) {
+				restore(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Record the start of an execution of {@code methodHandler} by the current thread.
+	 * 
+	 * @param methodHandler
+	 * @return the execution, to be {@link #finished(Execution) finished}
+	 */
+	public Execution started(MOMMethodHandler methodHandler) {
+		HandlerState state = getState(methodHandler);
+		Execution execution = new Execution(state, Thread.currentThread(), System.nanoTime());
+		state.running.put(execution, Boolean.TRUE);
+		return execution;
+	}
+
+	/**
+	 * Record the end of an execution.
+	 * 
+	 * @param execution
+	 */
+	public void finished(Execution execution) {
+		HandlerState state = execution.state;
+		state.running.remove(execution);
+
+		long duration = System.nanoTime() - execution.startNanos;
+		long slowest;
+		while (duration > (slowest = state.slowestNanos.get())) {
+			if (state.slowestNanos.compareAndSet(slowest, duration)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Return the bulkhead to run the messages of {@code methodHandler} on. A method handler being restored keeps its
+	 * bulkhead until the messages queued in it have been handled, so that they aren't overtaken by the next ones.
+	 * 
+	 * @param methodHandler
+	 * @return the bulkhead of {@code methodHandler}, or null if it isn't isolated
+	 */
+	public Executor getBulkhead(MOMMethodHandler methodHandler) {
+		HandlerState state = handlerStates.get(methodHandler);
+		if (state == null) {
+			return null;
+		}
+
+		Bulkhead bulkhead = state.bulkhead;
+		if (bulkhead != null && bulkhead.restoring && bulkhead.isDrained()) {
+			switchToSharedPath(methodHandler, state, bulkhead);
+			return null;
+		}
+		return bulkhead;
+	}
+
+	/**
+	 * @param methodHandler
+	 * @return true if {@code methodHandler} is isolated in a bulkhead
+	 */
+	public boolean isIsolated(MOMMethodHandler methodHandler) {
+		return getBulkhead(methodHandler) != null;
+	}
+
+	/**
+	 * @return the method handlers isolated in a bulkhead
+	 */
+	public List<MOMMethodHandler> getIsolatedHandlers() {
+		List<MOMMethodHandler> isolatedHandlers = new ArrayList<MOMMethodHandler>();
+		for (MOMMethodHandler methodHandler : handlerStates.keySet()) {
+			if (isIsolated(methodHandler)) {
+				isolatedHandlers.add(methodHandler);
+			}
+		}
+		return isolatedHandlers;
+	}
+
+	/**
+	 * Isolate the method handlers with a slow execution since the previous check, and restore the isolated ones which
+	 * have recovered.
+	 */
+	public synchronized void check() {
+		long now = System.nanoTime();
+
+		for (Map.Entry<MOMMethodHandler, HandlerState> entry : handlerStates.entrySet()) {
+			HandlerState state = entry.getValue();
+
+			long slowestNanos = state.slowestNanos.getAndSet(0);
+			Execution slowestRunning = null;
+			for (Execution execution : state.running.keySet()) {
+				if (slowestRunning == null || execution.startNanos < slowestRunning.startNanos) {
+					slowestRunning = execution;
+				}
+			}
+			if (slowestRunning != null) {
+				slowestNanos = Math.max(slowestNanos, now - slowestRunning.startNanos);
+			}
+
+			boolean slow = slowestNanos > slowThresholdNanos;
+			Bulkhead bulkhead = state.bulkhead;
+			if (bulkhead == null) {
+				if (slow) {
+					StackTraceElement[] stackTrace = slowestRunning != null
+							&& now - slowestRunning.startNanos > slowThresholdNanos ? slowestRunning.thread
+							.getStackTrace() : null;
+					isolate(entry.getKey(), state, TimeUnit.NANOSECONDS.toMillis(slowestNanos), stackTrace);
+				}
+			} else if (slow) {
+				// Still slow, or slow again while its bulkhead is being drained
+				bulkhead.restoring = false;
+				state.healthyChecks = 0;
+			} else if (bulkhead.restoring || ++state.healthyChecks >= recoveryChecks) {
+				restore(entry.getKey(), state);
+			}
+		}
+	}
+
+	private void isolate(MOMMethodHandler methodHandler, HandlerState state, long slowestMs,
+			StackTraceElement[] stackTrace) {
+		state.healthyChecks = 0;
+		state.bulkhead = new Bulkhead(bulkheadQueueSize);
+		state.isolatedAt = System.nanoTime();
+
+		StringBuilder message = new StringBuilder();
+		message.append("Isolate ").append(methodHandler.getMethod()).append(" in a bulkhead : an execution lasted ")
+				.append(slowestMs).append(" ms");
+		if (stackTrace != null) {
+			message.append(", still running at");
+			for (StackTraceElement element : stackTrace) {
+				message.append("\n\tat ").append(element);
+			}
+		}
+		LOGGER.warn(message.toString());
+
+		for (MOMWatchdogListener listener : listeners) {
+			try {
+				listener.handlerIsolated(methodHandler, slowestMs, stackTrace);
+			} catch (RuntimeException e) {
+				LOGGER.error("A watchdog listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Return a method handler to the shared dispatch path now if its bulkhead is drained, or else once it is.
+	 */
+	private void restore(MOMMethodHandler methodHandler, HandlerState state) {
+		Bulkhead bulkhead = state.bulkhead;
+		state.healthyChecks = 0;
+		bulkhead.restoring = true;
+		if (bulkhead.isDrained()) {
+			switchToSharedPath(methodHandler, state, bulkhead);
+		}
+	}
+
+	private void switchToSharedPath(MOMMethodHandler methodHandler, HandlerState state, Bulkhead bulkhead) {
+		synchronized (state) {
+			if (state.bulkhead != bulkhead) {
+				return;
+			}
+			state.bulkhead = null;
+		}
+		bulkhead.executor.shutdown();
+
+		long isolatedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - state.isolatedAt);
+		LOGGER.info("Return {} to the shared dispatch path after {} ms", methodHandler.getMethod(), isolatedMs);
+
+		for (MOMWatchdogListener listener : listeners) {
+			try {
+				listener.handlerRestored(methodHandler, isolatedMs);
+			} catch (RuntimeException e) {
+				LOGGER.error("A watchdog listener failed", e);
+			}
+		}
+	}
+
+	private HandlerState getState(MOMMethodHandler methodHandler) {
+		HandlerState state = handlerStates.get(methodHandler);
+		if (state == null) {
+			HandlerState newState = new HandlerState();
+			state = handlerStates.putIfAbsent(methodHandler, newState);
+			if (state == null) {
+				state = newState;
+			}
+		}
+		return state;
+	}
+
+	public void addListener(MOMWatchdogListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MOMWatchdogListener listener) {
+		listeners.remove(listener);
+	}
+
+	public long getSlowThresholdMs() {
+		return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+	}
+
+	/**
+	 * Set the duration above which an execution is slow, 1000 ms by default.
+	 * 
+	 * @param slowThresholdMs
+	 */
+	public void setSlowThresholdMs(long slowThresholdMs) {
+		this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+	}
+
+	public long getCheckIntervalMs() {
+		return checkIntervalMs;
+	}
+
+	/**
+	 * Set the interval between two checks, 1000 ms by default. Has to be set before the watchdog is started.
+	 * 
+	 * @param checkIntervalMs
+	 */
+	public void setCheckIntervalMs(long checkIntervalMs) {
+		this.checkIntervalMs = Math.max(1, checkIntervalMs);
+	}
+
+	public int getRecoveryChecks() {
+		return recoveryChecks;
+	}
+
+	/**
+	 * Set the number of consecutive checks without slow execution before an isolated method handler returns to the
+	 * shared dispatch path, 5 by default.
+	 * 
+	 * @param recoveryChecks
+	 */
+	public void setRecoveryChecks(int recoveryChecks) {
+		this.recoveryChecks = Math.max(1, recoveryChecks);
+	}
+
+	public int getBulkheadQueueSize() {
+		return bulkheadQueueSize;
+	}
+
+	/**
+	 * Set the number of messages waiting in each bulkhead, 1000 by default. Messages received while the queue is full
+	 * hold the receiving thread until there is room.
+	 * 
+	 * @param bulkheadQueueSize
+	 */
+	public void setBulkheadQueueSize(int bulkheadQueueSize) {
+		this.bulkheadQueueSize = Math.max(1, bulkheadQueueSize);
+	}
+
+	/**
+	 * An execution of a method handler.
+	 */
+	public static final class Execution {
+
+		private final HandlerState state;
+		private final Thread thread;
+		private final long startNanos;
+
+		Execution(HandlerState state, Thread thread, long startNanos) {
+			this.state = state;
+			this.thread = thread;
+			this.startNanos = startNanos;
+		}
+	}
+
+	/**
+	 * Single thread running the messages of an isolated method handler in order, counting the messages not handled
+	 * yet.
+	 */
+	private static final class Bulkhead implements Executor {
+
+		private final ThreadPoolExecutor executor;
+		private final AtomicInteger pending;
+		private volatile boolean restoring;
+
+		Bulkhead(int queueSize) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mom-bulkhead-");
+			threadFactory.setDaemon(true);
+			this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+					queueSize), threadFactory, new WaitForRoom());
+			this.executor.allowCoreThreadTimeOut(true);
+			this.pending = new AtomicInteger();
+		}
+
+		@Override
+		public void execute(final Runnable task) {
+			pending.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							pending.decrementAndGet();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				pending.decrementAndGet();
+				throw e;
+			}
+		}
+
+		boolean isDrained() {
+			return pending.get() == 0;
+		}
+	}
+
+	/**
+	 * Wait for room in the queue of a full bulkhead, so that the receiving thread slows down to the pace of the
+	 * isolated method handler instead of dropping messages.
+	 */
+	private static final class WaitForRoom implements RejectedExecutionHandler {
+
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("The bulkhead is shut down");
+			}
+			try {
+				executor.getQueue().put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for room in the bulkhead");
+			}
+		}
+	}
+
+	private static final class HandlerState {
+
+		private final ConcurrentMap<Execution, Boolean> running = new ConcurrentHashMap<Execution, Boolean>();
+		private final AtomicLong slowestNanos = new AtomicLong();
+		private volatile Bulkhead bulkhead;
+		private int healthyChecks;
+		private long isolatedAt;
+	}
+}
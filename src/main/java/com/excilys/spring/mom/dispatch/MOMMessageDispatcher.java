@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.Map;
+
+/**
+ * Interface to implement with a concrete class to take over the dispatch of received messages to a
+ * {@link com.excilys.spring.mom.client.MOMMethodHandler MOMMethodHandler}, instead of invoking it directly for each
+ * message.
+ * 
+ * @author dvilleneuve
+ */
+public interface MOMMessageDispatcher {
+
+	/**
+	 * Hand over a received message to the dispatcher.
+	 * 
+	 * @param data
+	 * @param headers
+	 */
+	void offer(byte[] data, Map<String, String> headers);
+
+	/**
+	 * Dispatch the pending messages, if any. Called when the method handler is unsubscribed.
+	 */
+	void close();
+
+}
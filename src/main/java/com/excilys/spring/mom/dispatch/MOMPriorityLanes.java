@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.annotation.MOMPriority;
+
+/**
+ * Run tasks in order of {@link MOMPriority priority}, one at a time, on an {@link Executor Executor}. Each priority has
+ * its own lane, drained by weighted round robin : within a round, up to {@code weight} tasks of a lane are run before
+ * moving to the next lower priority lane. High priority tasks thus wait for at most one running task when lower lanes
+ * are full, while lower lanes can't be starved.
+ * <p/>
+ * Lanes are bounded : queuing a task in a full lane blocks the calling thread until the drain makes room, so that a
+ * slow drain pushes back on the receiving thread instead of exhausting the memory.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMPriorityLanes {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMPriorityLanes.class);
+
+	private static final int[] DEFAULT_WEIGHTS = { 16, 4, 1 };
+
+	/**
+	 * Default maximum number of tasks waiting in each lane.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private final Executor executor;
+	private final BlockingQueue<Runnable>[] lanes;
+	private final int[] weights;
+	private final int[] credits;
+	private final AtomicBoolean scheduled;
+	private final Runnable drainer;
+	private volatile Thread drainingThread;
+
+	public MOMPriorityLanes(Executor executor) {
+		this(executor, DEFAULT_WEIGHTS);
+	}
+
+	/**
+	 * @param executor
+	 * @param weights
+	 *            of the lanes, indexed by {@link MOMPriority#ordinal() priority ordinal}
+	 */
+	public MOMPriorityLanes(Executor executor, int[] weights) {
+		this(executor, weights, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param executor
+	 * @param weights
+	 *            of the lanes, indexed by {@link MOMPriority#ordinal() priority ordinal}
+	 * @param capacity
+	 *            maximum number of tasks waiting in each lane
+	 */
+	@SuppressWarnings("unchecked")
+	public MOMPriorityLanes(Executor executor, int[] weights, int capacity) {
+		if (weights.length != MOMPriority.values().length) {
+			throw new IllegalArgumentException("A weight is expected for each priority");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity of the lanes must be positive : " + capacity);
+		}
+
+		this.executor = executor;
+		this.weights = weights.clone();
+		this.credits = weights.clone();
+		this.lanes = new BlockingQueue[weights.length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayBlockingQueue<Runnable>(capacity);
+		}
+		this.scheduled = new AtomicBoolean();
+		this.drainer = new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+	}
+
+	/**
+	 * Queue a task in the lane of {@code priority}, waiting for room if the lane is full. A task queued by a running
+	 * task in a full lane is run immediately, as the drain can't make room while it waits.
+	 * 
+	 * @param priority
+	 * @param task
+	 * @throws RejectedExecutionException
+	 *             if the thread is interrupted while waiting for room, or if the drain can't be scheduled
+	 */
+	public void execute(MOMPriority priority, Runnable task) {
+		BlockingQueue<Runnable> lane = lanes[priority.ordinal()];
+		if (!lane.offer(task)) {
+			if (Thread.currentThread() == drainingThread) {
+				task.run();
+				return;
+			}
+
+			try {
+				lane.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for room in the " + priority
+						+ " priority lane", e);
+			}
+		}
+
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drainer);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				lane.remove(task);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @param priority
+	 * @return the number of tasks waiting in the lane of {@code priority}
+	 */
+	public int getPending(MOMPriority priority) {
+		return lanes[priority.ordinal()].size();
+	}
+
+	private void drain() {
+		drainingThread = Thread.currentThread();
+		try {
+			drainLanes();
+		} finally {
+			drainingThread = null;
+		}
+	}
+
+	private void drainLanes() {
+		while (true) {
+			Runnable task = next();
+			if (task != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("A prioritized task failed", e);
+				}
+				continue;
+			}
+
+			scheduled.set(false);
+			// A task may have been queued after next() returned null
+			if (isEmpty() || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Only called by the drainer, which runs on a single thread at a time.
+	 */
+	private Runnable next() {
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < lanes.length; i++) {
+				if (credits[i] > 0) {
+					Runnable task = lanes[i].poll();
+					if (task != null) {
+						credits[i]--;
+						return task;
+					}
+				}
+			}
+			System.arraycopy(weights, 0, credits, 0, weights.length);
+		}
+		return null;
+	}
+
+	private boolean isEmpty() {
+		for (BlockingQueue<Runnable> lane : lanes) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
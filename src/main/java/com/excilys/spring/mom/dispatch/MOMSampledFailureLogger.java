@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Log dispatch failures at a bounded rate. In each interval, only the first failures are logged with their cause, the
+ * others are counted and summarized in a single line when the next interval starts. The payload of the message isn't
+ * logged as such, but the message of the cause is : for a
+ * {@link com.excilys.spring.mom.parser.MOMResponseParsingException parsing failure}, it includes a preview of the
+ * payload.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMSampledFailureLogger implements MOMDispatchFailureHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMSampledFailureLogger.class);
+
+	private final int maxLogsPerInterval;
+	private final long intervalMillis;
+	private final AtomicLong intervalStart;
+	private final AtomicLong intervalFailures;
+	private final AtomicLong totalFailures;
+	private final AtomicLong suppressedFailures;
+
+	/**
+	 * Log at most 10 failures per second.
+	 */
+	public MOMSampledFailureLogger() {
+		this(10, 1000);
+	}
+
+	public MOMSampledFailureLogger(int maxLogsPerInterval, long intervalMillis) {
+		this.maxLogsPerInterval = maxLogsPerInterval;
+		this.intervalMillis = intervalMillis;
+		this.intervalStart = new AtomicLong(System.currentTimeMillis());
+		this.intervalFailures = new AtomicLong();
+		this.totalFailures = new AtomicLong();
+		this.suppressedFailures = new AtomicLong();
+	}
+
+	@Override
+	public void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers,
+			Throwable cause) {
+		totalFailures.incrementAndGet();
+
+		long now = System.currentTimeMillis();
+		long start = intervalStart.get();
+		if (now - start >= intervalMillis && intervalStart.compareAndSet(start, now)) {
+			long suppressed = intervalFailures.getAndSet(0) - maxLogsPerInterval;
+			if (suppressed > 0) {
+				LOGGER.error("{} more messages couldn't be dispatched during the last {} ms", suppressed, now - start);
+			}
+		}
+
+		if (intervalFailures.incrementAndGet() <= maxLogsPerInterval) {
+			LOGGER.error("Can't dispatch a message of " + (data != null ? data.length : 0) + " bytes received on "
+					+ topic + " to " + methodHandler.getMethod(), cause);
+		} else {
+			suppressedFailures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of failures since the creation of the logger
+	 */
+	public long getTotalFailures() {
+		return totalFailures.get();
+	}
+
+	/**
+	 * @return the number of failures which haven't been logged individually since the creation of the logger
+	 */
+	public long getSuppressedFailures() {
+		return suppressedFailures.get();
+	}
+
+}
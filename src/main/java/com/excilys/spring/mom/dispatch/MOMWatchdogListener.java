@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Interface to implement with a concrete class to be notified when the {@link MOMHandlerWatchdog watchdog} isolates a
+ * slow method handler in a bulkhead, or returns it to the shared dispatch path.
+ * 
+ * @author dvilleneuve
+ */
+public interface MOMWatchdogListener {
+
+	/**
+	 * @param methodHandler
+	 *            isolated in a bulkhead
+	 * @param slowestMs
+	 *            duration of the slowest execution since the previous check, running or not
+	 * @param stackTrace
+	 *            of the thread running the slowest execution, or null if no execution is still running
+	 */
+	void handlerIsolated(MOMMethodHandler methodHandler, long slowestMs, StackTraceElement[] stackTrace);
+
+	/**
+	 * @param methodHandler
+	 *            returned to the shared dispatch path
+	 * @param isolatedMs
+	 *            duration of the isolation
+	 */
+	void handlerRestored(MOMMethodHandler methodHandler, long isolatedMs);
+
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.group;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Membership of the client to consumer groups partitioned on the client side. Each member periodically publishes its
+ * id on the membership topic of its groups, and forgets the members it hasn't heard of for a while.
+ * <p/>
+ * A message belongs to a single member of the group, chosen by rendezvous hashing of its partition key : the
+ * <code>x-mom-partition-key</code> header, or the message itself. When a member joins or leaves, only the messages of
+ * its partition move. Until every member has the same view of the group, a message may be handled by two members or
+ * by none.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMGroupMembership {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMGroupMembership.class);
+
+	public static final String PARTITION_KEY_HEADER = "x-mom-partition-key";
+	public static final String MEMBERSHIP_TOPIC_PREFIX = "/topic/spring-mom.group.";
+
+	private static final String LEAVE = " leave";
+	private static final Method ON_HEARTBEAT;
+
+	static {
+		try {
+			ON_HEARTBEAT = GroupListener.class.getDeclaredMethod("onHeartbeat", String.class);
+			ON_HEARTBEAT.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final MOMClient client;
+	private final ScheduledExecutorService scheduler;
+	private final String memberId;
+	private final ConcurrentMap<String, GroupListener> groups;
+	private long heartbeatIntervalMs;
+	private long memberTimeoutMs;
+	private ScheduledFuture<?> heartbeatTask;
+
+	public MOMGroupMembership(MOMClient client, ScheduledExecutorService scheduler) {
+		this.client = client;
+		this.scheduler = scheduler;
+		this.memberId = UUID.randomUUID().toString();
+		this.groups = new ConcurrentHashMap<String, GroupListener>();
+		this.heartbeatIntervalMs = 1000;
+		this.memberTimeoutMs = 3500;
+	}
+
+	/**
+	 * Join a group : subscribe to its membership topic and start publishing heartbeats.
+	 * 
+	 * @param group
+	 */
+	public synchronized void join(String group) {
+		if (groups.containsKey(group)) {
+			return;
+		}
+
+		GroupListener listener = new GroupListener(group);
+		groups.put(group, listener);
+		try {
+			client.subscribe(MEMBERSHIP_TOPIC_PREFIX + group, new MOMMethodHandler(ON_HEARTBEAT, listener,
+					MOMMappingConsum.STRING));
+		} catch (Exception e) {
+			LOGGER.error("Can't subscribe to the membership topic of the group {}", group, e);
+		}
+		heartbeat(group);
+
+		if (heartbeatTask == null) {
+			heartbeatTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						heartbeat();
+					} catch (RuntimeException e) {
+						LOGGER.error("Can't publish the group heartbeats", e);
+					}
+				}
+			}, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Announce to the other members of every group that this one leaves, before the client disconnects, so that they
+	 * take over its partitions without waiting for the timeout. Heartbeats resume when the client connects again.
+	 */
+	public void leave() {
+		for (String group : groups.keySet()) {
+			publish(group, memberId + LEAVE);
+		}
+	}
+
+	/**
+	 * Check if a message received on a topic consumed by {@code group} belongs to this member.
+	 * 
+	 * @param group
+	 * @param data
+	 * @param headers
+	 * @return true if the message has to be handled by this member
+	 */
+	public boolean owns(String group, byte[] data, Map<String, String> headers) {
+		GroupListener listener = groups.get(group);
+		String[] members = listener != null ? listener.members : null;
+		if (members == null || members.length <= 1) {
+			return true;
+		}
+
+		String partitionKey = headers != null ? headers.get(PARTITION_KEY_HEADER) : null;
+		int keyHash = partitionKey != null ? partitionKey.hashCode() : Arrays.hashCode(data);
+
+		String owner = null;
+		long ownerWeight = Long.MIN_VALUE;
+		for (String member : members) {
+			long weight = mix(keyHash, member.hashCode());
+			if (weight > ownerWeight) {
+				ownerWeight = weight;
+				owner = member;
+			}
+		}
+		return memberId.equals(owner);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreading the combination of the key and the member over the 64 bits.
+	 */
+	private static long mix(int keyHash, int memberHash) {
+		long h = ((long) keyHash << 32) ^ (memberHash & 0xffffffffL);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private void heartbeat() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, GroupListener> entry : groups.entrySet()) {
+			entry.getValue().expire(now - memberTimeoutMs);
+			heartbeat(entry.getKey());
+		}
+	}
+
+	private void heartbeat(String group) {
+		GroupListener listener = groups.get(group);
+		if (listener != null) {
+			listener.seen(memberId, System.currentTimeMillis());
+		}
+		publish(group, memberId);
+	}
+
+	private void publish(String group, String message) {
+		if (!client.isConnected()) {
+			return;
+		}
+
+		try {
+			client.publish(MEMBERSHIP_TOPIC_PREFIX + group, message);
+		} catch (Exception e) {
+			LOGGER.debug("Can't publish a heartbeat of the group {}", group, e);
+		}
+	}
+
+	/**
+	 * @param group
+	 * @return the ids of the known members of the group, this one included
+	 */
+	public String[] getMembers(String group) {
+		GroupListener listener = groups.get(group);
+		return listener != null ? listener.members.clone() : new String[0];
+	}
+
+	public String getMemberId() {
+		return memberId;
+	}
+
+	public long getHeartbeatIntervalMs() {
+		return heartbeatIntervalMs;
+	}
+
+	/**
+	 * Set the interval between two heartbeats, 1000 ms by default. Has to be set before the first group is joined.
+	 * 
+	 * @param heartbeatIntervalMs
+	 */
+	public void setHeartbeatIntervalMs(long heartbeatIntervalMs) {
+		this.heartbeatIntervalMs = Math.max(1, heartbeatIntervalMs);
+	}
+
+	public long getMemberTimeoutMs() {
+		return memberTimeoutMs;
+	}
+
+	/**
+	 * Set the delay after which a silent member is forgotten, 3500 ms by default.
+	 * 
+	 * @param memberTimeoutMs
+	 */
+	public void setMemberTimeoutMs(long memberTimeoutMs) {
+		this.memberTimeoutMs = memberTimeoutMs;
+	}
+
+	/**
+	 * Members of a group, updated by the heartbeats received on its membership topic.
+	 */
+	private final class GroupListener {
+
+		private final String group;
+		private final ConcurrentMap<String, Long> lastSeen = new ConcurrentHashMap<String, Long>();
+		private volatile String[] members = new String[0];
+
+		GroupListener(String group) {
+			this.group = group;
+		}
+
+		void onHeartbeat(String message) {
+			if (message.endsWith(LEAVE)) {
+				String member = message.substring(0, message.length() - LEAVE.length());
+				if (!memberId.equals(member) && lastSeen.remove(member) != null) {
+					LOGGER.info("Member {} left the group {}", member, group);
+					update();
+				}
+			} else {
+				seen(message, System.currentTimeMillis());
+			}
+		}
+
+		void seen(String member, long now) {
+			if (lastSeen.put(member, now) == null) {
+				LOGGER.info("Member {} joined the group {}", member, group);
+				update();
+
+				// Let the new member know this one without waiting for the next heartbeat
+				if (!memberId.equals(member)) {
+					publish(group, memberId);
+				}
+			}
+		}
+
+		void expire(long oldest) {
+			boolean expired = false;
+			for (Map.Entry<String, Long> entry : lastSeen.entrySet()) {
+				if (entry.getValue() < oldest && !memberId.equals(entry.getKey())) {
+					lastSeen.remove(entry.getKey());
+					LOGGER.info("Member {} of the group {} timed out", entry.getKey(), group);
+					expired = true;
+				}
+			}
+			if (expired) {
+				update();
+			}
+		}
+
+		private synchronized void update() {
+			String[] updated = lastSeen.keySet().toArray(new String[0]);
+			Arrays.sort(updated);
+			members = updated;
+		}
+	}
+}
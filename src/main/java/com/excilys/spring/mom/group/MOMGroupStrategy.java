@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.group;
+
+/**
+ * How the messages of a topic are shared between the members of a consumer group.
+ * 
+ * @author dvilleneuve
+ * @see com.excilys.spring.mom.annotation.MOMMapping#group()
+ */
+public enum MOMGroupStrategy {
+
+	/**
+	 * Each group consumes a queue of the MOM server fed by the topic, like the virtual topics of ActiveMQ, and the MOM
+	 * server dispatches each message to a single member.
+	 */
+	BROKER,
+
+	/**
+	 * Every member receives every message and handles only the messages of its partition, according to the members of
+	 * the group known through a membership topic. Works with any MOM server.
+	 */
+	PARTITION
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.journal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.dispatch.MOMDispatchFailureHandler;
+import com.excilys.spring.mom.dispatch.MOMSampledFailureLogger;
+import com.excilys.spring.mom.metrics.MOMTracer;
+
+/**
+ * Store the messages which couldn't be dispatched in a {@link MOMJournal MOMJournal}, with their headers, the method
+ * they were dispatched to and the cause of the failure, so that they can be replayed once the problem is fixed.
+ * <p/>
+ * Failures are also logged through a {@link MOMSampledFailureLogger MOMSampledFailureLogger}, so that a storm of
+ * poison messages doesn't flood the logs.
+ * 
+ * @author dvilleneuve
+ * @see com.excilys.spring.mom.client.MOMClient#replayDeadLetters()
+ */
+public class MOMDeadLetterSink implements MOMDispatchFailureHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMDeadLetterSink.class);
+
+	public static final String HEADER_PREFIX = "x-dead-letter-";
+	public static final String CAUSE_HEADER = HEADER_PREFIX + "cause";
+	public static final String HANDLER_HEADER = HEADER_PREFIX + "handler";
+	public static final String TIME_HEADER = HEADER_PREFIX + "time";
+
+	private static final int MAX_CAUSE_LENGTH = 1024;
+
+	private final MOMJournal journal;
+	private final MOMDispatchFailureHandler failureLogger;
+	private final AtomicLong deadLetters;
+	private final AtomicLong droppedDeadLetters;
+
+	public MOMDeadLetterSink(MOMJournal journal) {
+		this(journal, new MOMSampledFailureLogger());
+	}
+
+	public MOMDeadLetterSink(MOMJournal journal, MOMDispatchFailureHandler failureLogger) {
+		this.journal = journal;
+		this.failureLogger = failureLogger;
+		this.deadLetters = new AtomicLong();
+		this.droppedDeadLetters = new AtomicLong();
+	}
+
+	@Override
+	public void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data, Map<String, String> headers,
+			Throwable cause) {
+		failureLogger.dispatchFailed(topic, methodHandler, data, headers, cause);
+
+		Map<String, String> deadLetterHeaders = headers != null ? new HashMap<String, String>(headers)
+				: new HashMap<String, String>();
+		deadLetterHeaders.remove(MOMTracer.RECEIVED_AT_HEADER);
+		deadLetterHeaders.put(HANDLER_HEADER, getHandlerId(methodHandler));
+		deadLetterHeaders.put(CAUSE_HEADER, abbreviate(String.valueOf(cause)));
+		deadLetterHeaders.put(TIME_HEADER, String.valueOf(System.currentTimeMillis()));
+
+		try {
+			if (journal.append(topic, deadLetterHeaders, data)) {
+				deadLetters.incrementAndGet();
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Drop the dead letter of {} bytes received on {} : it's larger than the segments of the dead "
+					+ "letter journal", data.length, topic);
+			droppedDeadLetters.incrementAndGet();
+			return;
+		} catch (IOException e) {
+			LOGGER.debug("Can't append a dead letter to the journal", e);
+		}
+
+		// Only log the first drop, the count is available through getDroppedDeadLetters()
+		if (droppedDeadLetters.getAndIncrement() == 0) {
+			LOGGER.error("The dead letter journal {} is full or unavailable, dead letters are dropped",
+					journal.getDirectory());
+		}
+	}
+
+	/**
+	 * Hand over the dead letters stored so far to {@code handler}, in the order they were stored, and remove them from
+	 * the journal. Messages failing again during the replay are stored as new dead letters and aren't replayed by this
+	 * call.
+	 * 
+	 * @param handler
+	 * @return the number of replayed dead letters
+	 */
+	public int replay(final ReplayHandler handler) {
+		final long pending = journal.getPendingCount();
+		final int[] replayed = new int[1];
+
+		journal.drain(new MOMJournal.RecordHandler() {
+			@Override
+			public boolean handle(String topic, Map<String, String> headers, byte[] data) {
+				if (replayed[0] >= pending) {
+					return false;
+				}
+
+				Map<String, String> originalHeaders = new HashMap<String, String>();
+				for (Entry<String, String> header : headers.entrySet()) {
+					if (!header.getKey().startsWith(HEADER_PREFIX)) {
+						originalHeaders.put(header.getKey(), header.getValue());
+					}
+				}
+
+				handler.replay(topic, headers.get(HANDLER_HEADER), data, originalHeaders);
+				replayed[0]++;
+				return true;
+			}
+		});
+
+		LOGGER.info("Replayed {} dead letters", replayed[0]);
+		return replayed[0];
+	}
+
+	/**
+	 * Return the identifier of a method handler, as stored within the {@link #HANDLER_HEADER handler header}.
+	 * 
+	 * @param methodHandler
+	 * @return
+	 */
+	public static String getHandlerId(MOMMethodHandler methodHandler) {
+		return String.valueOf(methodHandler.getMethod());
+	}
+
+	/**
+	 * @return the number of dead letters stored since the creation of the sink
+	 */
+	public long getDeadLetters() {
+		return deadLetters.get();
+	}
+
+	/**
+	 * @return the number of dead letters which couldn't be stored
+	 */
+	public long getDroppedDeadLetters() {
+		return droppedDeadLetters.get();
+	}
+
+	public long getPendingDeadLetters() {
+		return journal.getPendingCount();
+	}
+
+	public MOMJournal getJournal() {
+		return journal;
+	}
+
+	private static String abbreviate(String value) {
+		return value.length() <= MAX_CAUSE_LENGTH ? value : value.substring(0, MAX_CAUSE_LENGTH) + "...";
+	}
+
+	/**
+	 * Interface to implement to receive the replayed dead letters.
+	 */
+	public interface ReplayHandler {
+
+		/**
+		 * @param topic
+		 *            on which the message has been received
+		 * @param handlerId
+		 *            identifier of the method handler the message was dispatched to
+		 * @param data
+		 *            of the message, as received
+		 * @param headers
+		 *            of the message, as received
+		 */
+		void replay(String topic, String handlerId, byte[] data, Map<String, String> headers);
+
+	}
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of messages, stored in a directory as a sequence of fixed size memory-mapped segment files.
+ * <p/>
+ * Records are appended at the end of the last segment and consumed in order from the first one. A consumed record is
+ * flagged as such in place, and a segment is deleted once all its records have been consumed. The journal is bounded
+ * by a maximum number of segments : when they are all full, new records are refused.
+ * <p/>
+ * Each record is written as its length, its state, a CRC32 checksum and its body (topic, headers and data), the length
+ * being written last. When the journal is opened, the existing segments are scanned so that pending records survive
+ * restarts, and a record whose checksum doesn't match ends its segment.
+ *
+ * @author dvilleneuve
+ */
+public class MOMJournal {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMJournal.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final int RECORD_HEADER_SIZE = 9;
+	private static final byte PENDING = 0;
+	private static final byte CONSUMED = 1;
+
+	private final File directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final LinkedList<Segment> segments;
+	private final Object drainLock = new Object();
+	private long pendingRecords;
+	private int readPosition;
+	private boolean force;
+
+	/**
+	 * Open the journal stored in {@code directory}, or create it if it doesn't exist. The journal will use at most
+	 * {@code maxSegments} segments of {@code segmentSize} bytes.
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 * @param maxSegments
+	 * @throws IOException
+	 */
+	public MOMJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+		if (segmentSize <= RECORD_HEADER_SIZE || maxSegments <= 0) {
+			throw new IllegalArgumentException("Invalid segment size or maximum number of segments");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create the journal directory " + directory);
+		}
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.segments = new LinkedList<Segment>();
+
+		recover();
+	}
+
+	/**
+	 * Append a record at the end of the journal.
+	 *
+	 * @param topic
+	 * @param headers
+	 * @param data
+	 * @return false if the journal is full
+	 * @throws IOException
+	 */
+	public synchronized boolean append(String topic, Map<String, String> headers, byte[] data) throws IOException {
+		byte[] body = encode(topic, headers, data);
+		if (RECORD_HEADER_SIZE + body.length > segmentSize) {
+			throw new IllegalArgumentException("The record of " + body.length
+					+ " bytes is larger than the journal segments");
+		}
+
+		Segment segment = segments.getLast();
+		if (segment.writePosition + RECORD_HEADER_SIZE + body.length > segmentSize) {
+			if (segments.size() >= maxSegments) {
+				return false;
+			}
+			segment = createSegment(segment.id + 1);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(body);
+
+		int position = segment.writePosition;
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(position + RECORD_HEADER_SIZE);
+		buffer.put(body);
+		buffer.put(position + 4, PENDING);
+		buffer.putInt(position + 5, (int) crc.getValue());
+		// The length is written last, it makes the record visible
+		buffer.putInt(position, body.length);
+
+		if (force) {
+			segment.buffer.force();
+		}
+
+		segment.writePosition += RECORD_HEADER_SIZE + body.length;
+		pendingRecords++;
+		return true;
+	}
+
+	/**
+	 * Hand over the pending records to {@code handler}, in the order they were appended. Each record accepted by the
+	 * handler is consumed. The drain stops when the journal is empty or when the handler refuses a record, which then
+	 * stays pending. Records appended during the drain are drained too.
+	 *
+	 * @param handler
+	 * @return the number of consumed records
+	 */
+	public int drain(RecordHandler handler) {
+		synchronized (drainLock) {
+			int count = 0;
+			while (true) {
+				Record record;
+				synchronized (this) {
+					record = readNext();
+				}
+				if (record == null || !handler.handle(record.topic, record.headers, record.data)) {
+					return count;
+				}
+				synchronized (this) {
+					record.segment.buffer.put(record.position + 4, CONSUMED);
+					readPosition = record.position + RECORD_HEADER_SIZE + record.length;
+					pendingRecords--;
+				}
+				count++;
+			}
+		}
+	}
+
+	public synchronized boolean hasPending() {
+		return pendingRecords > 0;
+	}
+
+	public synchronized long getPendingCount() {
+		return pendingRecords;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * If true, the segment is flushed to the storage device after each append. Default is false : the records survive
+	 * a crash of the JVM, but not a crash of the operating system.
+	 *
+	 * @param force
+	 */
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Return the first pending record, deleting the fully consumed segments on the way.
+	 */
+	private Record readNext() {
+		while (true) {
+			Segment segment = segments.getFirst();
+			int length = readPosition + RECORD_HEADER_SIZE <= segmentSize ? segment.buffer.getInt(readPosition) : 0;
+
+			if (length <= 0) {
+				if (segment == segments.getLast()) {
+					return null;
+				}
+				deleteSegment(segments.removeFirst());
+				readPosition = 0;
+			} else if (segment.buffer.get(readPosition + 4) == CONSUMED) {
+				readPosition += RECORD_HEADER_SIZE + length;
+			} else {
+				byte[] body = new byte[length];
+				ByteBuffer buffer = segment.buffer.duplicate();
+				buffer.position(readPosition + RECORD_HEADER_SIZE);
+				buffer.get(body);
+				try {
+					return decode(segment, readPosition, body);
+				} catch (IOException e) {
+					throw new IllegalStateException("Corrupted journal record in " + segment.file, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Map the existing segments, find the end of the last one and count the pending records.
+	 */
+	private void recover() throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+
+		for (File file : files) {
+			Segment segment = mapSegment(file, parseId(file));
+			int pending = scan(segment);
+
+			if (pending == 0 && segment.writePosition > 0) {
+				deleteSegment(segment);
+			} else {
+				segments.add(segment);
+				pendingRecords += pending;
+			}
+		}
+
+		if (segments.isEmpty()) {
+			createSegment(files.length > 0 ? parseId(files[files.length - 1]) + 1 : 0);
+		}
+
+		if (pendingRecords > 0) {
+			LOGGER.info("Recovered {} pending records from the journal {}", pendingRecords, directory);
+		}
+	}
+
+	private int scan(Segment segment) {
+		int pending = 0;
+		int position = 0;
+		ByteBuffer buffer = segment.buffer.duplicate();
+
+		while (position + RECORD_HEADER_SIZE <= segmentSize) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > segmentSize) {
+				break;
+			}
+
+			byte[] body = new byte[length];
+			buffer.position(position + RECORD_HEADER_SIZE);
+			buffer.get(body);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			if ((int) crc.getValue() != buffer.getInt(position + 5)) {
+				LOGGER.warn("Truncate the journal segment {} at {} : invalid checksum", segment.file, position);
+				buffer.putInt(position, 0);
+				break;
+			}
+
+			if (buffer.get(position + 4) == PENDING) {
+				pending++;
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+
+		segment.writePosition = position;
+		return pending;
+	}
+
+	private Segment createSegment(long id) throws IOException {
+		File file = new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+		Segment segment = mapSegment(file, id);
+		segments.add(segment);
+		return segment;
+	}
+
+	private Segment mapSegment(File file, long id) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(segmentSize);
+			MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			return new Segment(file, id, buffer);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private void deleteSegment(Segment segment) {
+		if (!segment.file.delete()) {
+			LOGGER.warn("Can't delete the consumed journal segment {}", segment.file);
+		}
+	}
+
+	private static long parseId(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static byte[] encode(String topic, Map<String, String> headers, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeUTF(topic);
+		if (headers == null) {
+			out.writeShort(0);
+		} else {
+			out.writeShort(headers.size());
+			for (Entry<String, String> header : headers.entrySet()) {
+				out.writeUTF(header.getKey());
+				out.writeUTF(header.getValue() != null ? header.getValue() : "");
+			}
+		}
+		out.writeInt(data.length);
+		out.write(data);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	private static Record decode(Segment segment, int position, byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+
+		String topic = in.readUTF();
+		int headerCount = in.readUnsignedShort();
+		Map<String, String> headers = headerCount == 0 ? Collections.<String, String> emptyMap()
+				: new HashMap<String, String>(headerCount * 2);
+		for (int i = 0; i < headerCount; i++) {
+			headers.put(in.readUTF(), in.readUTF());
+		}
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+
+		return new Record(segment, position, body.length, topic, headers, data);
+	}
+
+	/**
+	 * Interface to implement to receive the records drained from a {@link MOMJournal MOMJournal}.
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param topic
+		 * @param headers
+		 * @param data
+		 * @return true if the record has been handled and can be consumed, false to stop the drain
+		 */
+		boolean handle(String topic, Map<String, String> headers, byte[] data);
+
+	}
+
+	private static final class Segment {
+
+		private final File file;
+		private final long id;
+		private final MappedByteBuffer buffer;
+		private int writePosition;
+
+		Segment(File file, long id, MappedByteBuffer buffer) {
+			this.file = file;
+			this.id = id;
+			this.buffer = buffer;
+		}
+	}
+
+	private static final class Record {
+
+		private final Segment segment;
+		private final int position;
+		private final int length;
+		private final String topic;
+		private final Map<String, String> headers;
+		private final byte[] data;
+
+		Record(Segment segment, int position, int length, String topic, Map<String, String> headers, byte[] data) {
+			this.segment = segment;
+			this.position = position;
+			this.length = length;
+			this.topic = topic;
+			this.headers = headers;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the parsing and invocation of a method handler.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMHandlerStats implements MOMHandlerStatsMBean {
+
+	private final String topic;
+	private final String method;
+	private final MOMHistogram parseLatency = new MOMHistogram();
+	private final MOMHistogram invokeLatency = new MOMHistogram();
+	private final AtomicLong parseFailures = new AtomicLong();
+	private final AtomicLong invocationFailures = new AtomicLong();
+
+	public MOMHandlerStats(String topic, String method) {
+		this.topic = topic;
+		this.method = method;
+	}
+
+	void parsed(long nanos, boolean success) {
+		parseLatency.record(nanos);
+		if (!success) {
+			parseFailures.incrementAndGet();
+		}
+	}
+
+	void invoked(long nanos, boolean success) {
+		invokeLatency.record(nanos);
+		if (!success) {
+			invocationFailures.incrementAndGet();
+		}
+	}
+
+	public MOMHistogram getParseLatency() {
+		return parseLatency;
+	}
+
+	public MOMHistogram getInvokeLatency() {
+		return invokeLatency;
+	}
+
+	@Override
+	public String getTopic() {
+		return topic;
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public long getParsed() {
+		return parseLatency.getCount();
+	}
+
+	@Override
+	public long getParseFailures() {
+		return parseFailures.get();
+	}
+
+	@Override
+	public long getInvocations() {
+		return invokeLatency.getCount();
+	}
+
+	@Override
+	public long getInvocationFailures() {
+		return invocationFailures.get();
+	}
+
+	@Override
+	public long getParseMeanMicros() {
+		return micros(parseLatency.getMean());
+	}
+
+	@Override
+	public long getParseP50Micros() {
+		return micros(parseLatency.getValueAtQuantile(0.5));
+	}
+
+	@Override
+	public long getParseP99Micros() {
+		return micros(parseLatency.getValueAtQuantile(0.99));
+	}
+
+	@Override
+	public long getParseMaxMicros() {
+		return micros(parseLatency.getMax());
+	}
+
+	@Override
+	public long getInvokeMeanMicros() {
+		return micros(invokeLatency.getMean());
+	}
+
+	@Override
+	public long getInvokeP50Micros() {
+		return micros(invokeLatency.getValueAtQuantile(0.5));
+	}
+
+	@Override
+	public long getInvokeP99Micros() {
+		return micros(invokeLatency.getValueAtQuantile(0.99));
+	}
+
+	@Override
+	public long getInvokeP999Micros() {
+		return micros(invokeLatency.getValueAtQuantile(0.999));
+	}
+
+	@Override
+	public long getInvokeMaxMicros() {
+		return micros(invokeLatency.getMax());
+	}
+
+	@Override
+	public void reset() {
+		parseLatency.reset();
+		invokeLatency.reset();
+		parseFailures.set(0);
+		invocationFailures.set(0);
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+/**
+ * JMX view of the {@link MOMHandlerStats metrics of a method handler}. Durations are in microseconds.
+ * 
+ * @author dvilleneuve
+ */
+public interface MOMHandlerStatsMBean {
+
+	String getTopic();
+
+	String getMethod();
+
+	long getParsed();
+
+	long getParseFailures();
+
+	long getInvocations();
+
+	long getInvocationFailures();
+
+	long getParseMeanMicros();
+
+	long getParseP50Micros();
+
+	long getParseP99Micros();
+
+	long getParseMaxMicros();
+
+	long getInvokeMeanMicros();
+
+	long getInvokeP50Micros();
+
+	long getInvokeP99Micros();
+
+	long getInvokeP999Micros();
+
+	long getInvokeMaxMicros();
+
+	void reset();
+
+}
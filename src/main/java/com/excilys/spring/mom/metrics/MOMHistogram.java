@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with log-linear buckets : each power of two is divided into
+ * 16 linear buckets, giving values with a relative error below 7%, up to about 18 minutes.
+ * <p/>
+ * Recording doesn't allocate : buckets are striped by thread to limit the contention between recording threads, and
+ * merged when the histogram is read.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	// Extra slots of each stripe, after the buckets
+	private static final int COUNT = BUCKETS;
+	private static final int SUM = BUCKETS + 1;
+	private static final int MAX = BUCKETS + 2;
+	private static final int STRIPE_LENGTH = BUCKETS + 3;
+
+	private final AtomicLongArray[] stripes;
+	private final int stripeMask;
+
+	public MOMHistogram() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripeCount = Integer.highestOneBit(Math.max(1, processors - 1) << 1);
+		this.stripes = new AtomicLongArray[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+		}
+		this.stripeMask = stripeCount - 1;
+	}
+
+	/**
+	 * Record a duration.
+	 * 
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+		AtomicLongArray stripe = stripes[stripeIndex()];
+		stripe.incrementAndGet(bucketIndex(value));
+		stripe.incrementAndGet(COUNT);
+		stripe.addAndGet(SUM, value);
+
+		long max = stripe.get(MAX);
+		while (value > max && !stripe.compareAndSet(MAX, max, value)) {
+			max = stripe.get(MAX);
+		}
+	}
+
+	/**
+	 * Return the value below which {@code quantile} of the recorded durations fall.
+	 * 
+	 * @param quantile
+	 *            between 0 and 1, like 0.99
+	 * @return the value in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getValueAtQuantile(double quantile) {
+		long[] buckets = new long[BUCKETS];
+		long count = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				long bucket = stripe.get(i);
+				buckets[i] += bucket;
+				count += bucket;
+			}
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (AtomicLongArray stripe : stripes) {
+			count += stripe.get(COUNT);
+		}
+		return count;
+	}
+
+	public long getMax() {
+		long max = 0;
+		for (AtomicLongArray stripe : stripes) {
+			max = Math.max(max, stripe.get(MAX));
+		}
+		return max;
+	}
+
+	/**
+	 * @return the mean of the recorded durations in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMean() {
+		long count = 0;
+		long sum = 0;
+		for (AtomicLongArray stripe : stripes) {
+			count += stripe.get(COUNT);
+			sum += stripe.get(SUM);
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Forget the recorded durations. Durations recorded concurrently may be partially forgotten.
+	 */
+	public void reset() {
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < STRIPE_LENGTH; i++) {
+				stripe.set(i, 0);
+			}
+		}
+	}
+
+	private int stripeIndex() {
+		long id = Thread.currentThread().getId();
+		return (int) (id ^ (id >>> 16)) & stripeMask;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (subBucket + 1) * width - 1;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Interface to implement to collect metrics about the messages received and published by a
+ * {@link com.excilys.spring.mom.client.MOMClient MOMClient}. Methods are called on the hot path, so implementations
+ * must be fast, thread-safe and avoid allocations.
+ * 
+ * @author dvilleneuve
+ * @see MOMMetricsRegistry
+ */
+public interface MOMMetrics {
+
+	/**
+	 * A message has been received on a topic, before being dispatched.
+	 * 
+	 * @param topic
+	 * @param size
+	 *            in bytes
+	 */
+	void messageReceived(String topic, int size);
+
+	/**
+	 * A message has been published on a topic.
+	 * 
+	 * @param topic
+	 * @param size
+	 *            in bytes
+	 */
+	void messagePublished(String topic, int size);
+
+	/**
+	 * A message published on a topic has been delayed or rejected by the
+	 * {@link com.excilys.spring.mom.ratelimit.MOMPublishThrottle publish throttle}.
+	 * 
+	 * @param topic
+	 * @param nanos
+	 *            the message is delayed by before being published
+	 * @param dropped
+	 *            true if no permit could be granted : the message has been dropped, or rejected in
+	 *            {@link com.excilys.spring.mom.ratelimit.MOMThrottleMode#BLOCK BLOCK} mode
+	 */
+	void messageThrottled(String topic, long nanos, boolean dropped);
+
+	/**
+	 * A message has been parsed for a method handler.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 * @param nanos
+	 *            spent parsing the message
+	 * @param success
+	 *            false if the message couldn't be parsed
+	 */
+	void messageParsed(String topic, MOMMethodHandler methodHandler, long nanos, boolean success);
+
+	/**
+	 * The method of a method handler has been invoked.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 * @param nanos
+	 *            spent in the method
+	 * @param success
+	 *            false if the method threw an exception
+	 */
+	void methodInvoked(String topic, MOMMethodHandler methodHandler, long nanos, boolean success);
+
+	/**
+	 * A message stamped by its publisher has been received.
+	 * 
+	 * @param topic
+	 * @param nanos
+	 *            elapsed between the publication and the reception of the message
+	 * @see MOMTracer
+	 */
+	void messageLatency(String topic, long nanos);
+
+	/**
+	 * A method handler is done with a traced message.
+	 * 
+	 * @param topic
+	 * @param methodHandler
+	 * @param nanos
+	 *            elapsed between the reception of the message and the end of its handling
+	 * @see MOMTracer
+	 */
+	void messageHandled(String topic, MOMMethodHandler methodHandler, long nanos);
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * Default {@link MOMMetrics MOMMetrics} implementation, keeping {@link MOMTopicStats statistics per topic} and
+ * {@link MOMHandlerStats per method handler}, a method handler being subscribed to a single topic. If a {@link #setMBeanServer(MBeanServer) MBean server} is set, the
+ * statistics are registered as MBeans as soon as they are created, under the {@link #setDomain(String) domain}
+ * <code>com.excilys.spring.mom</code> by default.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMMetricsRegistry implements MOMMetrics {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMMetricsRegistry.class);
+
+	private final ConcurrentMap<String, MOMTopicStats> topicStats;
+	private final ConcurrentMap<MOMMethodHandler, MOMHandlerStats> handlerStats;
+	private MBeanServer mBeanServer;
+	private String domain = "com.excilys.spring.mom";
+
+	public MOMMetricsRegistry() {
+		this.topicStats = new ConcurrentHashMap<String, MOMTopicStats>();
+		this.handlerStats = new ConcurrentHashMap<MOMMethodHandler, MOMHandlerStats>();
+	}
+
+	@Override
+	public void messageReceived(String topic, int size) {
+		getTopicStats(topic).received(size);
+	}
+
+	@Override
+	public void messagePublished(String topic, int size) {
+		getTopicStats(topic).published(size);
+	}
+
+	@Override
+	public void messageThrottled(String topic, long nanos, boolean dropped) {
+		getTopicStats(topic).throttled(nanos, dropped);
+	}
+
+	@Override
+	public void messageParsed(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		getHandlerStats(topic, methodHandler).parsed(nanos, success);
+	}
+
+	@Override
+	public void methodInvoked(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		getHandlerStats(topic, methodHandler).invoked(nanos, success);
+	}
+
+	@Override
+	public void messageLatency(String topic, long nanos) {
+		getTopicStats(topic).getPublishToReceiveLatency().record(nanos);
+	}
+
+	@Override
+	public void messageHandled(String topic, MOMMethodHandler methodHandler, long nanos) {
+		getTopicStats(topic).getReceiveToHandledLatency().record(nanos);
+	}
+
+	public MOMTopicStats getTopicStats(String topic) {
+		MOMTopicStats stats = topicStats.get(topic);
+		if (stats == null) {
+			MOMTopicStats newStats = new MOMTopicStats(topic);
+			stats = topicStats.putIfAbsent(topic, newStats);
+			if (stats == null) {
+				stats = newStats;
+				register("type=Topic,topic=" + ObjectName.quote(topic), stats);
+			}
+		}
+		return stats;
+	}
+
+	public MOMHandlerStats getHandlerStats(String topic, MOMMethodHandler methodHandler) {
+		MOMHandlerStats stats = handlerStats.get(methodHandler);
+		if (stats == null) {
+			String method = String.valueOf(methodHandler.getMethod());
+			MOMHandlerStats newStats = new MOMHandlerStats(topic, method);
+			stats = handlerStats.putIfAbsent(methodHandler, newStats);
+			if (stats == null) {
+				stats = newStats;
+				register("type=Handler,topic=" + ObjectName.quote(topic) + ",method=" + ObjectName.quote(method), stats);
+			}
+		}
+		return stats;
+	}
+
+	public Collection<MOMTopicStats> getTopicStats() {
+		return Collections.unmodifiableCollection(topicStats.values());
+	}
+
+	public Collection<MOMHandlerStats> getHandlerStats() {
+		return Collections.unmodifiableCollection(handlerStats.values());
+	}
+
+	public synchronized MBeanServer getMBeanServer() {
+		return mBeanServer;
+	}
+
+	/**
+	 * Set the MBean server where statistics are registered, like
+	 * {@link java.lang.management.ManagementFactory#getPlatformMBeanServer()}. Statistics already created are
+	 * registered.
+	 * 
+	 * @param mBeanServer
+	 */
+	public void setMBeanServer(MBeanServer mBeanServer) {
+		synchronized (this) {
+			this.mBeanServer = mBeanServer;
+		}
+		for (MOMTopicStats stats : topicStats.values()) {
+			register("type=Topic,topic=" + ObjectName.quote(stats.getTopic()), stats);
+		}
+		for (MOMHandlerStats stats : handlerStats.values()) {
+			register("type=Handler,topic=" + ObjectName.quote(stats.getTopic()) + ",method="
+					+ ObjectName.quote(stats.getMethod()), stats);
+		}
+	}
+
+	public synchronized String getDomain() {
+		return domain;
+	}
+
+	public synchronized void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	private synchronized void register(String properties, Object mBean) {
+		if (mBeanServer == null) {
+			return;
+		}
+
+		try {
+			ObjectName name = new ObjectName(domain + ":" + properties);
+			if (!mBeanServer.isRegistered(name)) {
+				mBeanServer.registerMBean(mBean, name);
+			}
+		} catch (Exception e) {
+			LOGGER.warn("Can't register the MBean {}", properties, e);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the messages received, published and throttled on a topic, and latency histograms of the messages
+ * {@link MOMTracer traced} on it.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMTopicStats implements MOMTopicStatsMBean {
+
+	private final String topic;
+	private final AtomicLong receivedMessages = new AtomicLong();
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final AtomicLong publishedMessages = new AtomicLong();
+	private final AtomicLong publishedBytes = new AtomicLong();
+	private final AtomicLong throttledMessages = new AtomicLong();
+	private final AtomicLong throttleDroppedMessages = new AtomicLong();
+	private final MOMHistogram throttleDelay = new MOMHistogram();
+	private final MOMHistogram publishToReceiveLatency = new MOMHistogram();
+	private final MOMHistogram receiveToHandledLatency = new MOMHistogram();
+
+	public MOMTopicStats(String topic) {
+		this.topic = topic;
+	}
+
+	void received(int size) {
+		receivedMessages.incrementAndGet();
+		receivedBytes.addAndGet(size);
+	}
+
+	void published(int size) {
+		publishedMessages.incrementAndGet();
+		publishedBytes.addAndGet(size);
+	}
+
+	void throttled(long nanos, boolean dropped) {
+		if (dropped) {
+			throttleDroppedMessages.incrementAndGet();
+		} else {
+			throttledMessages.incrementAndGet();
+			throttleDelay.record(nanos);
+		}
+	}
+
+	@Override
+	public String getTopic() {
+		return topic;
+	}
+
+	@Override
+	public long getReceivedMessages() {
+		return receivedMessages.get();
+	}
+
+	@Override
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	@Override
+	public long getPublishedMessages() {
+		return publishedMessages.get();
+	}
+
+	@Override
+	public long getPublishedBytes() {
+		return publishedBytes.get();
+	}
+
+	@Override
+	public long getThrottledMessages() {
+		return throttledMessages.get();
+	}
+
+	@Override
+	public long getThrottleDroppedMessages() {
+		return throttleDroppedMessages.get();
+	}
+
+	public MOMHistogram getThrottleDelay() {
+		return throttleDelay;
+	}
+
+	@Override
+	public long getThrottleDelayP99Micros() {
+		return micros(throttleDelay.getValueAtQuantile(0.99));
+	}
+
+	public MOMHistogram getPublishToReceiveLatency() {
+		return publishToReceiveLatency;
+	}
+
+	public MOMHistogram getReceiveToHandledLatency() {
+		return receiveToHandledLatency;
+	}
+
+	@Override
+	public long getPublishToReceiveP50Micros() {
+		return micros(publishToReceiveLatency.getValueAtQuantile(0.5));
+	}
+
+	@Override
+	public long getPublishToReceiveP99Micros() {
+		return micros(publishToReceiveLatency.getValueAtQuantile(0.99));
+	}
+
+	@Override
+	public long getPublishToReceiveMaxMicros() {
+		return micros(publishToReceiveLatency.getMax());
+	}
+
+	@Override
+	public long getReceiveToHandledP50Micros() {
+		return micros(receiveToHandledLatency.getValueAtQuantile(0.5));
+	}
+
+	@Override
+	public long getReceiveToHandledP99Micros() {
+		return micros(receiveToHandledLatency.getValueAtQuantile(0.99));
+	}
+
+	@Override
+	public long getReceiveToHandledMaxMicros() {
+		return micros(receiveToHandledLatency.getMax());
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+/**
+ * JMX view of the {@link MOMTopicStats metrics of a topic}. Durations are in microseconds.
+ * 
+ * @author dvilleneuve
+ */
+public interface MOMTopicStatsMBean {
+
+	String getTopic();
+
+	long getReceivedMessages();
+
+	long getReceivedBytes();
+
+	long getPublishedMessages();
+
+	long getPublishedBytes();
+
+	/**
+	 * @return the number of published messages delayed by the publish throttle
+	 */
+	long getThrottledMessages();
+
+	/**
+	 * @return the number of published messages dropped or rejected by the publish throttle
+	 */
+	long getThrottleDroppedMessages();
+
+	long getThrottleDelayP99Micros();
+
+	long getPublishToReceiveP50Micros();
+
+	long getPublishToReceiveP99Micros();
+
+	long getPublishToReceiveMaxMicros();
+
+	long getReceiveToHandledP50Micros();
+
+	long getReceiveToHandledP99Micros();
+
+	long getReceiveToHandledMaxMicros();
+
+}
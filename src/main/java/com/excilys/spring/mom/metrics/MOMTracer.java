@@ -0,0 +1,185 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace messages from their publication to their handling. Published messages are stamped with their
+ * {@link #SENT_AT_HEADER send time} and a {@link #TRACE_ID_HEADER trace id}. When a stamped message is received, the
+ * publish to receive latency is reported to the {@link MOMMetrics metrics}, and the receive time is attached to the
+ * message so that the receive to handled latency can be reported once each method handler is done with it.
+ * <p/>
+ * The publish to receive latency compares the clocks of two hosts : the {@link #setClockOffsets(Map) clock offset} of
+ * a topic, in milliseconds, is added to it to compensate the skew between the clocks of its publishers and the local
+ * one.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMTracer {
+
+	public static final String SENT_AT_HEADER = "x-mom-sent-at";
+	public static final String TRACE_ID_HEADER = "x-mom-trace-id";
+
+	/**
+	 * Local header holding the {@link System#nanoTime()} at which the message has been received. It is never sent.
+	 */
+	public static final String RECEIVED_AT_HEADER = "x-mom-received-at";
+
+	/**
+	 * Suffix of the receive times stamped in this JVM : {@link System#nanoTime()} is meaningless elsewhere, and a
+	 * receive time coming from the MOM server mustn't be trusted.
+	 */
+	private static final String RECEIVED_AT_SUFFIX = "@" + Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+
+	/**
+	 * Key of the trace id in the logging {@link org.slf4j.MDC MDC} while a traced message is handled.
+	 */
+	public static final String MDC_TRACE_ID = "momTraceId";
+
+	private final String traceIdPrefix;
+	private final AtomicLong traceIdSequence;
+	private volatile Map<String, Long> clockOffsets;
+	private volatile long defaultClockOffsetMs;
+	private volatile boolean stamping = true;
+
+	public MOMTracer() {
+		this.traceIdPrefix = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE) + "-";
+		this.traceIdSequence = new AtomicLong();
+		this.clockOffsets = Collections.emptyMap();
+	}
+
+	/**
+	 * Return the headers to send with a message about to be published, or null if published messages aren't stamped.
+	 * 
+	 * @return
+	 */
+	public Map<String, String> stamp() {
+		if (!stamping) {
+			return null;
+		}
+
+		Map<String, String> headers = new HashMap<String, String>(4);
+		headers.put(SENT_AT_HEADER, String.valueOf(System.currentTimeMillis()));
+		headers.put(TRACE_ID_HEADER, traceIdPrefix + traceIdSequence.incrementAndGet());
+		return headers;
+	}
+
+	/**
+	 * Report the publish to receive latency of a message which has just been received, and return its headers with the
+	 * {@link #RECEIVED_AT_HEADER receive time}.
+	 * 
+	 * @param topic
+	 * @param headers
+	 *            of the message, may be null
+	 * @param metrics
+	 *            to report the latency to, may be null
+	 * @return the headers to dispatch the message with
+	 */
+	public Map<String, String> received(String topic, Map<String, String> headers, MOMMetrics metrics) {
+		long receivedAt = System.nanoTime();
+
+		if (headers == null) {
+			return Collections.singletonMap(RECEIVED_AT_HEADER, receivedAt + RECEIVED_AT_SUFFIX);
+		}
+
+		if (metrics != null) {
+			long sentAt = parseLong(headers.get(SENT_AT_HEADER));
+			if (sentAt > 0) {
+				long latencyMs = System.currentTimeMillis() - sentAt + getClockOffsetMs(topic);
+				metrics.messageLatency(topic, TimeUnit.MILLISECONDS.toNanos(Math.max(0, latencyMs)));
+			}
+		}
+
+		Map<String, String> tracedHeaders = new HashMap<String, String>(headers);
+		tracedHeaders.put(RECEIVED_AT_HEADER, receivedAt + RECEIVED_AT_SUFFIX);
+		return tracedHeaders;
+	}
+
+	/**
+	 * @param headers
+	 *            of a message dispatched by a traced client
+	 * @return the nanoseconds elapsed since the message has been received, or -1 if it isn't known, including when the
+	 *         receive time hasn't been stamped by a tracer of this JVM
+	 */
+	public static long sinceReceived(Map<String, String> headers) {
+		String receivedAt = headers != null ? headers.get(RECEIVED_AT_HEADER) : null;
+		if (receivedAt == null || !receivedAt.endsWith(RECEIVED_AT_SUFFIX)) {
+			return -1;
+		}
+
+		long receivedAtNanos = parseLong(receivedAt.substring(0, receivedAt.length() - RECEIVED_AT_SUFFIX.length()));
+		return receivedAtNanos != -1 ? Math.max(0, System.nanoTime() - receivedAtNanos) : -1;
+	}
+
+	public long getClockOffsetMs(String topic) {
+		Long offset = clockOffsets.get(topic);
+		return offset != null ? offset : defaultClockOffsetMs;
+	}
+
+	/**
+	 * Set the clock offset of the publishers of each topic, in milliseconds : positive when their clock is ahead of the
+	 * local one.
+	 * 
+	 * @param clockOffsets
+	 */
+	public void setClockOffsets(Map<String, Long> clockOffsets) {
+		this.clockOffsets = new ConcurrentHashMap<String, Long>(clockOffsets);
+	}
+
+	public long getDefaultClockOffsetMs() {
+		return defaultClockOffsetMs;
+	}
+
+	/**
+	 * Set the clock offset of the publishers of topics without {@link #setClockOffsets(Map) specific offset}.
+	 * 
+	 * @param defaultClockOffsetMs
+	 */
+	public void setDefaultClockOffsetMs(long defaultClockOffsetMs) {
+		this.defaultClockOffsetMs = defaultClockOffsetMs;
+	}
+
+	public boolean isStamping() {
+		return stamping;
+	}
+
+	/**
+	 * If false, published messages aren't stamped, but received messages stamped by other clients are still traced.
+	 * 
+	 * @param stamping
+	 */
+	public void setStamping(boolean stamping) {
+		this.stamping = stamping;
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.parser;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Results of the parsing of a single message, shared between the method handlers it is dispatched to. Each
+ * {@link MOMSharedResponseParser shared parser} parses the data at most once, the failure being remembered too. Other
+ * parsers parse the data on each call.
+ * <p/>
+ * Immutable results, like strings, boxed primitives and enums, are shared : the returned array is a copy holding the
+ * same objects for every handler. Results holding a mutable object, like a bean or a map bound from JSON, aren't
+ * shared, so that a handler modifying its parameters doesn't affect the others. For those, the JSON tree of the message
+ * is read once and each {@link MOMJsonTreeResponseParser JSON parser} binds its own parameters from it.
+ * <p/>
+ * This class isn't thread-safe : it is meant to be used by one dispatching thread at a time.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMDecodeCache {
+
+	private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class,
+			Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+			Double.class, BigInteger.class, BigDecimal.class));
+
+	/**
+	 * Remembers that a parser produces mutable results, which are never shared.
+	 */
+	private static final Object UNSHARED = new Object();
+
+	private final byte[] data;
+	private Map<MOMResponseParser, Object> results;
+	private Object tree;
+
+	public MOMDecodeCache(byte[] data) {
+		this.data = data;
+	}
+
+	public Object[] parse(MOMResponseParser parser) throws MOMResponseParsingException {
+		if (!(parser instanceof MOMSharedResponseParser)) {
+			return parser.parse(data);
+		}
+
+		if (results == null) {
+			results = new HashMap<MOMResponseParser, Object>(4);
+		}
+
+		Object result = results.get(parser);
+		if (result == UNSHARED) {
+			return parseUnshared(parser);
+		}
+		if (result == null) {
+			try {
+				Object[] parsed = parseUnshared(parser);
+				if (!isImmutable(parsed)) {
+					results.put(parser, UNSHARED);
+					return parsed;
+				}
+				result = parsed;
+			} catch (MOMResponseParsingException e) {
+				result = e;
+			}
+			results.put(parser, result);
+		}
+
+		if (result instanceof MOMResponseParsingException) {
+			throw (MOMResponseParsingException) result;
+		}
+		return ((Object[]) result).clone();
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	private Object[] parseUnshared(MOMResponseParser parser) throws MOMResponseParsingException {
+		if (parser instanceof MOMJsonTreeResponseParser) {
+			return ((MOMJsonTreeResponseParser) parser).parse(getTree(), data);
+		}
+		return parser.parse(data);
+	}
+
+	/**
+	 * @return the JSON tree of the data, read on the first call
+	 * @throws MOMResponseParsingException
+	 *             if the data isn't JSON
+	 */
+	private JsonNode getTree() throws MOMResponseParsingException {
+		if (tree == null) {
+			if (data == null || data.length == 0) {
+				tree = new MOMResponseParsingException("The json string is empty");
+			} else {
+				try {
+					tree = ObjectMapperSingleton.INSTANCE.getMapper().readTree(data);
+					if (tree == null) {
+						tree = new MOMResponseParsingException("The json string is empty");
+					}
+				} catch (IOException e) {
+					tree = new MOMResponseParsingException("Unable to parse the json string : "
+							+ MOMResponseParsingException.preview(data), e);
+				}
+			}
+		}
+
+		if (tree instanceof MOMResponseParsingException) {
+			throw (MOMResponseParsingException) tree;
+		}
+		return (JsonNode) tree;
+	}
+
+	private static boolean isImmutable(Object[] parsed) {
+		for (Object value : parsed) {
+			if (value != null && !(value instanceof Enum<?>) && !IMMUTABLE_TYPES.contains(value.getClass())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
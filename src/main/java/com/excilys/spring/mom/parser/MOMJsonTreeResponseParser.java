@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A {@link MOMSharedResponseParser MOMSharedResponseParser} of JSON data, able to bind its results from a JSON tree.
+ * The tree of a message is read once by the {@link MOMDecodeCache decode cache}, then each handler binds its own
+ * parameters from it.
+ * 
+ * @author dvilleneuve
+ * @see MOMDecodeCache
+ */
+public interface MOMJsonTreeResponseParser extends MOMSharedResponseParser {
+
+	/**
+	 * Bind the parameters from the JSON tree read from {@code data}.
+	 * 
+	 * @param tree
+	 * @param data
+	 *            the data the tree has been read from
+	 * @return
+	 */
+	Object[] parse(JsonNode tree, byte[] data) throws MOMResponseParsingException;
+
+}
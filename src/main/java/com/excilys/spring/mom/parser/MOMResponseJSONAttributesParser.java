@@ -17,6 +17,7 @@ package com.excilys.spring.mom.parser;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -24,6 +25,7 @@ import org.apache.commons.codec.binary.Base64;
 
 import com.excilys.spring.mom.annotation.MOMAttributeEncoding;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * Concrete class implemented {@link MOMResponseParser MOMResponseParser}.
@@ -42,7 +44,10 @@ import com.fasterxml.jackson.core.type.TypeReference;
  * @author dvilleneuve
  * @see MOMResponseParser
  */
-public class MOMResponseJSONAttributesParser implements MOMResponseParser {
+public class MOMResponseJSONAttributesParser implements MOMJsonTreeResponseParser {
+
+	private static final TypeReference<Map<String, Object>> JSON_MAP = new TypeReference<Map<String, Object>>() {
+	};
 
 	private final ParameterInfo[] bindAttributes;
 
@@ -56,17 +61,34 @@ public class MOMResponseJSONAttributesParser implements MOMResponseParser {
 			throw new MOMResponseParsingException("The json string is empty");
 		}
 
-		List<Object> results = new ArrayList<Object>();
 		Map<String, Object> jsonMap;
+		try {
+			jsonMap = ObjectMapperSingleton.INSTANCE.getMapper().readValue(data, JSON_MAP);
+		} catch (IOException e) {
+			throw new MOMResponseParsingException("Unable to parse the json string : "
+					+ MOMResponseParsingException.preview(data), e);
+		}
 
+		return bind(jsonMap);
+	}
+
+	@Override
+	public Object[] parse(JsonNode tree, byte[] data) throws MOMResponseParsingException {
+		Map<String, Object> jsonMap;
 		try {
-			jsonMap = ObjectMapperSingleton.INSTANCE.getMapper().readValue(data,
-					new TypeReference<Map<String, Object>>() {
-					});
+			jsonMap = ObjectMapperSingleton.INSTANCE.getMapper().readValue(
+					ObjectMapperSingleton.INSTANCE.getMapper().treeAsTokens(tree), JSON_MAP);
 		} catch (IOException e) {
-			throw new MOMResponseParsingException("Unable to parse the json string : " + new String(data), e);
+			throw new MOMResponseParsingException("Unable to parse the json string : "
+					+ MOMResponseParsingException.preview(data), e);
 		}
 
+		return bind(jsonMap);
+	}
+
+	private Object[] bind(Map<String, Object> jsonMap) {
+		List<Object> results = new ArrayList<Object>();
+
 		// For each annotated parameter, try to get back the json value according to the key
 		for (ParameterInfo bindAttribute : bindAttributes) {
 			Object attributeValue = jsonMap.get(bindAttribute.getName());
@@ -87,4 +109,21 @@ public class MOMResponseJSONAttributesParser implements MOMResponseParser {
 
 		return results.toArray();
 	}
+
+	@Override
+	public int hashCode() {
+		return 31 + Arrays.hashCode(bindAttributes);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MOMResponseJSONAttributesParser other = (MOMResponseJSONAttributesParser) obj;
+		return Arrays.equals(bindAttributes, other.bindAttributes);
+	}
 }
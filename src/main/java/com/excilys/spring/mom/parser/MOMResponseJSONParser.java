@@ -18,6 +18,7 @@ package com.excilys.spring.mom.parser;
 import java.io.IOException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 
 /**
@@ -28,7 +29,7 @@ import com.fasterxml.jackson.datatype.joda.JodaModule;
  * @author dvilleneuve
  * @see MOMResponseParser
  */
-public class MOMResponseJSONParser implements MOMResponseParser {
+public class MOMResponseJSONParser implements MOMJsonTreeResponseParser {
 
 	private final Class<?> bindClass;
 
@@ -49,9 +50,42 @@ public class MOMResponseJSONParser implements MOMResponseParser {
 		try {
 			return new Object[] { ObjectMapperSingleton.INSTANCE.getMapper().readValue(data, bindClass) };
 		} catch (JsonProcessingException e) {
-			throw new MOMResponseParsingException("Unable to parse the json string : " + new String(data), e);
+			throw new MOMResponseParsingException("Unable to parse the json string : "
+					+ MOMResponseParsingException.preview(data), e);
 		} catch (IOException e) {
 			throw new MOMResponseParsingException("Unable to parse the json string", e);
 		}
 	}
+
+	@Override
+	public Object[] parse(JsonNode tree, byte[] data) throws MOMResponseParsingException {
+		try {
+			return new Object[] { ObjectMapperSingleton.INSTANCE.getMapper().treeToValue(tree, bindClass) };
+		} catch (JsonProcessingException e) {
+			throw new MOMResponseParsingException("Unable to parse the json string : "
+					+ MOMResponseParsingException.preview(data), e);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 + ((bindClass == null) ? 0 : bindClass.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MOMResponseJSONParser other = (MOMResponseJSONParser) obj;
+		if (bindClass == null) {
+			if (other.bindClass != null)
+				return false;
+		} else if (!bindClass.equals(other.bindClass))
+			return false;
+		return true;
+	}
 }
@@ -7,6 +7,8 @@ public class MOMResponseParsingException extends Exception {
 	 */
 	private static final long serialVersionUID = 6230843450999328205L;
 
+	private static final int MAX_PREVIEW_LENGTH = 128;
+
 	public MOMResponseParsingException() {
 		super();
 	}
@@ -23,4 +25,18 @@ public class MOMResponseParsingException extends Exception {
 		super(cause);
 	}
 
+	/**
+	 * Return the beginning of the data as a string, to be included in an exception message without copying a whole
+	 * payload.
+	 * 
+	 * @param data
+	 * @return
+	 */
+	static String preview(byte[] data) {
+		if (data.length <= MAX_PREVIEW_LENGTH) {
+			return new String(data);
+		}
+		return new String(data, 0, MAX_PREVIEW_LENGTH) + "... (" + data.length + " bytes)";
+	}
+
 }
@@ -23,10 +23,20 @@ package com.excilys.spring.mom.parser;
  * @author dvilleneuve
  * @see MOMResponseParser
  */
-public class MOMResponseStringParser implements MOMResponseParser {
+public class MOMResponseStringParser implements MOMSharedResponseParser {
 
 	public Object[] parse(byte[] data) throws MOMResponseParsingException {
 		return new Object[] { new String(data) };
 	}
 
+	@Override
+	public int hashCode() {
+		return MOMResponseStringParser.class.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj != null && obj.getClass() == MOMResponseStringParser.class;
+	}
+
 }
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.parser;
+
+/**
+ * A {@link MOMResponseParser MOMResponseParser} whose results can be shared between the method handlers of a topic,
+ * so that a message is parsed only once by equal parsers.
+ * <p/>
+ * Implementations have to override {@link #equals(Object)} and {@link #hashCode()} : two parsers are equal if they
+ * produce the same results from the same data.
+ * 
+ * @author dvilleneuve
+ * @see MOMDecodeCache
+ */
+public interface MOMSharedResponseParser extends MOMResponseParser {
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ratelimit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limit the rate of messages published by a {@link com.excilys.spring.mom.client.MOMClient MOMClient}, per topic and
+ * for the whole client. A message is published only when both the limiter of its topic, if any, and the global
+ * limiter, if any, grant a permit.
+ * 
+ * @author dvilleneuve
+ * @see MOMRateLimiter
+ */
+public class MOMPublishThrottle {
+
+	private static final long DEFAULT_MAX_DELAY_MS = 5000;
+
+	private final MOMThrottleMode mode;
+	private final ConcurrentMap<String, MOMRateLimiter> topicLimiters;
+	private volatile MOMRateLimiter globalLimiter;
+	private volatile long maxDelayNanos;
+
+	public MOMPublishThrottle(MOMThrottleMode mode) {
+		this.mode = mode;
+		this.topicLimiters = new ConcurrentHashMap<String, MOMRateLimiter>();
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MS);
+	}
+
+	/**
+	 * Take a permit for a message published on {@code topic}, if it can be granted within {@code maxWaitNanos}.
+	 * 
+	 * @param topic
+	 * @param maxWaitNanos
+	 * @return the time to wait, in nanoseconds, before publishing the message, or -1 if it can't be published
+	 */
+	public long reserve(String topic, long maxWaitNanos) {
+		MOMRateLimiter topicLimiter = topicLimiters.get(topic);
+		long topicWait = 0;
+		if (topicLimiter != null) {
+			topicWait = topicLimiter.reserve(maxWaitNanos);
+			if (topicWait < 0) {
+				return -1;
+			}
+		}
+
+		MOMRateLimiter global = globalLimiter;
+		if (global != null) {
+			long globalWait = global.reserve(maxWaitNanos);
+			if (globalWait < 0) {
+				if (topicLimiter != null) {
+					topicLimiter.release(topicWait);
+				}
+				return -1;
+			}
+			return Math.max(topicWait, globalWait);
+		}
+		return topicWait;
+	}
+
+	/**
+	 * Take a permit for a message published on {@code topic} if it can be granted immediately.
+	 * 
+	 * @param topic
+	 * @return true if the message can be published
+	 */
+	public boolean tryAcquire(String topic) {
+		return reserve(topic, 0) == 0;
+	}
+
+	public MOMThrottleMode getMode() {
+		return mode;
+	}
+
+	public MOMRateLimiter getGlobalLimiter() {
+		return globalLimiter;
+	}
+
+	/**
+	 * Limit the rate of all the messages published by the client.
+	 * 
+	 * @param permitsPerSecond
+	 * @param burst
+	 */
+	public void setGlobalLimit(double permitsPerSecond, int burst) {
+		this.globalLimiter = new MOMRateLimiter(permitsPerSecond, burst);
+	}
+
+	public MOMRateLimiter getTopicLimiter(String topic) {
+		return topicLimiters.get(topic);
+	}
+
+	public Map<String, MOMRateLimiter> getTopicLimiters() {
+		return Collections.unmodifiableMap(topicLimiters);
+	}
+
+	/**
+	 * Limit the rate of the messages published on {@code topic}.
+	 * 
+	 * @param topic
+	 * @param permitsPerSecond
+	 * @param burst
+	 */
+	public void setTopicLimit(String topic, double permitsPerSecond, int burst) {
+		topicLimiters.put(topic, new MOMRateLimiter(permitsPerSecond, burst));
+	}
+
+	/**
+	 * Limit the rate of the messages published on each topic of {@code permitsPerSecond}, with a burst of one second.
+	 * 
+	 * @param permitsPerSecond
+	 */
+	public void setTopicLimits(Map<String, Double> permitsPerSecond) {
+		for (Map.Entry<String, Double> topicLimit : permitsPerSecond.entrySet()) {
+			double rate = topicLimit.getValue();
+			setTopicLimit(topicLimit.getKey(), rate, (int) Math.max(1, Math.ceil(rate)));
+		}
+	}
+
+	public long getMaxDelayNanos() {
+		return maxDelayNanos;
+	}
+
+	/**
+	 * Set the maximum delay of a message in {@link MOMThrottleMode#SMOOTH SMOOTH} mode, or of a publishing thread in
+	 * {@link MOMThrottleMode#BLOCK BLOCK} mode. Beyond, the message is dropped, or rejected in
+	 * {@link MOMThrottleMode#BLOCK BLOCK} mode.
+	 * 
+	 * @param maxDelayMs
+	 */
+	public void setMaxDelayMs(long maxDelayMs) {
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+	}
+}
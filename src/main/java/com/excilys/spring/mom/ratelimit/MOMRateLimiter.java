@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm : the state of the bucket is the theoretical
+ * arrival time of the next permit, updated by compare-and-set, so that granting a permit doesn't allocate nor lock.
+ * <p/>
+ * Up to {@code burst} permits can be granted at once, then permits are granted at {@code permitsPerSecond}.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMRateLimiter {
+
+	private final double permitsPerSecond;
+	private final int burst;
+	private final long interval;
+	private final long burstTolerance;
+	private final AtomicLong theoreticalArrivalTime;
+
+	private final AtomicLong granted;
+	private final AtomicLong delayed;
+	private final AtomicLong rejected;
+	private final AtomicLong waitNanos;
+
+	public MOMRateLimiter(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("permitsPerSecond must be positive : " + permitsPerSecond);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be at least 1 : " + burst);
+		}
+
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+		this.burstTolerance = interval * burst;
+		this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+		this.granted = new AtomicLong();
+		this.delayed = new AtomicLong();
+		this.rejected = new AtomicLong();
+		this.waitNanos = new AtomicLong();
+	}
+
+	/**
+	 * Take a permit if it can be granted within {@code maxWaitNanos}.
+	 * 
+	 * @param maxWaitNanos
+	 * @return the time to wait, in nanoseconds, before using the permit, or -1 if no permit has been granted
+	 */
+	public long reserve(long maxWaitNanos) {
+		while (true) {
+			long now = System.nanoTime();
+			long current = theoreticalArrivalTime.get();
+			long next = Math.max(current, now) + interval;
+			long wait = next - burstTolerance - now;
+
+			if (wait > maxWaitNanos) {
+				rejected.incrementAndGet();
+				return -1;
+			}
+
+			if (theoreticalArrivalTime.compareAndSet(current, next)) {
+				granted.incrementAndGet();
+				if (wait <= 0) {
+					return 0;
+				}
+				delayed.incrementAndGet();
+				waitNanos.addAndGet(wait);
+				return wait;
+			}
+		}
+	}
+
+	/**
+	 * Take a permit if it can be granted immediately.
+	 * 
+	 * @return true if the permit has been granted
+	 */
+	public boolean tryAcquire() {
+		return reserve(0) == 0;
+	}
+
+	/**
+	 * Give back a permit taken by {@link #reserve(long)} which won't be used.
+	 * 
+	 * @param wait
+	 *            returned by {@link #reserve(long)}
+	 */
+	void release(long wait) {
+		theoreticalArrivalTime.addAndGet(-interval);
+		granted.decrementAndGet();
+		if (wait > 0) {
+			delayed.decrementAndGet();
+			waitNanos.addAndGet(-wait);
+		}
+	}
+
+	/**
+	 * Return how much of the burst is in use : 0 when the bucket is full, 1 when it's empty. A value above 1 means that
+	 * permits have been reserved in advance.
+	 * 
+	 * @return
+	 */
+	public double getSaturation() {
+		long ahead = theoreticalArrivalTime.get() - System.nanoTime();
+		return ahead <= 0 ? 0 : (double) ahead / burstTolerance;
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return the number of granted permits
+	 */
+	public long getGranted() {
+		return granted.get();
+	}
+
+	/**
+	 * @return the number of granted permits which had to wait
+	 */
+	public long getDelayed() {
+		return delayed.get();
+	}
+
+	/**
+	 * @return the number of permits which couldn't be granted
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the cumulated wait of the delayed permits, in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return "MOMRateLimiter [permitsPerSecond=" + permitsPerSecond + ", burst=" + burst + "]";
+	}
+}
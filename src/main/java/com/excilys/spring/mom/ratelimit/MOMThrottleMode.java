@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ratelimit;
+
+/**
+ * Behaviour of {@link com.excilys.spring.mom.client.MOMClient#publish(String, byte[]) publish} when a rate limit is
+ * exceeded.
+ * 
+ * @author dvilleneuve
+ * @see MOMPublishThrottle
+ */
+public enum MOMThrottleMode {
+	/**
+	 * The publishing thread waits until it gets a permit. If it can't get one within the maximum delay of the throttle,
+	 * the message isn't published and {@code publish} throws a
+	 * {@link java.util.concurrent.RejectedExecutionException RejectedExecutionException}.
+	 */
+	BLOCK,
+	/**
+	 * The message is dropped.
+	 */
+	TRY,
+	/**
+	 * The message is queued and published when it gets a permit, within the maximum delay of the throttle.
+	 */
+	SMOOTH
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.reactive;
+
+import java.io.InputStream;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.parser.MOMResponseBinaryParser;
+import com.excilys.spring.mom.parser.MOMResponseJSONParser;
+import com.excilys.spring.mom.parser.MOMResponseParser;
+import com.excilys.spring.mom.parser.MOMResponseParsingException;
+import com.excilys.spring.mom.parser.MOMResponseStringParser;
+
+/**
+ * Reactive Streams {@link Publisher} of the messages received on a topic, parsed as the given type : byte arrays are
+ * left as is, strings are decoded and other types are bound from JSON. Each {@link Subscriber subscriber} gets its
+ * own {@link MOMTopicSubscription subscription}, subscribed to the topic until it's cancelled.
+ * <p/>
+ * This class is the only entry point to Reactive Streams, so that {@link MOMClient} doesn't depend on the optional
+ * <code>org.reactivestreams:reactive-streams</code> dependency.
+ * 
+ * @author dvilleneuve
+ */
+public class MOMTopicPublisher<T> implements Publisher<T> {
+
+	/**
+	 * Default number of received messages buffered until they are requested.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+
+	private final MOMClient client;
+	private final String topic;
+	private final Class<T> type;
+	private final int bufferSize;
+	private final MOMMappingConsum consum;
+	private final MOMResponseParser parser;
+
+	public MOMTopicPublisher(MOMClient client, String topic, Class<T> type, int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be positive : " + bufferSize);
+		}
+
+		this.client = client;
+		this.topic = topic;
+		this.type = type;
+		this.bufferSize = bufferSize;
+
+		if (type == byte[].class) {
+			this.consum = MOMMappingConsum.BINARY;
+			this.parser = new RawParser();
+		} else if (InputStream.class.isAssignableFrom(type)) {
+			this.consum = MOMMappingConsum.BINARY;
+			this.parser = new MOMResponseBinaryParser();
+		} else if (type == String.class) {
+			this.consum = MOMMappingConsum.STRING;
+			this.parser = new MOMResponseStringParser();
+		} else {
+			this.consum = MOMMappingConsum.JSON;
+			this.parser = new MOMResponseJSONParser(type);
+		}
+	}
+
+	/**
+	 * Create a publisher buffering up to {@link #DEFAULT_BUFFER_SIZE} messages not requested yet by each subscriber.
+	 */
+	public static <T> Publisher<T> create(MOMClient client, String topic, Class<T> type) {
+		return create(client, topic, type, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a publisher buffering up to {@code bufferSize} messages not requested yet by each subscriber.
+	 */
+	public static <T> Publisher<T> create(MOMClient client, String topic, Class<T> type, int bufferSize) {
+		return new MOMTopicPublisher<T>(client, topic, type, bufferSize);
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("The subscriber can't be null");
+		}
+
+		MOMTopicSubscription<T> subscription = new MOMTopicSubscription<T>(client, topic, type, subscriber,
+				bufferSize, consum, parser);
+		subscription.start();
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Leave the received data as is.
+	 */
+	private static final class RawParser implements MOMResponseParser {
+
+		@Override
+		public Object[] parse(byte[] data) throws MOMResponseParsingException {
+			return new Object[] { data };
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.reactive;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMClient;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.dispatch.MOMDispatchFailureHandler;
+import com.excilys.spring.mom.parser.MOMDecodeCache;
+import com.excilys.spring.mom.parser.MOMResponseParser;
+
+/**
+ * Subscription of a {@link Subscriber} to the messages received on a topic. Received messages are parsed then buffered
+ * until the subscriber requests them. The topic is subscribed with a prefetch of the size of the buffer, in a client
+ * {@link com.excilys.spring.mom.annotation.MOMAckMode acknowledgement mode}, and a message is acknowledged once
+ * signaled to the subscriber : when the buffer is full, the MOM server holds the next messages instead of sending
+ * them. If it sends more anyway, for instance because the topic was already subscribed with a larger prefetch, the
+ * received message is buffered too rather than dropped, and stays unacknowledged until signaled : the buffer then grows
+ * up to the prefetch applied by the MOM server.
+ * <p/>
+ * Messages are signaled to the subscriber serially, by the thread receiving a message or requesting more of them.
+ * 
+ * @author dvilleneuve
+ */
+class MOMTopicSubscription<T> implements Subscription {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MOMTopicSubscription.class);
+
+	private static final Method ON_MESSAGE;
+
+	static {
+		try {
+			ON_MESSAGE = MOMTopicSubscription.class.getDeclaredMethod("onMessage", Object.class, Map.class);
+			ON_MESSAGE.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final MOMClient client;
+	private final String topic;
+	private final Class<T> type;
+	private final Subscriber<? super T> subscriber;
+	private final int bufferSize;
+	private final MOMMethodHandler methodHandler;
+
+	private final Queue<BufferedMessage<T>> buffer = new ConcurrentLinkedQueue<BufferedMessage<T>>();
+	private final AtomicInteger buffered = new AtomicInteger();
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private volatile boolean cancelled;
+	private volatile boolean overflowed;
+	private Throwable error;
+
+	MOMTopicSubscription(MOMClient client, String topic, Class<T> type, Subscriber<? super T> subscriber,
+			int bufferSize, MOMMappingConsum consum, MOMResponseParser parser) {
+		this.client = client;
+		this.topic = topic;
+		this.type = type;
+		this.subscriber = subscriber;
+		this.bufferSize = bufferSize;
+		this.methodHandler = new SubscriptionMethodHandler(consum, parser);
+	}
+
+	/**
+	 * Signal the subscription to the subscriber, then subscribe to the topic.
+	 */
+	void start() {
+		subscriber.onSubscribe(this);
+		if (cancelled) {
+			return;
+		}
+
+		try {
+			client.subscribe(topic, methodHandler, bufferSize);
+		} catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Invoked by the method handler with each message received on the topic. The message is acknowledged once
+	 * signaled to the subscriber.
+	 * 
+	 * @param message
+	 * @param headers
+	 */
+	void onMessage(Object message, Map<String, String> headers) {
+		if (cancelled) {
+			methodHandler.acknowledge(topic, headers);
+			return;
+		}
+
+		if (buffered.incrementAndGet() > bufferSize && !overflowed) {
+			overflowed = true;
+			LOGGER.warn("More than {} messages are buffered for the subscriber of {}, the MOM server doesn't hold "
+					+ "the messages not acknowledged yet", bufferSize, topic);
+		}
+
+		buffer.offer(new BufferedMessage<T>(type.cast(message), headers));
+		drain();
+	}
+
+	@Override
+	public void request(long n) {
+		if (n <= 0) {
+			fail(new IllegalArgumentException("The number of requested messages must be positive : " + n));
+			return;
+		}
+
+		long current;
+		long next;
+		do {
+			current = demand.get();
+			if (current == Long.MAX_VALUE) {
+				break;
+			}
+			next = current + n;
+			if (next < 0) {
+				next = Long.MAX_VALUE;
+			}
+		} while (!demand.compareAndSet(current, next));
+
+		drain();
+	}
+
+	@Override
+	public void cancel() {
+		if (cancelled) {
+			return;
+		}
+
+		cancelled = true;
+		try {
+			client.unsubscribe(topic, methodHandler);
+		} catch (Exception e) {
+			LOGGER.warn("Can't unsubscribe from {}", topic, e);
+		}
+		drain();
+	}
+
+	/**
+	 * Cancel the subscription and signal the error to the subscriber.
+	 */
+	private void fail(Throwable e) {
+		if (cancelled) {
+			return;
+		}
+
+		error = e;
+		cancel();
+	}
+
+	/**
+	 * Signal the buffered messages to the subscriber, as long as it requests them. A single thread drains at a time,
+	 * the others only mark that there is more work to do.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+
+		int missed = 1;
+		do {
+			if (cancelled) {
+				BufferedMessage<T> message;
+				while ((message = buffer.poll()) != null) {
+					methodHandler.acknowledge(topic, message.headers);
+				}
+				buffered.set(0);
+				signalError();
+			} else {
+				long delivered = 0;
+				long requested = demand.get();
+				BufferedMessage<T> message;
+				while (delivered != requested && !cancelled && (message = buffer.poll()) != null) {
+					buffered.decrementAndGet();
+					delivered++;
+					try {
+						subscriber.onNext(message.message);
+					} catch (Throwable e) {
+						// The subscriber broke the specification: stop signaling it
+						LOGGER.error("The subscriber of {} failed, cancel its subscription", topic, e);
+						cancel();
+					} finally {
+						methodHandler.acknowledge(topic, message.headers);
+					}
+				}
+
+				if (delivered > 0 && requested != Long.MAX_VALUE) {
+					demand.addAndGet(-delivered);
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void signalError() {
+		Throwable e = error;
+		if (e != null) {
+			error = null;
+			subscriber.onError(e);
+		}
+	}
+
+	public MOMMethodHandler getMethodHandler() {
+		return methodHandler;
+	}
+
+	/**
+	 * @return the number of received messages not requested yet
+	 */
+	public int getBuffered() {
+		return buffered.get();
+	}
+
+	/**
+	 * Method handler buffering the parsed messages with their headers, and leaving them unacknowledged until they are
+	 * signaled to the subscriber.
+	 */
+	private final class SubscriptionMethodHandler extends MOMMethodHandler {
+
+		private SubscriptionMethodHandler(MOMMappingConsum consum, MOMResponseParser parser) {
+			super(ON_MESSAGE, MOMTopicSubscription.this, consum, parser);
+		}
+
+		@Override
+		public Object deliver(String topic, byte[] data, Map<String, String> headers, MOMDecodeCache decodeCache,
+				MOMDispatchFailureHandler failureHandler) {
+			try {
+				onMessage(getParser().parse(data)[0], headers);
+			} catch (Exception e) {
+				failureHandler.dispatchFailed(topic, this, data, headers, e);
+				acknowledge(topic, headers);
+			}
+			return null;
+		}
+	}
+
+	private static final class BufferedMessage<T> {
+
+		private final T message;
+		private final Map<String, String> headers;
+
+		private BufferedMessage(T message, Map<String, String> headers) {
+			this.message = message;
+			this.headers = headers;
+		}
+	}
+}
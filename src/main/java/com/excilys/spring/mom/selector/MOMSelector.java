@@ -0,0 +1,183 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.selector;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.excilys.spring.mom.parser.ObjectMapperSingleton;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A message selector compiled once from an expression, and evaluated against the raw data and headers of each received
+ * message before it is parsed.
+ * <p/>
+ * The expression syntax is a subset of the SQL-92 conditional expressions used by JMS selectors :
+ * <ul>
+ * <li><code>header.name</code> refers to the value of the header <code>name</code></li>
+ * <li><code>name</code> refers to the top-level field <code>name</code> of the JSON object received</li>
+ * <li>comparisons <code>=, &lt;&gt;, !=, &lt;, &lt;=, &gt;, &gt;=</code> with a string (<code>'value'</code>), number or
+ * boolean (<code>TRUE, FALSE</code>) literal</li>
+ * <li><code>IS NULL</code> and <code>IS NOT NULL</code></li>
+ * <li><code>AND</code>, <code>OR</code>, <code>NOT</code> and parentheses</li>
+ * </ul>
+ * For example : <code>header.type = 'trade' AND (symbol = 'EURUSD' OR amount &gt;= 1000000)</code>.
+ * <p/>
+ * JSON fields are extracted by streaming over the top-level object only, nested values are skipped without being
+ * parsed. A comparison involving a missing value is false.
+ *
+ * @author dvilleneuve
+ * @see com.excilys.spring.mom.annotation.MOMMapping#selector()
+ */
+public class MOMSelector {
+
+	private final String expression;
+	private final SelectorNode root;
+	private final List<String> jsonFields;
+	private final boolean headerOnly;
+	private final boolean brokerEquivalent;
+
+	MOMSelector(String expression, SelectorNode root, List<String> jsonFields) {
+		this.expression = expression;
+		this.root = root;
+		this.jsonFields = Collections.unmodifiableList(jsonFields);
+		this.headerOnly = jsonFields.isEmpty();
+		this.brokerEquivalent = headerOnly && root.isBrokerEquivalent();
+	}
+
+	/**
+	 * Compile a selector expression.
+	 *
+	 * @param expression
+	 * @return the compiled selector
+	 * @throws IllegalArgumentException
+	 *             if the expression is not valid
+	 */
+	public static MOMSelector compile(String expression) {
+		return new SelectorParser(expression).parse();
+	}
+
+	/**
+	 * Evaluate the selector against a received message.
+	 *
+	 * @param data
+	 * @param headers
+	 * @return true if the message is selected
+	 */
+	public boolean matches(byte[] data, Map<String, String> headers) {
+		Object[] jsonValues = headerOnly ? null : extractJsonValues(data);
+		Map<String, String> safeHeaders = headers != null ? headers : Collections.<String, String> emptyMap();
+		return root.evaluate(safeHeaders, jsonValues);
+	}
+
+	/**
+	 * @return true if the selector only refers to headers
+	 */
+	public boolean isHeaderOnly() {
+		return headerOnly;
+	}
+
+	/**
+	 * Render the selector with the JMS syntax understood by brokers supporting the STOMP <code>selector</code>
+	 * subscription header. Only selectors made of string equalities between headers and literals, combined by
+	 * <code>AND</code> and <code>OR</code>, are rendered : brokers compare header values as strings and use the
+	 * three-valued logic of SQL, so other selectors could drop messages selected locally.
+	 *
+	 * @return the broker selector, or null if the selector can't be evaluated by a broker as it is locally
+	 */
+	public String toBrokerSelector() {
+		if (!brokerEquivalent) {
+			return null;
+		}
+		StringBuilder builder = new StringBuilder();
+		root.appendBrokerSelector(builder);
+		return builder.toString();
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	public List<String> getJsonFields() {
+		return jsonFields;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/**
+	 * Stream over the top-level fields of the JSON object and keep the value of the fields referred by the selector.
+	 * The scan stops as soon as every field has been found. If the data isn't a JSON object, every value is missing.
+	 */
+	private Object[] extractJsonValues(byte[] data) {
+		Object[] values = new Object[jsonFields.size()];
+		if (data == null || data.length == 0) {
+			return values;
+		}
+
+		try {
+			JsonParser parser = ObjectMapperSingleton.INSTANCE.getMapper().getJsonFactory().createJsonParser(data);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					return values;
+				}
+
+				int remaining = values.length;
+				while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+					int index = jsonFields.indexOf(parser.getCurrentName());
+					JsonToken token = parser.nextToken();
+
+					if (index >= 0 && values[index] == null) {
+						values[index] = readValue(parser, token);
+						remaining--;
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			// Malformed JSON : keep the values found so far
+		}
+		return values;
+	}
+
+	private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getDoubleValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return SelectorNode.NULL;
+			default:
+				// Objects and arrays can only be tested with IS NULL / IS NOT NULL
+				parser.skipChildren();
+				return SelectorNode.STRUCTURE;
+		}
+	}
+}
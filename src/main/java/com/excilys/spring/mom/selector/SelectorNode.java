@@ -0,0 +1,274 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.selector;
+
+import java.util.Map;
+
+/**
+ * A node of a compiled {@link MOMSelector MOMSelector} expression tree.
+ *
+ * @author dvilleneuve
+ */
+abstract class SelectorNode {
+
+	/**
+	 * Value of a JSON field explicitly set to null.
+	 */
+	static final Object NULL = new Object();
+
+	/**
+	 * Value of a JSON field holding an object or an array.
+	 */
+	static final Object STRUCTURE = new Object();
+
+	abstract boolean evaluate(Map<String, String> headers, Object[] jsonValues);
+
+	abstract void appendBrokerSelector(StringBuilder builder);
+
+	/**
+	 * @return true if a broker evaluates the node as it's evaluated locally. Brokers compare header values as strings
+	 *         and use the three-valued logic of SQL, which only agree with the local evaluation on string equalities
+	 *         combined by <code>AND</code> and <code>OR</code>.
+	 */
+	abstract boolean isBrokerEquivalent();
+
+	/**
+	 * Reference to a header or to a top-level JSON field.
+	 */
+	static final class Field {
+
+		private final String name;
+		private final int jsonIndex;
+
+		Field(String name, int jsonIndex) {
+			this.name = name;
+			this.jsonIndex = jsonIndex;
+		}
+
+		static Field header(String name) {
+			return new Field(name, -1);
+		}
+
+		Object value(Map<String, String> headers, Object[] jsonValues) {
+			Object value = jsonIndex < 0 ? headers.get(name) : jsonValues[jsonIndex];
+			return value == NULL ? null : value;
+		}
+
+		void appendBrokerSelector(StringBuilder builder) {
+			builder.append(name);
+		}
+	}
+
+	static final class And extends SelectorNode {
+
+		private final SelectorNode left;
+		private final SelectorNode right;
+
+		And(SelectorNode left, SelectorNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean evaluate(Map<String, String> headers, Object[] jsonValues) {
+			return left.evaluate(headers, jsonValues) && right.evaluate(headers, jsonValues);
+		}
+
+		@Override
+		boolean isBrokerEquivalent() {
+			return left.isBrokerEquivalent() && right.isBrokerEquivalent();
+		}
+
+		@Override
+		void appendBrokerSelector(StringBuilder builder) {
+			builder.append('(');
+			left.appendBrokerSelector(builder);
+			builder.append(" AND ");
+			right.appendBrokerSelector(builder);
+			builder.append(')');
+		}
+	}
+
+	static final class Or extends SelectorNode {
+
+		private final SelectorNode left;
+		private final SelectorNode right;
+
+		Or(SelectorNode left, SelectorNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean evaluate(Map<String, String> headers, Object[] jsonValues) {
+			return left.evaluate(headers, jsonValues) || right.evaluate(headers, jsonValues);
+		}
+
+		@Override
+		boolean isBrokerEquivalent() {
+			return left.isBrokerEquivalent() && right.isBrokerEquivalent();
+		}
+
+		@Override
+		void appendBrokerSelector(StringBuilder builder) {
+			builder.append('(');
+			left.appendBrokerSelector(builder);
+			builder.append(" OR ");
+			right.appendBrokerSelector(builder);
+			builder.append(')');
+		}
+	}
+
+	static final class Not extends SelectorNode {
+
+		private final SelectorNode node;
+
+		Not(SelectorNode node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean evaluate(Map<String, String> headers, Object[] jsonValues) {
+			return !node.evaluate(headers, jsonValues);
+		}
+
+		@Override
+		boolean isBrokerEquivalent() {
+			// NOT UNKNOWN is UNKNOWN for a broker, whereas NOT false is true locally
+			return false;
+		}
+
+		@Override
+		void appendBrokerSelector(StringBuilder builder) {
+			builder.append("NOT ");
+			node.appendBrokerSelector(builder);
+		}
+	}
+
+	static final class IsNull extends SelectorNode {
+
+		private final Field field;
+		private final boolean negated;
+
+		IsNull(Field field, boolean negated) {
+			this.field = field;
+			this.negated = negated;
+		}
+
+		@Override
+		boolean evaluate(Map<String, String> headers, Object[] jsonValues) {
+			return (field.value(headers, jsonValues) == null) != negated;
+		}
+
+		@Override
+		boolean isBrokerEquivalent() {
+			return false;
+		}
+
+		@Override
+		void appendBrokerSelector(StringBuilder builder) {
+			field.appendBrokerSelector(builder);
+			builder.append(negated ? " IS NOT NULL" : " IS NULL");
+		}
+	}
+
+	static final class Comparison extends SelectorNode {
+
+		private final Field field;
+		private final String operator;
+		private final Object literal;
+
+		Comparison(Field field, String operator, Object literal) {
+			this.field = field;
+			this.operator = operator;
+			this.literal = literal;
+		}
+
+		@Override
+		boolean evaluate(Map<String, String> headers, Object[] jsonValues) {
+			Object value = field.value(headers, jsonValues);
+			if (value == null || value == STRUCTURE) {
+				return false;
+			}
+
+			int comparison;
+			if (literal instanceof Double) {
+				Double number = toNumber(value);
+				if (number == null) {
+					return false;
+				}
+				comparison = number.compareTo((Double) literal);
+			} else if (literal instanceof Boolean) {
+				if (!(value instanceof Boolean) && !(value instanceof String)) {
+					return false;
+				}
+				comparison = Boolean.valueOf(value.toString()).equals(literal) ? 0 : 1;
+			} else {
+				if (!(value instanceof String)) {
+					return false;
+				}
+				comparison = ((String) value).compareTo((String) literal);
+			}
+
+			if ("=".equals(operator)) {
+				return comparison == 0;
+			} else if ("<>".equals(operator)) {
+				return comparison != 0;
+			} else if ("<".equals(operator)) {
+				return comparison < 0;
+			} else if ("<=".equals(operator)) {
+				return comparison <= 0;
+			} else if (">".equals(operator)) {
+				return comparison > 0;
+			} else {
+				return comparison >= 0;
+			}
+		}
+
+		@Override
+		boolean isBrokerEquivalent() {
+			// Numbers are compared as numbers locally, as strings by a broker
+			return "=".equals(operator) && literal instanceof String;
+		}
+
+		@Override
+		void appendBrokerSelector(StringBuilder builder) {
+			field.appendBrokerSelector(builder);
+			builder.append(' ').append(operator).append(' ');
+			if (literal instanceof String) {
+				builder.append('\'').append(((String) literal).replace("'", "''")).append('\'');
+			} else if (literal instanceof Double) {
+				double number = (Double) literal;
+				builder.append(number == Math.rint(number) ? String.valueOf((long) number) : String.valueOf(number));
+			} else {
+				builder.append(((Boolean) literal) ? "TRUE" : "FALSE");
+			}
+		}
+
+		private static Double toNumber(Object value) {
+			if (value instanceof Double) {
+				return (Double) value;
+			} else if (value instanceof String) {
+				try {
+					return Double.valueOf((String) value);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.selector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser compiling a selector expression to a {@link MOMSelector MOMSelector}.
+ *
+ * <pre>
+ * or         := and ( OR and )*
+ * and        := not ( AND not )*
+ * not        := NOT not | primary
+ * primary    := '(' or ')' | field IS [NOT] NULL | field operator literal
+ * </pre>
+ *
+ * @author dvilleneuve
+ */
+class SelectorParser {
+
+	private static final String HEADER_PREFIX = "header.";
+
+	private final String expression;
+	private final List<String> jsonFields;
+	private int position;
+
+	SelectorParser(String expression) {
+		this.expression = expression;
+		this.jsonFields = new ArrayList<String>();
+	}
+
+	MOMSelector parse() {
+		SelectorNode root = parseOr();
+		skipWhitespaces();
+		if (position < expression.length()) {
+			throw error("Unexpected '" + expression.charAt(position) + "'");
+		}
+		return new MOMSelector(expression, root, jsonFields);
+	}
+
+	private SelectorNode parseOr() {
+		SelectorNode node = parseAnd();
+		while (acceptKeyword("OR")) {
+			node = new SelectorNode.Or(node, parseAnd());
+		}
+		return node;
+	}
+
+	private SelectorNode parseAnd() {
+		SelectorNode node = parseNot();
+		while (acceptKeyword("AND")) {
+			node = new SelectorNode.And(node, parseNot());
+		}
+		return node;
+	}
+
+	private SelectorNode parseNot() {
+		if (acceptKeyword("NOT")) {
+			return new SelectorNode.Not(parseNot());
+		}
+		return parsePrimary();
+	}
+
+	private SelectorNode parsePrimary() {
+		if (accept('(')) {
+			SelectorNode node = parseOr();
+			if (!accept(')')) {
+				throw error("Missing ')'");
+			}
+			return node;
+		}
+
+		SelectorNode.Field field = parseField();
+
+		if (acceptKeyword("IS")) {
+			boolean negated = acceptKeyword("NOT");
+			if (!acceptKeyword("NULL")) {
+				throw error("Expected NULL");
+			}
+			return new SelectorNode.IsNull(field, negated);
+		}
+
+		String operator = parseOperator();
+		return new SelectorNode.Comparison(field, operator, parseLiteral());
+	}
+
+	private SelectorNode.Field parseField() {
+		String identifier = parseIdentifier();
+		if (identifier == null) {
+			throw error("Expected a header or field name");
+		}
+
+		if (identifier.startsWith(HEADER_PREFIX) && identifier.length() > HEADER_PREFIX.length()) {
+			return SelectorNode.Field.header(identifier.substring(HEADER_PREFIX.length()));
+		}
+
+		int index = jsonFields.indexOf(identifier);
+		if (index < 0) {
+			index = jsonFields.size();
+			jsonFields.add(identifier);
+		}
+		return new SelectorNode.Field(identifier, index);
+	}
+
+	private String parseOperator() {
+		skipWhitespaces();
+		String[] operators = { "<>", "!=", "<=", ">=", "=", "<", ">" };
+		for (String operator : operators) {
+			if (expression.startsWith(operator, position)) {
+				position += operator.length();
+				return "!=".equals(operator) ? "<>" : operator;
+			}
+		}
+		throw error("Expected a comparison operator");
+	}
+
+	private Object parseLiteral() {
+		skipWhitespaces();
+		if (position >= expression.length()) {
+			throw error("Expected a literal");
+		}
+
+		char c = expression.charAt(position);
+		if (c == '\'') {
+			StringBuilder builder = new StringBuilder();
+			position++;
+			while (true) {
+				if (position >= expression.length()) {
+					throw error("Unterminated string literal");
+				}
+				c = expression.charAt(position++);
+				if (c == '\'') {
+					if (position < expression.length() && expression.charAt(position) == '\'') {
+						position++;
+					} else {
+						return builder.toString();
+					}
+				}
+				builder.append(c);
+			}
+		}
+
+		if (c == '-' || c == '+' || c == '.' || Character.isDigit(c)) {
+			int start = position++;
+			while (position < expression.length()
+					&& (Character.isDigit(expression.charAt(position)) || ".eE+-".indexOf(expression.charAt(position)) >= 0)) {
+				position++;
+			}
+			try {
+				return Double.valueOf(expression.substring(start, position));
+			} catch (NumberFormatException e) {
+				throw error("Invalid number '" + expression.substring(start, position) + "'");
+			}
+		}
+
+		if (acceptKeyword("TRUE")) {
+			return Boolean.TRUE;
+		} else if (acceptKeyword("FALSE")) {
+			return Boolean.FALSE;
+		}
+		throw error("Expected a literal");
+	}
+
+	private String parseIdentifier() {
+		skipWhitespaces();
+		int start = position;
+		if (position < expression.length() && isIdentifierStart(expression.charAt(position))) {
+			position++;
+			while (position < expression.length() && isIdentifierPart(expression.charAt(position))) {
+				position++;
+			}
+			return expression.substring(start, position);
+		}
+		return null;
+	}
+
+	private boolean acceptKeyword(String keyword) {
+		skipWhitespaces();
+		int end = position + keyword.length();
+		if (expression.regionMatches(true, position, keyword, 0, keyword.length())
+				&& (end == expression.length() || !isIdentifierPart(expression.charAt(end)))) {
+			position = end;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean accept(char c) {
+		skipWhitespaces();
+		if (position < expression.length() && expression.charAt(position) == c) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void skipWhitespaces() {
+		while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+			position++;
+		}
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return Character.isLetter(c) || c == '_' || c == '$';
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == '-';
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + position + " of selector '" + expression
+				+ "'");
+	}
+}
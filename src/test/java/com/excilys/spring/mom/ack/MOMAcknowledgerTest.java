@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMAckMode;
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMAcknowledgerTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final List<String> acks = Collections.synchronizedList(new ArrayList<String>());
+	private final MOMAcknowledger acknowledger = new MOMAcknowledger(new MOMAcknowledger.Sender() {
+		@Override
+		public void acknowledge(String topic, String messageId) {
+			acks.add(messageId);
+		}
+	}, scheduler);
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void clientModeAcknowledgesTheLastHandledSequence() {
+		acknowledger.setMaxDelayMs(60000);
+		acknowledger.setBatchSize(2);
+		acknowledger.register(TOPIC, MOMAckMode.CLIENT);
+
+		for (int i = 1; i <= 4; i++) {
+			acknowledger.received(TOPIC, headers(i));
+		}
+
+		acknowledger.handled(TOPIC, headers(2));
+		acknowledger.handled(TOPIC, headers(3));
+		assertEquals(0, acks.size());
+
+		acknowledger.handled(TOPIC, headers(1));
+		assertEquals(Collections.singletonList("3"), acks);
+		assertEquals(3, acknowledger.getAcknowledgedMessages());
+		assertEquals(1, acknowledger.getPending(TOPIC));
+	}
+
+	@Test
+	public void messageIsAcknowledgedOnceReleasedByEveryHolder() {
+		acknowledger.setMaxDelayMs(60000);
+		acknowledger.setBatchSize(1);
+		acknowledger.register(TOPIC, MOMAckMode.CLIENT_INDIVIDUAL);
+
+		acknowledger.received(TOPIC, headers(1));
+		acknowledger.retain(TOPIC, headers(1));
+		acknowledger.handled(TOPIC, headers(1));
+		assertEquals(0, acks.size());
+
+		acknowledger.handled(TOPIC, headers(1));
+		assertEquals(Collections.singletonList("1"), acks);
+	}
+
+	@Test
+	public void prefetchIsEnforcedThroughClientAcknowledgement() {
+		acknowledger.setMaxDelayMs(60000);
+		acknowledger.register(TOPIC, MOMAckMode.AUTO, 4);
+		assertEquals(MOMAckMode.CLIENT, acknowledger.getAckMode(TOPIC));
+
+		// The reception never waits : the MOM server stops sending once 4 messages aren't acknowledged
+		for (int i = 1; i <= 5; i++) {
+			assertTrue(acknowledger.received(TOPIC, headers(i)));
+		}
+		assertEquals(5, acknowledger.getPending(TOPIC));
+
+		// Acknowledged by half prefetch, so that the MOM server never waits for the acknowledgement of a full window
+		acknowledger.handled(TOPIC, headers(1));
+		assertEquals(0, acks.size());
+		acknowledger.handled(TOPIC, headers(2));
+		assertEquals(Collections.singletonList("2"), acks);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void prefetchSmallerThanBatchSizeIsRejected() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		try {
+			Method method = BatchController.class.getMethod("onMessages", List.class);
+			client.subscribe(TOPIC, new MOMMethodHandler(method, new BatchController(), method
+					.getAnnotation(MOMMapping.class)), 5);
+		} finally {
+			client.disconnect();
+		}
+	}
+
+	private static Map<String, String> headers(int messageId) {
+		return Collections.singletonMap(MOMAcknowledger.MESSAGE_ID_HEADER, String.valueOf(messageId));
+	}
+
+	public static class BatchController {
+
+		@MOMMapping(topic = TOPIC, batchSize = 10, maxWaitMs = 0)
+		public void onMessages(List<String> messages) {
+		}
+	}
+}
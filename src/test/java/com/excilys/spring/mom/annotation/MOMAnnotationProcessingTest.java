@@ -0,0 +1,121 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.excilys.soja.client.exception.NotConnectedException;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.excilys.spring.mom.group.MOMGroupStrategy;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMAnnotationProcessingTest {
+
+	private static final String TOPIC = "/topic/test";
+	private static final String GROUP_DESTINATION = "/queue/Consumer.workers.test";
+	private static final Set<String> DESTINATIONS = new HashSet<String>(Arrays.asList(TOPIC, GROUP_DESTINATION));
+
+	private final RecordingClient client = new RecordingClient();
+	private final MOMAnnotationProcessing processing = new MOMAnnotationProcessing();
+
+	@Before
+	public void inject() {
+		client.setGroupStrategy(MOMGroupStrategy.BROKER);
+		ReflectionTestUtils.setField(processing, "momClient", client);
+	}
+
+	@Test
+	public void registrationsAreSubscribedInOneBurstOnStart() {
+		processing.postProcessAfterInitialization(new Controller(), "controller");
+		assertTrue(client.subscriptions.isEmpty());
+		assertTrue(client.bursts.isEmpty());
+
+		processing.start();
+		assertTrue(processing.isRunning());
+		assertEquals(1, client.bursts.size());
+		assertEquals(DESTINATIONS, client.bursts.get(0));
+		assertEquals(DESTINATIONS, new HashSet<String>(client.subscriptions));
+		assertEquals(2, client.subscriptions.size());
+	}
+
+	@Test
+	public void beansCreatedAfterTheStartAreSubscribedImmediately() {
+		processing.start();
+		assertEquals(1, client.bursts.size());
+		assertTrue(client.bursts.get(0).isEmpty());
+
+		processing.postProcessAfterInitialization(new Controller(), "controller");
+		assertEquals(1, client.bursts.size());
+		assertEquals(DESTINATIONS, new HashSet<String>(client.subscriptions));
+		assertEquals(2, client.subscriptions.size());
+	}
+
+	@MOMController
+	public static class Controller {
+
+		@MOMMapping(topic = TOPIC)
+		public void onMessage(String message) {
+		}
+
+		@MOMMapping(topic = TOPIC, group = "workers")
+		public void onWork(String message) {
+		}
+
+		public void notMapped(String message) {
+		}
+	}
+
+	/**
+	 * Client recording the destinations subscribed to, and the bursts of subscriptions.
+	 */
+	private static class RecordingClient extends MOMClientInProcess {
+
+		private final List<Set<String>> bursts = new ArrayList<Set<String>>();
+		private final List<String> subscriptions = new ArrayList<String>();
+
+		@Override
+		public void subscribe(Map<String, ? extends Collection<MOMMethodHandler>> methodHandlersByTopic)
+				throws NotConnectedException, SocketException {
+			bursts.add(new HashSet<String>(methodHandlersByTopic.keySet()));
+			super.subscribe(methodHandlersByTopic);
+		}
+
+		@Override
+		public void subscribe(String topic, MOMMethodHandler momMethodHandler) throws NotConnectedException,
+				SocketException {
+			subscriptions.add(topic);
+			super.subscribe(topic, momMethodHandler);
+		}
+	}
+}
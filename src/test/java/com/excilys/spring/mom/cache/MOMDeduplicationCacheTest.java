@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMDeduplicationCacheTest {
+
+	@Test
+	public void duplicateIsDetected() {
+		MOMDeduplicationCache cache = new MOMDeduplicationCache(1000, 60000);
+
+		assertFalse(cache.isDuplicate("id-1"));
+		assertFalse(cache.isDuplicate("id-2"));
+		assertTrue(cache.isDuplicate("id-1"));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void messageWithoutKeyHeaderIsNeverDuplicate() {
+		MOMDeduplicationCache cache = new MOMDeduplicationCache(1000, 60000);
+		Map<String, String> headers = Collections.emptyMap();
+
+		assertFalse(cache.isDuplicate(headers));
+		assertFalse(cache.isDuplicate(headers));
+		assertEquals(0, cache.getHits() + cache.getMisses());
+	}
+
+	@Test
+	public void keyHeaderIsConfigurable() {
+		MOMDeduplicationCache cache = new MOMDeduplicationCache(1000, 60000);
+		cache.setKeyHeader("correlation-id");
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("correlation-id", "42");
+
+		assertFalse(cache.isDuplicate(headers));
+		assertTrue(cache.isDuplicate(headers));
+	}
+
+	@Test
+	public void idsExpireAfterTtl() throws InterruptedException {
+		MOMDeduplicationCache cache = new MOMDeduplicationCache(1000, 50);
+
+		assertFalse(cache.isDuplicate("id-1"));
+		Thread.sleep(100);
+		assertFalse(cache.isDuplicate("id-1"));
+	}
+
+	@Test
+	public void oldestIdsAreEvictedWhenFull() {
+		MOMDeduplicationCache cache = new MOMDeduplicationCache(100, 60000, 1);
+
+		for (int i = 0; i < 1000; i++) {
+			assertFalse(cache.isDuplicate("id-" + i));
+		}
+		assertFalse(cache.isDuplicate("id-0"));
+		assertTrue(cache.isDuplicate("id-999"));
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.FakeMOMClient;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMLastValueCacheTest {
+
+	private static final Map<String, String> HEADERS = Collections.emptyMap();
+
+	@Test
+	public void leastRecentlyUsedTopicsAreEvicted() {
+		MOMLastValueCache cache = new MOMLastValueCache(2);
+		cache.put(new MOMLastValue("/topic/a", "a".getBytes(), HEADERS));
+		cache.put(new MOMLastValue("/topic/b", "b".getBytes(), HEADERS));
+
+		// Reading a topic makes it the most recently used
+		assertNotNull(cache.get("/topic/a"));
+		cache.put(new MOMLastValue("/topic/c", "c".getBytes(), HEADERS));
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("/topic/b"));
+		assertEquals("a", new String(cache.get("/topic/a").getData()));
+		assertEquals("c", new String(cache.get("/topic/c").getData()));
+	}
+
+	@Test
+	public void topicsAreEvictedOnceTheDataIsTooLarge() {
+		MOMLastValueCache cache = new MOMLastValueCache(10, 6);
+		cache.put(new MOMLastValue("/topic/a", "aaa".getBytes(), HEADERS));
+		cache.put(new MOMLastValue("/topic/b", "bb".getBytes(), HEADERS));
+		assertEquals(5, cache.getBytes());
+
+		// Replacing a topic accounts for the size of its new data only
+		cache.put(new MOMLastValue("/topic/b", "b".getBytes(), HEADERS));
+		assertEquals(4, cache.getBytes());
+
+		cache.put(new MOMLastValue("/topic/c", "ccc".getBytes(), HEADERS));
+		assertNull(cache.get("/topic/a"));
+		assertEquals(4, cache.getBytes());
+
+		// The last message is retained even if larger than the cache
+		cache.put(new MOMLastValue("/topic/d", "dddddddd".getBytes(), HEADERS));
+		assertEquals(1, cache.size());
+		assertEquals(8, cache.getBytes());
+	}
+
+	@Test
+	public void subscribingHandlersArePrimedWithTheLastMessage() throws Exception {
+		ReceivingClient client = new ReceivingClient();
+		client.setLastValueCache(new MOMLastValueCache(10));
+		client.receive("/topic/test", "first");
+		client.receive("/topic/test", "second");
+
+		LastValueController controller = new LastValueController();
+		MOMMethodHandler methodHandler = methodHandler(controller);
+		client.subscribe("/topic/test", methodHandler);
+		assertEquals(Arrays.asList("second"), controller.messages);
+
+		// A handler already subscribed isn't primed again
+		client.subscribe("/topic/test", methodHandler);
+		client.receive("/topic/test", "third");
+		assertEquals(Arrays.asList("second", "third"), controller.messages);
+
+		// Topics without any message retained don't prime their handlers
+		LastValueController otherController = new LastValueController();
+		client.subscribe("/topic/other", methodHandler(otherController));
+		assertEquals(Collections.emptyList(), otherController.messages);
+	}
+
+	private MOMMethodHandler methodHandler(Object controller) throws Exception {
+		Method method = controller.getClass().getMethod("onMessage", String.class);
+		return new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class));
+	}
+
+	private static final class ReceivingClient extends FakeMOMClient {
+
+		ReceivingClient() {
+			super("localhost", 61613, false);
+		}
+
+		void receive(String topic, String message) {
+			dispatch(topic, message.getBytes(), HEADERS);
+		}
+	}
+
+	public static class LastValueController {
+
+		private final List<String> messages = new ArrayList<String>();
+
+		@MOMMapping(topic = "/topic/test")
+		public void onMessage(String message) {
+			messages.add(message);
+		}
+	}
+}
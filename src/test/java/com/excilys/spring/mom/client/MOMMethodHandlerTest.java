@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.dispatch.MOMDispatchFailureHandler;
+import com.excilys.spring.mom.dispatch.MOMFutureTracker;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMMethodHandlerTest {
+
+	private static final String TOPIC = "/topic/test";
+	private static final Map<String, String> HEADERS = Collections.emptyMap();
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final BlockingQueue<Throwable> failures = new ArrayBlockingQueue<Throwable>(10);
+	private final MOMDispatchFailureHandler failureHandler = new MOMDispatchFailureHandler() {
+		@Override
+		public void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data,
+				Map<String, String> headers, Throwable cause) {
+			failures.add(cause);
+		}
+	};
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void asyncBatchIsDoneWhenItsFutureCompletes() throws Exception {
+		AsyncController controller = new AsyncController();
+		MOMMethodHandler handler = handler(controller, "onMessages", List.class);
+		assertTrue(handler.isAsync());
+
+		List<byte[]> batch = Arrays.asList("a".getBytes(), "b".getBytes());
+		List<Map<String, String>> batchHeaders = Arrays.asList(HEADERS, HEADERS);
+		handler.deliverBatch(TOPIC, batch, batchHeaders, failureHandler);
+		assertNull(failures.poll(50, TimeUnit.MILLISECONDS));
+
+		controller.future.run();
+		assertTrue(failures.poll(1, TimeUnit.SECONDS) instanceof IllegalStateException);
+		assertTrue(failures.poll(1, TimeUnit.SECONDS) instanceof IllegalStateException);
+	}
+
+	@Test
+	public void unparsableBatchElementsAreReportedAlone() throws Exception {
+		BatchController controller = new BatchController();
+		MOMMethodHandler handler = handler(controller, "onList", List.class);
+
+		// The string parser fails with a runtime exception on null data
+		List<byte[]> batch = Arrays.asList("a".getBytes(), null, "c".getBytes());
+		List<Map<String, String>> batchHeaders = Arrays.asList(HEADERS, HEADERS, HEADERS);
+		handler.deliverBatch(TOPIC, batch, batchHeaders, failureHandler);
+
+		assertTrue(failures.poll() instanceof NullPointerException);
+		assertNull(failures.poll());
+		assertEquals(Arrays.asList("a", "c"), controller.messages);
+	}
+
+	@Test
+	public void outstandingLimitBlocksUntilAFutureCompletes() throws Exception {
+		AsyncController controller = new AsyncController();
+		final MOMMethodHandler handler = handler(controller, "onMessage", String.class);
+
+		handler.deliver(TOPIC, "a".getBytes(), HEADERS, null, failureHandler);
+		FutureTask<Void> first = controller.future;
+		Thread receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				handler.deliver(TOPIC, "b".getBytes(), HEADERS, null, failureHandler);
+			}
+		});
+		receiver.start();
+
+		receiver.join(100);
+		assertTrue(receiver.isAlive());
+		assertEquals(1, controller.invocations);
+		assertNull(failures.poll());
+
+		first.run();
+		receiver.join(1000);
+		assertFalse(receiver.isAlive());
+		assertEquals(2, controller.invocations);
+		assertTrue(failures.poll(1, TimeUnit.SECONDS) instanceof IllegalStateException);
+	}
+
+	@Test
+	public void onlyArrayListAndCollectionParametersAreBatched() throws Exception {
+		BatchController controller = new BatchController();
+		assertTrue(handler(controller, "onList", List.class).isBatch());
+		assertTrue(handler(controller, "onCollection", Collection.class).isBatch());
+		assertTrue(handler(controller, "onArray", String[].class).isBatch());
+		assertFalse(handler(controller, "onObject", Object.class).isBatch());
+	}
+
+	private MOMMethodHandler handler(Object controller, String name, Class<?> parameterType) throws Exception {
+		Method method = controller.getClass().getMethod(name, parameterType);
+		MOMMethodHandler handler = new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class));
+		handler.setFutureTracker(new MOMFutureTracker(scheduler));
+		return handler;
+	}
+
+	public static class BatchController {
+
+		private List<String> messages;
+
+		@MOMMapping(topic = TOPIC, batchSize = 10)
+		public void onList(List<String> messages) {
+			this.messages = messages;
+		}
+
+		@MOMMapping(topic = TOPIC, batchSize = 10)
+		public void onCollection(Collection<String> messages) {
+		}
+
+		@MOMMapping(topic = TOPIC, batchSize = 10)
+		public void onArray(String[] messages) {
+		}
+
+		@MOMMapping(topic = TOPIC, batchSize = 10)
+		public void onObject(Object message) {
+		}
+	}
+
+	public static class AsyncController {
+
+		private volatile FutureTask<Void> future;
+		private volatile int invocations;
+
+		@MOMMapping(topic = TOPIC, maxOutstanding = 1)
+		public FutureTask<Void> onMessage(String message) {
+			invocations++;
+			return newFuture();
+		}
+
+		@MOMMapping(topic = TOPIC, batchSize = 2)
+		public FutureTask<Void> onMessages(List<String> messages) {
+			return newFuture();
+		}
+
+		private FutureTask<Void> newFuture() {
+			future = new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() {
+					throw new IllegalStateException();
+				}
+			});
+			return future;
+		}
+	}
+}
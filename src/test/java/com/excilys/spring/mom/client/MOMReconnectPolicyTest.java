@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMReconnectPolicyTest {
+
+	@Test
+	public void delayGrowsExponentiallyUpToTheMaximum() {
+		MOMReconnectPolicy policy = new MOMReconnectPolicy();
+		policy.setInitialDelayMs(100);
+		policy.setMaxDelayMs(1000);
+		policy.setJitter(0);
+
+		assertEquals(100, policy.getDelayMs(1));
+		assertEquals(200, policy.getDelayMs(2));
+		assertEquals(800, policy.getDelayMs(4));
+		assertEquals(1000, policy.getDelayMs(5));
+		assertEquals(1000, policy.getDelayMs(100));
+	}
+
+	@Test
+	public void jitterOnlyShortensTheDelay() {
+		MOMReconnectPolicy policy = new MOMReconnectPolicy();
+		policy.setInitialDelayMs(100);
+		policy.setMaxDelayMs(1000);
+		policy.setJitter(0.5);
+
+		for (int attempt = 1; attempt <= 10; attempt++) {
+			long maxDelay = Math.min(1000, 100L << (attempt - 1));
+			for (int i = 0; i < 100; i++) {
+				long delay = policy.getDelayMs(attempt);
+				assertTrue(delay + " > " + maxDelay, delay <= maxDelay);
+				assertTrue(delay + " < " + maxDelay / 2, delay >= maxDelay / 2);
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.excilys.soja.client.StompClient;
+import com.excilys.soja.client.events.StompClientListener;
+import com.excilys.soja.client.events.StompTopicListener;
+import com.excilys.spring.mom.client.MOMReconnectPolicy;
+import com.excilys.spring.mom.journal.MOMJournal;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMClientSojaTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final FakeStompClient stompClient = new FakeStompClient();
+	private final MOMClientSoja client = new MOMClientSoja("localhost", 61613, "user", "password", false,
+			stompClient);
+	private final CountDownLatch schedulerBlocked = new CountDownLatch(1);
+
+	@After
+	public void shutdown() {
+		schedulerBlocked.countDown();
+		client.getConnectionScheduler().shutdownNow();
+		client.getScheduler().shutdownNow();
+	}
+
+	@Test
+	public void heartbeatsKeepTheConnectionAliveWhileTheSchedulerIsBusy() throws Exception {
+		client.setHeartbeatIntervalMs(10);
+		client.setReadTimeoutMs(50);
+		blockScheduler();
+
+		client.connect();
+		Thread.sleep(200);
+		assertTrue(client.isConnected());
+		assertEquals(0, client.getDeadConnections());
+		assertTrue(stompClient.heartbeatThreads.size() > 1);
+		assertTrue(stompClient.heartbeatThreads.peek().startsWith("mom-connection-"));
+	}
+
+	@Test
+	public void silentConnectionIsClosed() throws Exception {
+		client.setHeartbeatIntervalMs(10);
+		client.setReadTimeoutMs(50);
+		client.setReconnectPolicy(null);
+		stompClient.loopback = false;
+
+		client.connect();
+		assertTrue(client.isConnected());
+		for (int i = 0; i < 100 && client.isConnected(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(client.isConnected());
+		assertEquals(1, client.getDeadConnections());
+	}
+
+	@Test
+	public void heartbeatsOfOtherClientsAreIgnored() throws Exception {
+		client.setHeartbeatIntervalMs(10);
+		client.setReadTimeoutMs(50);
+		client.setReconnectPolicy(null);
+		stompClient.foreignHeartbeats = true;
+
+		client.connect();
+		for (int i = 0; i < 100 && client.isConnected(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(client.isConnected());
+		assertEquals(1, client.getDeadConnections());
+
+		// The heartbeat topic is subscribed from the connection scheduler, filtered on the client id
+		assertTrue(stompClient.heartbeatSubscriptionThread.startsWith("mom-connection-"));
+		assertTrue(stompClient.heartbeatSelector.startsWith(MOMClientSoja.CLIENT_ID_HEADER + " = '"));
+	}
+
+	@Test
+	public void failedConnectionIsRetried() throws Exception {
+		client.setReconnectPolicy(fastReconnectPolicy());
+		stompClient.failingConnections = 2;
+
+		client.connect();
+		awaitConnection(true);
+		assertEquals(2, client.getReconnectAttempts());
+		assertEquals(0, client.getReconnections());
+	}
+
+	@Test
+	public void lostConnectionIsReconnected() throws Exception {
+		client.setReconnectPolicy(fastReconnectPolicy());
+		client.connect();
+
+		stompClient.failingConnections = 1;
+		stompClient.lose();
+		assertFalse(client.isConnected());
+
+		awaitConnection(true);
+		assertEquals(2, client.getReconnectAttempts());
+		assertEquals(1, client.getReconnections());
+		assertEquals(0, client.getCurrentOutageMs());
+	}
+
+	@Test
+	public void explicitDisconnectionIsntReconnected() throws Exception {
+		client.setReconnectPolicy(fastReconnectPolicy());
+		client.connect();
+
+		client.disconnect();
+		stompClient.lose();
+		Thread.sleep(50);
+		assertFalse(client.isConnected());
+		assertEquals(0, client.getReconnectAttempts());
+	}
+
+	@Test
+	public void journalDrainBacksOffWhileSendsFail() throws Exception {
+		client.setHeartbeatIntervalMs(0);
+		client.setPublishJournal(new MOMJournal(folder.getRoot(), 4096, 2));
+		client.publish(TOPIC, "a");
+		client.publish(TOPIC, "b");
+
+		stompClient.failingSends = true;
+		client.connect();
+		Thread.sleep(200);
+		assertTrue(stompClient.sends.get() + " sends", stompClient.sends.get() < 10);
+		assertEquals(2, client.getPublishJournal().getPendingCount());
+
+		stompClient.failingSends = false;
+		for (int i = 0; i < 200 && client.getPublishJournal().hasPending(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, client.getPublishJournal().getPendingCount());
+	}
+
+	private static MOMReconnectPolicy fastReconnectPolicy() {
+		MOMReconnectPolicy reconnectPolicy = new MOMReconnectPolicy();
+		reconnectPolicy.setInitialDelayMs(1);
+		reconnectPolicy.setMaxDelayMs(5);
+		return reconnectPolicy;
+	}
+
+	private void awaitConnection(boolean connected) throws InterruptedException {
+		for (int i = 0; i < 100 && client.isConnected() != connected; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(connected, client.isConnected());
+	}
+
+	/**
+	 * Hold the shared scheduler thread until the end of the test.
+	 */
+	private void blockScheduler() {
+		client.getScheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					schedulerBlocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * STOMP client without server : heartbeats sent by the MOM client are received back if {@link #loopback} is true,
+	 * as if sent by another client if {@link #foreignHeartbeats} is true.
+	 */
+	static class FakeStompClient extends StompClient {
+
+		final Map<String, StompTopicListener> topicListeners = new ConcurrentHashMap<String, StompTopicListener>();
+		final Queue<String> heartbeatThreads = new ConcurrentLinkedQueue<String>();
+		volatile StompClientListener clientListener;
+		volatile boolean loopback = true;
+		volatile boolean foreignHeartbeats;
+		volatile String heartbeatSubscriptionThread;
+		volatile String heartbeatSelector;
+		volatile int failingConnections;
+		volatile boolean failingSends;
+		final AtomicInteger sends = new AtomicInteger();
+
+		FakeStompClient() {
+			super("localhost", 61613);
+		}
+
+		@Override
+		public void addListener(StompClientListener clientListener) {
+			this.clientListener = clientListener;
+		}
+
+		@Override
+		public void connect(String username, String password) throws Exception {
+			if (failingConnections > 0) {
+				failingConnections--;
+				throw new IOException("Connection refused");
+			}
+			clientListener.connected();
+		}
+
+		@Override
+		public void disconnect() {
+		}
+
+		@Override
+		public Long subscribe(String topic, StompTopicListener topicListener) {
+			topicListeners.put(topic, topicListener);
+			return Long.valueOf(topicListeners.size());
+		}
+
+		@Override
+		public Long subscribe(String topic, StompTopicListener topicListener, Map<String, String> headers) {
+			if (topic.equals(MOMClientSoja.HEARTBEAT_TOPIC)) {
+				heartbeatSubscriptionThread = Thread.currentThread().getName();
+				heartbeatSelector = headers.get("selector");
+			}
+			return subscribe(topic, topicListener);
+		}
+
+		@Override
+		public void send(String topic, String message) throws SocketException {
+			send(topic, message, Collections.<String, String> emptyMap());
+		}
+
+		@Override
+		public void send(String topic, String message, Map<String, String> headers) throws SocketException {
+			StompTopicListener topicListener = topicListeners.get(topic);
+			if (topic.equals(MOMClientSoja.HEARTBEAT_TOPIC)) {
+				heartbeatThreads.add(Thread.currentThread().getName());
+				if (foreignHeartbeats) {
+					headers = Collections.singletonMap(MOMClientSoja.CLIENT_ID_HEADER, "another client");
+				}
+				if (loopback && topicListener != null) {
+					topicListener.receivedMessage(message, headers);
+				}
+				return;
+			}
+
+			sends.incrementAndGet();
+			if (failingSends) {
+				throw new SocketException("Broken pipe");
+			}
+		}
+
+		/**
+		 * Simulate the loss of the connection.
+		 */
+		void lose() {
+			clientListener.disconnected();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMBatchingDispatcherTest {
+
+	private static final String TOPIC = "/topic/test";
+	private static final Map<String, String> HEADERS = Collections.emptyMap();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+			"test-dispatch-"));
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("test-scheduler-"));
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void fullBatchIsDeliveredAtOnce() throws Exception {
+		BatchController controller = new BatchController();
+		MOMBatchingDispatcher dispatcher = dispatcher(controller, "onFullBatch");
+
+		dispatcher.offer("a".getBytes(), HEADERS);
+		dispatcher.offer("b".getBytes(), HEADERS);
+		assertTrue(controller.batches.isEmpty());
+
+		dispatcher.offer("c".getBytes(), HEADERS);
+		assertEquals(Arrays.asList("a", "b", "c"), controller.batches.poll());
+		assertEquals(Thread.currentThread().getName(), controller.threads.poll());
+	}
+
+	@Test
+	public void incompleteBatchIsDeliveredOnTheExecutor() throws Exception {
+		BatchController controller = new BatchController();
+		MOMBatchingDispatcher dispatcher = dispatcher(controller, "onIncompleteBatch");
+
+		dispatcher.offer("a".getBytes(), HEADERS);
+		dispatcher.offer("b".getBytes(), HEADERS);
+		assertEquals(Arrays.asList("a", "b"), controller.batches.poll(1, TimeUnit.SECONDS));
+		assertTrue(controller.threads.poll().startsWith("test-dispatch-"));
+
+		// The timer of a batch delivered because it's full doesn't flush the next one
+		for (String message : Arrays.asList("c", "d", "e", "f", "g")) {
+			dispatcher.offer(message.getBytes(), HEADERS);
+		}
+		assertEquals(Arrays.asList("c", "d", "e", "f"), controller.batches.poll());
+		assertNull(controller.batches.poll(20, TimeUnit.MILLISECONDS));
+		assertEquals(Arrays.asList("g"), controller.batches.poll(1, TimeUnit.SECONDS));
+	}
+
+	private MOMBatchingDispatcher dispatcher(Object controller, String name) throws Exception {
+		Method method = controller.getClass().getMethod(name, List.class);
+		MOMMethodHandler methodHandler = new MOMMethodHandler(method, controller,
+				method.getAnnotation(MOMMapping.class));
+		return new MOMBatchingDispatcher(TOPIC, methodHandler, executor, scheduler, new MOMSampledFailureLogger());
+	}
+
+	public static class BatchController {
+
+		private final BlockingQueue<List<String>> batches = new ArrayBlockingQueue<List<String>>(10);
+		private final BlockingQueue<String> threads = new ArrayBlockingQueue<String>(10);
+
+		@MOMMapping(topic = TOPIC, batchSize = 3)
+		public void onFullBatch(List<String> messages) {
+			threads.add(Thread.currentThread().getName());
+			batches.add(messages);
+		}
+
+		@MOMMapping(topic = TOPIC, batchSize = 4, maxWaitMs = 50)
+		public void onIncompleteBatch(List<String> messages) {
+			onFullBatch(messages);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.ack.MOMAcknowledger;
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMConflatingDispatcherTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	private final List<Runnable> drainers = new ArrayList<Runnable>();
+	private final Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			drainers.add(command);
+		}
+	};
+
+	@Test
+	public void onlyTheLastMessageOfEachKeyIsDelivered() throws Exception {
+		ConflatingController controller = new ConflatingController();
+		MOMConflatingDispatcher dispatcher = new MOMConflatingDispatcher(TOPIC, methodHandler(controller),
+				executor, new MOMSampledFailureLogger());
+
+		dispatcher.offer("EUR 1".getBytes(), headers("EUR", "1"));
+		dispatcher.offer("USD 2".getBytes(), headers("USD", "2"));
+		dispatcher.offer("EUR 3".getBytes(), headers("EUR", "3"));
+		dispatcher.offer("EUR 4".getBytes(), headers("EUR", "4"));
+		assertEquals(1, drainers.size());
+		assertEquals(2, dispatcher.getConflatedCount());
+
+		// Keys are delivered in the order they became pending
+		drainers.get(0).run();
+		assertEquals(Arrays.asList("EUR 4", "USD 2"), controller.messages);
+
+		// Once delivered, a key has a new slot
+		dispatcher.offer("EUR 5".getBytes(), headers("EUR", "5"));
+		assertEquals(2, drainers.size());
+		drainers.get(1).run();
+		assertEquals(Arrays.asList("EUR 4", "USD 2", "EUR 5"), controller.messages);
+	}
+
+	@Test
+	public void conflatedMessagesAreAcknowledged() throws Exception {
+		ConflatingController controller = new ConflatingController();
+		MOMMethodHandler methodHandler = methodHandler(controller);
+		RecordingAcknowledger acknowledger = new RecordingAcknowledger();
+		methodHandler.setAcknowledger(acknowledger);
+		MOMConflatingDispatcher dispatcher = new MOMConflatingDispatcher(TOPIC, methodHandler, executor,
+				new MOMSampledFailureLogger());
+
+		dispatcher.offer("EUR 1".getBytes(), headers("EUR", "1"));
+		dispatcher.offer("EUR 2".getBytes(), headers("EUR", "2"));
+		dispatcher.offer("USD 3".getBytes(), headers("USD", "3"));
+		dispatcher.offer("EUR 4".getBytes(), headers("EUR", "4"));
+
+		// Overwritten messages are never delivered, but must not be left unacknowledged
+		assertEquals(Arrays.asList("1", "2"), acknowledger.messageIds);
+
+		drainers.get(0).run();
+		assertEquals(Arrays.asList("1", "2", "4", "3"), acknowledger.messageIds);
+	}
+
+	private MOMMethodHandler methodHandler(Object controller) throws Exception {
+		Method method = controller.getClass().getMethod("onMessage", String.class);
+		return new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class));
+	}
+
+	private static Map<String, String> headers(String symbol, String messageId) {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("symbol", symbol);
+		headers.put(MOMAcknowledger.MESSAGE_ID_HEADER, messageId);
+		return headers;
+	}
+
+	public static class ConflatingController {
+
+		private final List<String> messages = new ArrayList<String>();
+
+		@MOMMapping(topic = TOPIC, conflate = true, conflationKey = "symbol")
+		public void onMessage(String message) {
+			messages.add(message);
+		}
+	}
+
+	private static final class RecordingAcknowledger extends MOMAcknowledger {
+
+		private final List<String> messageIds = new ArrayList<String>();
+
+		RecordingAcknowledger() {
+			super(null, null);
+		}
+
+		@Override
+		public void handled(String topic, Map<String, String> headers) {
+			messageIds.add(headers.get(MESSAGE_ID_HEADER));
+		}
+	}
+}
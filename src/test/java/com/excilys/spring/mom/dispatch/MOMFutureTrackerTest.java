@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMFutureTrackerTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final MOMFutureTracker futureTracker = new MOMFutureTracker(scheduler);
+	private final BlockingQueue<Object> completions = new ArrayBlockingQueue<Object>(10);
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void pendingFutureIsPolledUntilDone() throws InterruptedException {
+		FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() {
+				return "done";
+			}
+		});
+
+		futureTracker.track(future, new RecordingCallback());
+		assertEquals(1, futureTracker.getOutstanding());
+		assertNull(completions.poll(50, TimeUnit.MILLISECONDS));
+
+		future.run();
+		assertEquals("success", completions.poll(1, TimeUnit.SECONDS));
+		assertEquals(0, futureTracker.getOutstanding());
+	}
+
+	@Test
+	public void failureCauseIsReported() throws InterruptedException {
+		final IllegalStateException failure = new IllegalStateException();
+		FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() {
+				throw failure;
+			}
+		});
+		future.run();
+
+		futureTracker.track(future, new RecordingCallback());
+		assertTrue(completions.poll(1, TimeUnit.SECONDS) == failure);
+		assertFalse(MOMFutureTracker.isAsync(String.class));
+	}
+
+	private class RecordingCallback implements MOMFutureTracker.Callback {
+
+		@Override
+		public void completed(Throwable failure) {
+			completions.add(failure != null ? failure : "success");
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMHandlerWatchdogTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final MOMHandlerWatchdog watchdog = new MOMHandlerWatchdog(scheduler);
+	private final List<String> events = new ArrayList<String>();
+
+	@After
+	public void shutdown() {
+		watchdog.stop();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void slowHandlerIsIsolatedThenRestored() throws Exception {
+		MOMMethodHandler methodHandler = new MOMMethodHandler(Object.class.getMethod("toString"), this,
+				MOMMappingConsum.STRING);
+		watchdog.setSlowThresholdMs(10);
+		watchdog.setRecoveryChecks(2);
+		watchdog.addListener(new MOMWatchdogListener() {
+			@Override
+			public void handlerIsolated(MOMMethodHandler methodHandler, long slowestMs, StackTraceElement[] stackTrace) {
+				events.add(stackTrace != null ? "isolated while running" : "isolated");
+			}
+
+			@Override
+			public void handlerRestored(MOMMethodHandler methodHandler, long isolatedMs) {
+				events.add("restored");
+			}
+		});
+
+		MOMHandlerWatchdog.Execution execution = watchdog.started(methodHandler);
+		Thread.sleep(20);
+		watchdog.check();
+		assertTrue(watchdog.isIsolated(methodHandler));
+		assertNotNull(watchdog.getBulkhead(methodHandler));
+
+		watchdog.finished(execution);
+		watchdog.check();
+		assertTrue(watchdog.isIsolated(methodHandler));
+
+		watchdog.finished(watchdog.started(methodHandler));
+		watchdog.check();
+		watchdog.check();
+		assertFalse(watchdog.isIsolated(methodHandler));
+
+		assertEquals(2, events.size());
+		assertEquals("isolated while running", events.get(0));
+		assertEquals("restored", events.get(1));
+	}
+
+	@Test
+	public void isolatedHandlerIsInvokedInOrderOnItsBulkhead() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		MOMHandlerWatchdog watchdog = new MOMHandlerWatchdog(client.getScheduler());
+		watchdog.setSlowThresholdMs(20);
+		watchdog.setRecoveryChecks(1);
+		client.setWatchdog(watchdog);
+
+		Recorder recorder = new Recorder();
+		MOMMethodHandler methodHandler = new MOMMethodHandler(Recorder.class.getMethod("onMessage", String.class),
+				recorder, MOMMappingConsum.STRING);
+		client.subscribe("/topic/test", methodHandler);
+
+		client.publish("/topic/test", "slow");
+		watchdog.check();
+		assertTrue(watchdog.isIsolated(methodHandler));
+
+		for (int i = 1; i <= 20; i++) {
+			client.publish("/topic/test", String.valueOf(i));
+		}
+		// Restored while its bulkhead still holds messages : the next ones are queued behind them
+		watchdog.check();
+		for (int i = 21; i <= 25; i++) {
+			client.publish("/topic/test", String.valueOf(i));
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (watchdog.isIsolated(methodHandler) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertFalse(watchdog.isIsolated(methodHandler));
+		client.publish("/topic/test", "26");
+
+		assertEquals(27, recorder.messages.size());
+		assertEquals("slow", recorder.messages.get(0));
+		for (int i = 1; i <= 26; i++) {
+			assertEquals(String.valueOf(i), recorder.messages.get(i));
+			String thread = recorder.threads.get(i);
+			assertEquals(thread, i <= 25, thread.startsWith("mom-bulkhead-"));
+		}
+		assertEquals(Thread.currentThread().getName(), recorder.threads.get(26));
+		client.disconnect();
+	}
+
+	@Test
+	public void fullBulkheadHoldsTheReceivingThread() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		MOMHandlerWatchdog watchdog = new MOMHandlerWatchdog(client.getScheduler());
+		watchdog.setSlowThresholdMs(20);
+		watchdog.setBulkheadQueueSize(1);
+		client.setWatchdog(watchdog);
+
+		Recorder recorder = new Recorder();
+		MOMMethodHandler methodHandler = new MOMMethodHandler(Recorder.class.getMethod("onMessage", String.class),
+				recorder, MOMMappingConsum.STRING);
+		client.subscribe("/topic/test", methodHandler);
+
+		client.publish("/topic/test", "slow");
+		watchdog.check();
+		assertTrue(watchdog.isIsolated(methodHandler));
+
+		// Each message waits for the previous ones to leave the queue instead of being dropped
+		for (int i = 1; i <= 10; i++) {
+			client.publish("/topic/test", String.valueOf(i));
+		}
+		assertTrue(recorder.messages.size() >= 9);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (recorder.messages.size() < 11 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(11, recorder.messages.size());
+		for (int i = 1; i <= 10; i++) {
+			assertEquals(String.valueOf(i), recorder.messages.get(i));
+		}
+		client.disconnect();
+	}
+
+	public static class Recorder {
+
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+		public void onMessage(String message) throws InterruptedException {
+			Thread.sleep("slow".equals(message) ? 30 : 2);
+			messages.add(message);
+			threads.add(Thread.currentThread().getName());
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMPriority;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMPriorityLanesTest {
+
+	@Test
+	public void lanesAreDrainedByWeight() {
+		final List<Runnable> drainers = new ArrayList<Runnable>();
+		MOMPriorityLanes lanes = new MOMPriorityLanes(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				drainers.add(command);
+			}
+		}, new int[] { 2, 1, 1 });
+
+		StringBuilder order = new StringBuilder();
+		for (int i = 0; i < 3; i++) {
+			lanes.execute(MOMPriority.LOW, new Append(order, 'L'));
+			lanes.execute(MOMPriority.NORMAL, new Append(order, 'N'));
+			lanes.execute(MOMPriority.HIGH, new Append(order, 'H'));
+		}
+		assertEquals(1, drainers.size());
+		assertEquals(3, lanes.getPending(MOMPriority.HIGH));
+
+		drainers.get(0).run();
+		assertEquals("HHNLHNLNL", order.toString());
+		assertEquals(0, lanes.getPending(MOMPriority.LOW));
+
+		lanes.execute(MOMPriority.LOW, new Append(order, 'L'));
+		assertEquals(2, drainers.size());
+	}
+
+	@Test
+	public void fullLaneBlocksUntilDrained() throws Exception {
+		final List<Runnable> drainers = new CopyOnWriteArrayList<Runnable>();
+		final MOMPriorityLanes lanes = new MOMPriorityLanes(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				drainers.add(command);
+			}
+		}, new int[] { 1, 1, 1 }, 2);
+
+		final StringBuilder order = new StringBuilder();
+		Thread receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 3; i++) {
+					lanes.execute(MOMPriority.LOW, new Append(order, 'L'));
+				}
+			}
+		});
+		receiver.start();
+
+		// The third task waits for room in the LOW lane
+		receiver.join(100);
+		assertTrue(receiver.isAlive());
+		assertEquals(2, lanes.getPending(MOMPriority.LOW));
+
+		for (int i = 0; i < drainers.size(); i++) {
+			drainers.get(i).run();
+			receiver.join(1000);
+		}
+		assertFalse(receiver.isAlive());
+		assertEquals("LLL", order.toString());
+	}
+
+	@Test
+	public void normalHandlersAreDeliveredOnTheReceivingThread() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		MOMPriorityLanes lanes = new MOMPriorityLanes(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				// The lanes are never drained
+			}
+		});
+		client.setPriorityLanes(lanes);
+
+		PriorityController controller = new PriorityController();
+		for (String name : new String[] { "onMessage", "onControl" }) {
+			Method method = PriorityController.class.getMethod(name, String.class);
+			client.subscribe("/topic/test", new MOMMethodHandler(method, controller, method
+					.getAnnotation(MOMMapping.class)));
+		}
+
+		client.publish("/topic/test", "a");
+		assertEquals(Arrays.asList("a"), controller.messages);
+		assertEquals(1, lanes.getPending(MOMPriority.HIGH));
+		client.disconnect();
+	}
+
+	public static class PriorityController {
+
+		private final List<String> messages = new ArrayList<String>();
+
+		@MOMMapping(topic = "/topic/test")
+		public void onMessage(String message) {
+			messages.add(message);
+		}
+
+		@MOMMapping(topic = "/topic/test", priority = MOMPriority.HIGH)
+		public void onControl(String message) {
+			messages.add("control " + message);
+		}
+	}
+
+	private static final class Append implements Runnable {
+
+		private final StringBuilder builder;
+		private final char c;
+
+		Append(StringBuilder builder, char c) {
+			this.builder = builder;
+			this.c = c;
+		}
+
+		@Override
+		public void run() {
+			builder.append(c);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.dispatch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMSampledFailureLoggerTest {
+
+	@Test
+	public void failuresBeyondTheLimitOfAnIntervalAreOnlyCounted() throws Exception {
+		Method method = Object.class.getMethod("toString");
+		MOMMethodHandler methodHandler = new MOMMethodHandler(method, new Object(), MOMMappingConsum.STRING);
+		MOMSampledFailureLogger failureLogger = new MOMSampledFailureLogger(2, 50);
+
+		for (int i = 0; i < 5; i++) {
+			failureLogger.dispatchFailed("/topic/test", methodHandler, null, null, new IllegalStateException());
+		}
+		assertEquals(5, failureLogger.getTotalFailures());
+		assertEquals(3, failureLogger.getSuppressedFailures());
+
+		// A new interval logs again
+		Thread.sleep(60);
+		failureLogger.dispatchFailed("/topic/test", methodHandler, null, null, new IllegalStateException());
+		assertEquals(6, failureLogger.getTotalFailures());
+		assertEquals(3, failureLogger.getSuppressedFailures());
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMGroupMembershipTest {
+
+	private static final String GROUP = "workers";
+
+	@Test
+	public void messagesArePartitionedBetweenMembers() {
+		MOMClientInProcess client = new MOMClientInProcess();
+		MOMGroupMembership first = new MOMGroupMembership(client, client.getScheduler());
+		MOMGroupMembership second = new MOMGroupMembership(client, client.getScheduler());
+		first.join(GROUP);
+		second.join(GROUP);
+		assertEquals(2, first.getMembers(GROUP).length);
+		assertEquals(2, second.getMembers(GROUP).length);
+
+		int owned = 0;
+		for (int i = 0; i < 1000; i++) {
+			Map<String, String> headers = Collections.singletonMap(MOMGroupMembership.PARTITION_KEY_HEADER, "key" + i);
+			boolean firstOwns = first.owns(GROUP, new byte[0], headers);
+			assertTrue(firstOwns != second.owns(GROUP, new byte[0], headers));
+			if (firstOwns) {
+				owned++;
+			}
+		}
+		assertTrue(owned > 400 && owned < 600);
+
+		second.leave();
+		assertEquals(1, first.getMembers(GROUP).length);
+		assertTrue(first.owns(GROUP, new byte[0], null));
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.excilys.spring.mom.metrics.MOMTracer;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMDeadLetterSinkTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void deadLettersAreReplayedWithTheirOriginalHeaders() throws Exception {
+		MOMDeadLetterSink sink = new MOMDeadLetterSink(new MOMJournal(folder.getRoot(), 4096, 2));
+		MOMMethodHandler methodHandler = batchHandler(new BatchController());
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("type", "quote");
+		headers.put(MOMTracer.RECEIVED_AT_HEADER, "1");
+		sink.dispatchFailed(TOPIC, methodHandler, "a".getBytes(), headers, new IllegalStateException());
+		assertEquals(1, sink.getPendingDeadLetters());
+
+		final List<String> replayed = new ArrayList<String>();
+		assertEquals(1, sink.replay(new MOMDeadLetterSink.ReplayHandler() {
+			@Override
+			public void replay(String topic, String handlerId, byte[] data, Map<String, String> headers) {
+				replayed.add(topic + ":" + handlerId + ":" + new String(data) + ":" + headers);
+			}
+		}));
+		assertEquals(Collections.singletonList(TOPIC + ":" + MOMDeadLetterSink.getHandlerId(methodHandler)
+				+ ":a:{type=quote}"), replayed);
+		assertEquals(0, sink.getPendingDeadLetters());
+	}
+
+	@Test
+	public void deadLettersFailingAgainAreStoredForTheNextReplay() throws Exception {
+		final MOMDeadLetterSink sink = new MOMDeadLetterSink(new MOMJournal(folder.getRoot(), 4096, 2));
+		final MOMMethodHandler methodHandler = batchHandler(new BatchController());
+		sink.dispatchFailed(TOPIC, methodHandler, "a".getBytes(), null, new IllegalStateException());
+
+		assertEquals(1, sink.replay(new MOMDeadLetterSink.ReplayHandler() {
+			@Override
+			public void replay(String topic, String handlerId, byte[] data, Map<String, String> headers) {
+				sink.dispatchFailed(topic, methodHandler, data, headers, new IllegalStateException());
+			}
+		}));
+		assertEquals(1, sink.getPendingDeadLetters());
+		assertEquals(2, sink.getDeadLetters());
+	}
+
+	@Test
+	public void oversizedDeadLettersAreDropped() throws Exception {
+		MOMDeadLetterSink sink = new MOMDeadLetterSink(new MOMJournal(folder.getRoot(), 4096, 2));
+		sink.dispatchFailed(TOPIC, batchHandler(new BatchController()), new byte[8192], null,
+				new IllegalStateException());
+		assertEquals(0, sink.getPendingDeadLetters());
+		assertEquals(1, sink.getDroppedDeadLetters());
+	}
+
+	@Test
+	public void failingHandlersDontStopTheDispatchToOthers() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		client.setDeadLetterSink(new MOMDeadLetterSink(new MOMJournal(folder.getRoot(), 4096, 2)) {
+			@Override
+			public void dispatchFailed(String topic, MOMMethodHandler methodHandler, byte[] data,
+					Map<String, String> headers, Throwable cause) {
+				throw new IllegalStateException("Failing on purpose");
+			}
+		});
+		Method method = StringController.class.getMethod("onMessage", String.class);
+		StringController failingController = new StringController();
+		failingController.failing = true;
+		StringController controller = new StringController();
+		client.subscribe(TOPIC, new MOMMethodHandler(method, failingController, method.getAnnotation(MOMMapping.class)));
+		client.subscribe(TOPIC, new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class)));
+
+		client.publish(TOPIC, "a");
+		assertEquals(Collections.singletonList("a"), failingController.messages);
+		assertEquals(Collections.singletonList("a"), controller.messages);
+		client.disconnect();
+	}
+
+	@Test
+	public void replayedDeadLettersAreDispatchedLikeReceivedMessages() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		BatchController controller = new BatchController();
+		client.subscribe(TOPIC, batchHandler(controller));
+
+		// Set after the subscription, the sink still receives the failures of the batch
+		MOMDeadLetterSink sink = new MOMDeadLetterSink(new MOMJournal(folder.getRoot(), 4096, 2));
+		client.setDeadLetterSink(sink);
+		controller.failing = true;
+		client.publish(TOPIC, "a");
+		client.publish(TOPIC, "b");
+		assertEquals(2, sink.getPendingDeadLetters());
+
+		controller.failing = false;
+		assertEquals(2, client.replayDeadLetters());
+		assertEquals(Collections.singletonList(Arrays.asList("a", "b")), controller.batches);
+		assertFalse(sink.getJournal().hasPending());
+		client.disconnect();
+	}
+
+	private static MOMMethodHandler batchHandler(BatchController controller) {
+		try {
+			Method method = BatchController.class.getMethod("onMessages", List.class);
+			return new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class));
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static class BatchController {
+
+		private final List<List<String>> batches = new ArrayList<List<String>>();
+		private volatile boolean failing;
+
+		@MOMMapping(topic = TOPIC, batchSize = 2, maxWaitMs = 0)
+		public void onMessages(List<String> messages) {
+			if (failing) {
+				throw new IllegalStateException("Failing on purpose");
+			}
+			batches.add(messages);
+		}
+	}
+
+	public static class StringController {
+
+		private final List<String> messages = new ArrayList<String>();
+		private boolean failing;
+
+		@MOMMapping(topic = TOPIC)
+		public void onMessage(String message) {
+			messages.add(message);
+			if (failing) {
+				throw new IllegalStateException("Failing on purpose");
+			}
+		}
+	}
+}
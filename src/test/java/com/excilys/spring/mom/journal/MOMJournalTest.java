@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recordsAreDrainedInOrder() throws IOException {
+		MOMJournal journal = new MOMJournal(folder.getRoot(), 1024, 4);
+		for (int i = 0; i < 10; i++) {
+			Map<String, String> headers = Collections.singletonMap("index", String.valueOf(i));
+			assertTrue(journal.append("/topic/test", headers, ("message " + i).getBytes()));
+		}
+
+		RecordingHandler handler = new RecordingHandler(Integer.MAX_VALUE);
+		assertEquals(10, journal.drain(handler));
+		assertFalse(journal.hasPending());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("/topic/test:" + i + ":message " + i, handler.records.get(i));
+		}
+	}
+
+	@Test
+	public void pendingRecordsSurviveRestart() throws IOException {
+		File directory = folder.getRoot();
+		MOMJournal journal = new MOMJournal(directory, 1024, 4);
+		for (int i = 0; i < 5; i++) {
+			journal.append("/topic/test", null, ("message " + i).getBytes());
+		}
+		assertEquals(2, journal.drain(new RecordingHandler(2)));
+
+		MOMJournal reopened = new MOMJournal(directory, 1024, 4);
+		assertEquals(3, reopened.getPendingCount());
+		RecordingHandler handler = new RecordingHandler(Integer.MAX_VALUE);
+		reopened.drain(handler);
+		assertEquals("/topic/test:null:message 2", handler.records.get(0));
+	}
+
+	@Test
+	public void journalIsBoundedAndSegmentsAreRecycled() throws IOException {
+		MOMJournal journal = new MOMJournal(folder.getRoot(), 256, 2);
+		byte[] data = new byte[100];
+
+		int appended = 0;
+		while (journal.append("/topic/test", null, data)) {
+			appended++;
+		}
+		assertEquals(4, appended);
+		assertEquals(2, journal.getSegmentCount());
+
+		journal.drain(new RecordingHandler(Integer.MAX_VALUE));
+		assertEquals(1, journal.getSegmentCount());
+		assertEquals(1, folder.getRoot().list().length);
+		assertTrue(journal.append("/topic/test", null, data));
+	}
+
+	private static final class RecordingHandler implements MOMJournal.RecordHandler {
+
+		private final List<String> records = new ArrayList<String>();
+		private final int limit;
+
+		RecordingHandler(int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean handle(String topic, Map<String, String> headers, byte[] data) {
+			if (records.size() >= limit) {
+				return false;
+			}
+			records.add(topic + ":" + headers.get("index") + ":" + new String(data));
+			return true;
+		}
+	}
+
+}
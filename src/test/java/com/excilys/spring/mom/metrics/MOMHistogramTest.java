@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMHistogramTest {
+
+	@Test
+	public void bucketsCoverValuesContinuously() {
+		for (long value = 0; value < 100000; value++) {
+			int index = MOMHistogram.bucketIndex(value);
+			assertTrue(value <= MOMHistogram.bucketUpperBound(index));
+			assertTrue(index == 0 || value > MOMHistogram.bucketUpperBound(index - 1));
+		}
+	}
+
+	@Test
+	public void quantilesHaveBoundedRelativeError() {
+		MOMHistogram histogram = new MOMHistogram();
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value * 1000);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000000, histogram.getMax());
+		assertEquals(5000500, histogram.getMean());
+		assertEquals(5000000, histogram.getValueAtQuantile(0.5), 5000000 * 0.07);
+		assertEquals(9900000, histogram.getValueAtQuantile(0.99), 9900000 * 0.07);
+		assertEquals(10000000, histogram.getValueAtQuantile(1));
+
+		histogram.reset();
+		assertEquals(0, histogram.getValueAtQuantile(0.99));
+	}
+
+}
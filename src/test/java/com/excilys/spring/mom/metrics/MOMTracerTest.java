@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.client.MOMMethodHandler;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMTracerTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	private final MOMTracer tracer = new MOMTracer();
+	private final List<Long> latencies = new ArrayList<Long>();
+
+	@Test
+	public void publishedMessagesAreStamped() {
+		Map<String, String> first = tracer.stamp();
+		Map<String, String> second = tracer.stamp();
+		assertTrue(Long.parseLong(first.get(MOMTracer.SENT_AT_HEADER)) <= System.currentTimeMillis());
+		assertFalse(first.get(MOMTracer.TRACE_ID_HEADER).equals(second.get(MOMTracer.TRACE_ID_HEADER)));
+
+		tracer.setStamping(false);
+		assertNull(tracer.stamp());
+	}
+
+	@Test
+	public void onlyReceiveTimesStampedLocallyAreTrusted() {
+		Map<String, String> forged = Collections.singletonMap(MOMTracer.RECEIVED_AT_HEADER, "1");
+		assertEquals(-1, MOMTracer.sinceReceived(forged));
+		assertEquals(-1, MOMTracer.sinceReceived(Collections.singletonMap(MOMTracer.RECEIVED_AT_HEADER, "now")));
+		assertEquals(-1, MOMTracer.sinceReceived(null));
+
+		Map<String, String> received = tracer.received(TOPIC, forged, null);
+		long sinceReceived = MOMTracer.sinceReceived(received);
+		assertTrue(sinceReceived >= 0 && sinceReceived < TimeUnit.SECONDS.toNanos(1));
+		assertTrue(MOMTracer.sinceReceived(tracer.received(TOPIC, null, null)) >= 0);
+	}
+
+	@Test
+	public void latencyIsCorrectedByTheClockOffsetOfTheTopic() {
+		tracer.setClockOffsets(Collections.singletonMap(TOPIC, 500L));
+		tracer.setDefaultClockOffsetMs(-2000);
+		Map<String, String> headers = Collections.singletonMap(MOMTracer.SENT_AT_HEADER,
+				String.valueOf(System.currentTimeMillis() - 1000));
+
+		tracer.received(TOPIC, headers, new LatencyRecorder());
+		tracer.received("/topic/other", headers, new LatencyRecorder());
+		assertEquals(1500, TimeUnit.NANOSECONDS.toMillis(latencies.get(0)), 100);
+		assertEquals(0, latencies.get(1).longValue());
+	}
+
+	private class LatencyRecorder implements MOMMetrics {
+
+		@Override
+		public void messageReceived(String topic, int size) {
+		}
+
+		@Override
+		public void messagePublished(String topic, int size) {
+		}
+
+		@Override
+		public void messageThrottled(String topic, long nanos, boolean dropped) {
+		}
+
+		@Override
+		public void messageParsed(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		}
+
+		@Override
+		public void methodInvoked(String topic, MOMMethodHandler methodHandler, long nanos, boolean success) {
+		}
+
+		@Override
+		public void messageLatency(String topic, long nanos) {
+			latencies.add(nanos);
+		}
+
+		@Override
+		public void messageHandled(String topic, MOMMethodHandler methodHandler, long nanos) {
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.annotation.MOMMapping;
+import com.excilys.spring.mom.annotation.MOMMappingConsum;
+import com.excilys.spring.mom.client.MOMMethodHandler;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMDecodeCacheTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	private final AtomicInteger parsings = new AtomicInteger();
+
+	@Test
+	public void immutableResultsAreParsedOnce() throws MOMResponseParsingException {
+		MOMDecodeCache decodeCache = new MOMDecodeCache("message".getBytes());
+		Object first = decodeCache.parse(new CountingParser(parsings, false))[0];
+		Object second = decodeCache.parse(new CountingParser(parsings, false))[0];
+		assertEquals("message", first);
+		assertSame(first, second);
+		assertEquals(1, parsings.get());
+	}
+
+	@Test
+	public void mutableResultsAreParsedForEachHandler() throws MOMResponseParsingException {
+		MOMDecodeCache decodeCache = new MOMDecodeCache("{\"price\":10}".getBytes());
+
+		Object first = decodeCache.parse(new MOMResponseJSONParser(Map.class))[0];
+		Object second = decodeCache.parse(new MOMResponseJSONParser(Map.class))[0];
+		assertEquals(first, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void jsonTreeIsReadOnceForEveryHandler() throws MOMResponseParsingException {
+		MOMDecodeCache decodeCache = new MOMDecodeCache("{\"price\":10}".getBytes());
+		List<JsonNode> trees = new ArrayList<JsonNode>();
+
+		decodeCache.parse(new TreeParser(trees, "price"));
+		decodeCache.parse(new TreeParser(trees, "volume"));
+		assertEquals(2, trees.size());
+		assertSame(trees.get(0), trees.get(1));
+	}
+
+	@Test
+	public void failuresAreRemembered() {
+		MOMDecodeCache decodeCache = new MOMDecodeCache("message".getBytes());
+		for (int i = 0; i < 2; i++) {
+			try {
+				decodeCache.parse(new CountingParser(parsings, true));
+			} catch (MOMResponseParsingException e) {
+				// Expected
+			}
+		}
+		assertEquals(1, parsings.get());
+	}
+
+	@Test
+	public void everyHandlerOfATopicGetsItsOwnParameters() throws Exception {
+		MOMClientInProcess client = new MOMClientInProcess();
+		QuoteController controller = new QuoteController();
+		for (String name : new String[] { "onQuote", "onOtherQuote" }) {
+			Method method = QuoteController.class.getMethod(name, Map.class);
+			client.subscribe(TOPIC, new MOMMethodHandler(method, controller, method.getAnnotation(MOMMapping.class)));
+		}
+
+		client.publish(TOPIC, "{\"price\":10}");
+		assertEquals(2, controller.quotes.size());
+		assertNotSame(controller.quotes.get(0), controller.quotes.get(1));
+		assertEquals(10, controller.quotes.get(1).get("price"));
+		client.disconnect();
+	}
+
+	/**
+	 * Shared parser counting its parsings, equal to every other counting parser.
+	 */
+	private static final class CountingParser implements MOMSharedResponseParser {
+
+		private final AtomicInteger parsings;
+		private final boolean failing;
+
+		private CountingParser(AtomicInteger parsings, boolean failing) {
+			this.parsings = parsings;
+			this.failing = failing;
+		}
+
+		@Override
+		public Object[] parse(byte[] data) throws MOMResponseParsingException {
+			parsings.incrementAndGet();
+			if (failing) {
+				throw new MOMResponseParsingException("Failing on purpose");
+			}
+			return new Object[] { new String(data) };
+		}
+
+		@Override
+		public int hashCode() {
+			return 31;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CountingParser;
+		}
+	}
+
+	/**
+	 * JSON parser recording the trees it binds from, never parsing the data itself.
+	 */
+	private static final class TreeParser implements MOMJsonTreeResponseParser {
+
+		private final List<JsonNode> trees;
+		private final String field;
+
+		private TreeParser(List<JsonNode> trees, String field) {
+			this.trees = trees;
+			this.field = field;
+		}
+
+		@Override
+		public Object[] parse(byte[] data) throws MOMResponseParsingException {
+			throw new MOMResponseParsingException("The tree has to be shared");
+		}
+
+		@Override
+		public Object[] parse(JsonNode tree, byte[] data) {
+			trees.add(tree);
+			return new Object[] { tree.get(field) };
+		}
+	}
+
+	public static class QuoteController {
+
+		private final List<Map<String, Object>> quotes = new ArrayList<Map<String, Object>>();
+
+		@MOMMapping(topic = TOPIC, consumes = MOMMappingConsum.JSON)
+		public void onQuote(Map<String, Object> quote) {
+			// Handlers may modify their parameters
+			quote.put("price", 0);
+			quotes.add(quote);
+		}
+
+		@MOMMapping(topic = TOPIC, consumes = MOMMappingConsum.JSON)
+		public void onOtherQuote(Map<String, Object> quote) {
+			quotes.add(quote);
+		}
+	}
+}
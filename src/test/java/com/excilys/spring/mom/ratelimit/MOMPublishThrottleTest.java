@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+import com.excilys.spring.mom.metrics.MOMMetricsRegistry;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMPublishThrottleTest {
+
+	@Test
+	public void burstIsGrantedThenRejected() {
+		MOMRateLimiter limiter = new MOMRateLimiter(1, 3);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertFalse(limiter.tryAcquire());
+		assertEquals(3, limiter.getGranted());
+		assertEquals(1, limiter.getRejected());
+		assertTrue(limiter.getSaturation() > 0.9);
+	}
+
+	@Test
+	public void reservationsAreSpacedByTheRate() {
+		MOMRateLimiter limiter = new MOMRateLimiter(10, 1);
+		long maxWait = TimeUnit.SECONDS.toNanos(1);
+		assertEquals(0, limiter.reserve(maxWait));
+
+		long first = limiter.reserve(maxWait);
+		long second = limiter.reserve(maxWait);
+		assertTrue(first > TimeUnit.MILLISECONDS.toNanos(50));
+		assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(90));
+		assertEquals(2, limiter.getDelayed());
+	}
+
+	@Test
+	public void globalRejectionReleasesTopicPermit() {
+		MOMPublishThrottle throttle = new MOMPublishThrottle(MOMThrottleMode.TRY);
+		throttle.setGlobalLimit(1, 1);
+		throttle.setTopicLimit("/topic/a", 1, 2);
+
+		assertTrue(throttle.tryAcquire("/topic/a"));
+		assertFalse(throttle.tryAcquire("/topic/a"));
+		assertEquals(1, throttle.getTopicLimiter("/topic/a").getGranted());
+		assertTrue(throttle.getTopicLimiter("/topic/a").tryAcquire());
+	}
+
+	@Test
+	public void blockingPublishIsRejectedBeyondTheMaxDelay() {
+		MOMPublishThrottle throttle = new MOMPublishThrottle(MOMThrottleMode.BLOCK);
+		throttle.setGlobalLimit(1, 1);
+		throttle.setMaxDelayMs(10);
+		MOMMetricsRegistry metrics = new MOMMetricsRegistry();
+		MOMClientInProcess client = new MOMClientInProcess();
+		client.setPublishThrottle(throttle);
+		client.setMetrics(metrics);
+
+		client.publish("/topic/a", "a");
+		try {
+			client.publish("/topic/a", "b");
+			fail("The blocking publish can't get a permit within 10 ms");
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+		assertEquals(1, metrics.getTopicStats("/topic/a").getPublishedMessages());
+		assertEquals(1, metrics.getTopicStats("/topic/a").getThrottleDroppedMessages());
+		client.disconnect();
+	}
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.reactive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.excilys.spring.mom.ack.MOMAcknowledger;
+import com.excilys.spring.mom.annotation.MOMAckMode;
+import com.excilys.spring.mom.client.impl.MOMClientInProcess;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMTopicPublisherTest {
+
+	private static final String TOPIC = "/topic/test";
+
+	@Test
+	public void messagesAreSignaledOnDemand() {
+		MOMClientInProcess client = new MOMClientInProcess();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		MOMTopicPublisher.create(client, TOPIC, String.class).subscribe(subscriber);
+
+		for (int i = 0; i < 5; i++) {
+			client.publish(TOPIC, "message" + i);
+		}
+		assertEquals(0, subscriber.messages.size());
+
+		subscriber.subscription.request(2);
+		assertEquals(2, subscriber.messages.size());
+
+		subscriber.subscription.request(10);
+		assertEquals(5, subscriber.messages.size());
+		assertEquals("message4", subscriber.messages.get(4));
+
+		client.publish(TOPIC, "message5");
+		assertEquals(6, subscriber.messages.size());
+	}
+
+	@Test
+	public void fullBufferKeepsMessagesSentAnyway() {
+		AcknowledgingClient client = new AcknowledgingClient();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		MOMTopicPublisher.create(client, TOPIC, String.class, 2).subscribe(subscriber);
+
+		// The MOM server holds the next messages as long as the buffered ones aren't acknowledged
+		Map<String, String> subscriptionHeaders = client.subscriptionHeaders();
+		assertEquals(MOMAckMode.CLIENT.getHeaderValue(), subscriptionHeaders.get("ack"));
+		assertEquals("2", subscriptionHeaders.get("activemq.prefetchSize"));
+
+		client.receive(0);
+		client.receive(1);
+		client.getAcknowledger().flush();
+		assertTrue(client.acks.isEmpty());
+
+		// A message sent anyway is buffered too, and not acknowledged before being signaled
+		client.receive(2);
+		client.getAcknowledger().flush();
+		assertTrue(client.acks.isEmpty());
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals(3, subscriber.messages.size());
+		assertEquals("message2", subscriber.messages.get(2));
+		assertNull(subscriber.error);
+
+		client.getAcknowledger().flush();
+		assertEquals("2", client.acks.get(client.acks.size() - 1));
+	}
+
+	@Test
+	public void cancelUnsubscribes() {
+		MOMClientInProcess client = new MOMClientInProcess();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		MOMTopicPublisher.create(client, TOPIC, String.class).subscribe(subscriber);
+
+		subscriber.subscription.cancel();
+		assertFalse(client.getTopicMethodHandlers().containsKey(TOPIC));
+	}
+
+	@Test
+	public void invalidRequestSignalsError() {
+		MOMClientInProcess client = new MOMClientInProcess();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		MOMTopicPublisher.create(client, TOPIC, String.class).subscribe(subscriber);
+
+		subscriber.subscription.request(0);
+		assertEquals(IllegalArgumentException.class, subscriber.error.getClass());
+		assertFalse(client.getTopicMethodHandlers().containsKey(TOPIC));
+	}
+
+	private static class AcknowledgingClient extends MOMClientInProcess {
+
+		private final List<String> acks = new ArrayList<String>();
+
+		private void receive(int messageId) {
+			dispatch(TOPIC, ("message" + messageId).getBytes(),
+					Collections.singletonMap(MOMAcknowledger.MESSAGE_ID_HEADER, String.valueOf(messageId)));
+		}
+
+		private Map<String, String> subscriptionHeaders() {
+			return getSubscriptionHeaders(TOPIC);
+		}
+
+		@Override
+		protected void acknowledge(String topic, String messageId) {
+			acks.add(messageId);
+		}
+	}
+
+	private static class RecordingSubscriber implements Subscriber<String> {
+
+		private final List<String> messages = new ArrayList<String>();
+		private Subscription subscription;
+		private Throwable error;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(String message) {
+			messages.add(message);
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+}
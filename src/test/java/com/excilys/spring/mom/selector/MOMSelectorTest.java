@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010-2011 eBusiness Information, Groupe Excilys (www.excilys.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.excilys.spring.mom.selector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author dvilleneuve
+ *
+ */
+public class MOMSelectorTest {
+
+	private static final byte[] TRADE = "{\"symbol\":\"EURUSD\",\"nested\":{\"symbol\":\"GBPUSD\"},\"amount\":1500000,\"live\":true,\"note\":null}"
+			.getBytes();
+
+	@Test
+	public void headerSelector() {
+		MOMSelector selector = MOMSelector.compile("header.type = 'trade'");
+		Map<String, String> headers = new HashMap<String, String>();
+
+		assertFalse(selector.matches(TRADE, headers));
+		headers.put("type", "trade");
+		assertTrue(selector.matches(TRADE, headers));
+		assertTrue(selector.isHeaderOnly());
+		assertEquals("type = 'trade'", selector.toBrokerSelector());
+	}
+
+	@Test
+	public void jsonFieldSelector() {
+		assertTrue(MOMSelector.compile("symbol = 'EURUSD'").matches(TRADE, null));
+		assertFalse(MOMSelector.compile("symbol = 'GBPUSD'").matches(TRADE, null));
+		assertTrue(MOMSelector.compile("amount >= 1e6 AND live = TRUE").matches(TRADE, null));
+		assertFalse(MOMSelector.compile("amount < 1000").matches(TRADE, null));
+		assertNull(MOMSelector.compile("amount < 1000").toBrokerSelector());
+	}
+
+	@Test
+	public void nullAndMissingValues() {
+		assertTrue(MOMSelector.compile("note IS NULL").matches(TRADE, null));
+		assertTrue(MOMSelector.compile("missing IS NULL").matches(TRADE, null));
+		assertTrue(MOMSelector.compile("nested IS NOT NULL").matches(TRADE, null));
+		assertFalse(MOMSelector.compile("missing = 'x'").matches(TRADE, null));
+		assertFalse(MOMSelector.compile("symbol = 'EURUSD'").matches("not json".getBytes(), null));
+	}
+
+	@Test
+	public void booleanOperators() {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("priority", "5");
+
+		assertTrue(MOMSelector.compile("NOT (symbol = 'GBPUSD') AND (header.priority > 3 OR live = FALSE)").matches(
+				TRADE, headers));
+		assertFalse(MOMSelector.compile("symbol <> 'EURUSD' OR header.priority != 5").matches(TRADE, headers));
+	}
+
+	@Test
+	public void onlyStringEqualitiesArePushedDownToBrokers() {
+		assertEquals("((type = 'trade' OR type = 'quote') AND desk = 'fx')", MOMSelector.compile(
+				"(header.type = 'trade' OR header.type = 'quote') AND header.desk = 'fx'").toBrokerSelector());
+
+		// Compared as numbers locally, as strings by a broker
+		assertNull(MOMSelector.compile("header.priority <> 5").toBrokerSelector());
+		assertNull(MOMSelector.compile("header.priority = 5").toBrokerSelector());
+		assertNull(MOMSelector.compile("header.type <> 'trade'").toBrokerSelector());
+		// NOT of a missing header is true locally, unknown for a broker
+		MOMSelector not = MOMSelector.compile("NOT (header.type = 'trade')");
+		assertTrue(not.isHeaderOnly());
+		assertTrue(not.matches(TRADE, new HashMap<String, String>()));
+		assertNull(not.toBrokerSelector());
+		assertNull(MOMSelector.compile("header.type IS NULL").toBrokerSelector());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidSelector() {
+		MOMSelector.compile("symbol = ");
+	}
+
+}